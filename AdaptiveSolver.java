@@ -0,0 +1,270 @@
+// AdaptiveSolver.class  This class advances a PlantModel state with steps
+//                       of varying length: short ones while the plant is
+//                       changing (pumps starting, valves and heaters
+//                       moving, a reservoir filling or heating) and long
+//                       ones while it is settled, instead of one interval
+//                       after another.
+//
+//    Each step of h msec is checked against two steps of h/2 (step
+//    doubling): the larger difference in any valve, pump, heater, level
+//    or energy, as a fraction of its range, is the error of the step.  A
+//    step is kept (the two halves, the better result) if that is within
+//    the tolerance, and tried again shorter if not; the next step is
+//    sized from the error either way.  A step that would end the run is
+//    tried again shorter down to the minimum step, so an overflow, a
+//    boil, a blown pump or steady state is found as closely as the fixed
+//    interval would find it.  The fault times of the scenario are hard
+//    step boundaries, and the step after one starts again at the minimum.
+//
+//    Use an Engine.EXPONENTIAL model: Euler steps of the demand (time
+//    constant 0.1 sec) fail the error test at any length worth taking.
+//
+//    Usage:  java AdaptiveSolver [-tolerance x] [-limit minutes] [-policy script]
+//                                scenario.cf|directory...
+//
+//    runs each scenario (under the operator script, if given) with the
+//    fixed interval and then adaptively, and prints the outcome and step
+//    statistics of both.  The script's actions are step boundaries too.
+//
+
+import java.io.*;
+import java.util.*;
+
+final class AdaptiveSolver {
+
+   public final static double DEFAULT_TOLERANCE = 0.001;
+   public final static int DEFAULT_MAXIMUM_STEP = 60*1000;
+   private final PlantModel model;
+   private final double tolerance;
+   private final int minimumStep;
+   private final int maximumStep;
+   // fault onsets (msec, ascending) and the range of each error-controlled
+   // state quantity (0: not controlled)
+   private final int[] boundaries;
+   private final double[] range = new double[PlantModel.SIZE];
+   private final double[] full = new double[PlantModel.SIZE];
+   private final double[] half = new double[PlantModel.SIZE];
+   private int step;
+   // statistics
+   private long accepted;
+   private long rejected;
+   private long covered;
+   private int smallest = Integer.MAX_VALUE;
+   private int largest;
+
+   public AdaptiveSolver(PlantModel model) {
+      this(model, DEFAULT_TOLERANCE, model.getInterval(), DEFAULT_MAXIMUM_STEP);
+      }
+
+   public AdaptiveSolver(PlantModel model, double tolerance, int minimumStep, int maximumStep) {
+      if(minimumStep <= 0 || maximumStep < minimumStep)
+         throw new IllegalArgumentException("bad step limits " + minimumStep + " .. " + maximumStep);
+      this.model = model;
+      this.tolerance = tolerance;
+      this.minimumStep = minimumStep;
+      this.maximumStep = maximumStep;
+      step = minimumStep;
+      for(int c=0; c<PlantModel.LAGS; c++)
+         range[PlantModel.OPENING+c] = model.maximum[c];
+      for(int k=0; k<2; k++)
+         range[PlantModel.PUMP_FLOW+k] = model.pumpMaximumFlow[k];
+      for(int r=0; r<2; r++) {
+         range[PlantModel.HEATER_OPENING+r] = model.heaters[r].maximumHeatFlow;
+         range[PlantModel.LEVEL+r] = model.reservoirs[r].maximumLevel;
+         range[PlantModel.ENERGY+r] = model.reservoirs[r].maximumEnergy;
+         }
+      // every time at which a fault sets in
+      TreeSet<Integer> times = new TreeSet<Integer>();
+      for(int c=0; c<PlantModel.LAGS; c++) {
+         addBoundary(times, model.fault1Time[c]);
+         addBoundary(times, model.fault2Time[c]);
+         }
+      for(int k=0; k<2; k++)
+         addBoundary(times, model.pumpFaultTime[k]);
+      for(int r=0; r<2; r++) {
+         addBoundary(times, model.heaters[r].faultTime);
+         addBoundary(times, model.reservoirs[r].additionalInflowTime);
+         }
+      boundaries = new int[times.size()];
+      int i = 0;
+      for(Integer time : times)
+         boundaries[i++] = time;
+      }
+
+   private static void addBoundary(TreeSet<Integer> times, double time) {
+      if(time != Simulator.NEVER && time > 0)
+         times.add((int)time);
+      }
+
+   public final PlantModel getModel() {
+      return model;
+      }
+
+   // advances state under controls up to time until (msec) or until the
+   // run ends; returns the new STATUS
+   public final int advance(double[] state, double[] controls, int until) {
+      while(state[PlantModel.STATUS] == Engine.RUNNING && state[PlantModel.T] < until) {
+         int t = (int)state[PlantModel.T];
+         int boundary = nextBoundary(t);
+         int h = Math.min(step, Math.min(until, boundary) - t);
+         System.arraycopy(state, 0, full, 0, PlantModel.SIZE);
+         model.step(full, controls, h);
+         System.arraycopy(state, 0, half, 0, PlantModel.SIZE);
+         if(h < 2)
+            model.step(half, controls, h);
+         else if(model.step(half, controls, h/2) == Engine.RUNNING)
+            model.step(half, controls, h - h/2);
+         boolean ended = half[PlantModel.STATUS] != Engine.RUNNING || full[PlantModel.STATUS] != Engine.RUNNING;
+         double error = ended ? 0 : error(full, half);
+         if(h > minimumStep && (ended || error > tolerance)) {
+            rejected++;
+            // close in on the end of the run, or on the error wanted
+            if(ended)
+               step = Math.max(minimumStep, h/4);
+            else
+               step = Math.max(minimumStep, (int)(h*Math.max(0.2, 0.9*Math.sqrt(tolerance/error))));
+            continue;
+            }
+         accept(state, half, h);
+         if(t + h == boundary)
+            // a fault has just set in
+            step = minimumStep;
+         else if(h == step || error > 0) {
+            int next = error == 0 ? 2*h : (int)(h*Math.min(2, 0.9*Math.sqrt(tolerance/error)));
+            step = Math.max(minimumStep, Math.min(maximumStep, next));
+            }
+         }
+      return (int)state[PlantModel.STATUS];
+      }
+
+   private void accept(double[] state, double[] result, int h) {
+      System.arraycopy(result, 0, state, 0, PlantModel.SIZE);
+      accepted++;
+      covered += h;
+      smallest = Math.min(smallest, h);
+      largest = Math.max(largest, h);
+      }
+
+   // starts again from the minimum step, as after a fault (call it when
+   // the controls change)
+   public final void restart() {
+      step = minimumStep;
+      }
+
+   // the first fault onset after t (or never)
+   private int nextBoundary(int t) {
+      for(int i=0; i<boundaries.length; i++)
+         if(boundaries[i] > t)
+            return boundaries[i];
+      return Integer.MAX_VALUE;
+      }
+
+   // the largest difference between the two results, as a fraction of its range
+   private double error(double[] a, double[] b) {
+      double error = 0;
+      for(int q=0; q<PlantModel.SIZE; q++)
+         if(range[q] > 0)
+            error = Math.max(error, Math.abs(a[q] - b[q])/range[q]);
+      return error;
+      }
+
+   public final long getAccepted() {
+      return accepted;
+      }
+
+   public final long getRejected() {
+      return rejected;
+      }
+
+   public final int getSmallestStep() {
+      return accepted == 0 ? 0 : smallest;
+      }
+
+   public final int getLargestStep() {
+      return largest;
+      }
+
+   public final double getMeanStep() {
+      return accepted == 0 ? 0 : (double)covered/accepted;
+      }
+
+   public final String getReport() {
+      return accepted + " steps, " + rejected + " rejected, " +
+             getSmallestStep()/1000.0 + " .. " + getLargestStep()/1000.0 + " sec, mean " +
+             Math.round(getMeanStep())/1000.0 + " sec";
+      }
+
+   public static void main(String[] args) {
+      double tolerance = DEFAULT_TOLERANCE;
+      int limit = 30*60*1000;
+      ScriptedPolicy policy = ScriptedPolicy.NONE;
+      ArrayList<File> scenarios = new ArrayList<File>();
+      try {
+         for(int i=0; i<args.length; i++) {
+            if(args[i].equals("-tolerance"))
+               tolerance = Double.parseDouble(args[++i]);
+            else if(args[i].equals("-limit"))
+               limit = (int)(Double.parseDouble(args[++i])*60*1000);
+            else if(args[i].equals("-policy"))
+               policy = ScriptedPolicy.load(new File(args[++i]));
+            else
+               BatchRunner.addScenarios(new File(args[i]), scenarios);
+            }
+         }
+      catch(Exception e) {
+         System.out.println("Error: " + e);
+         System.exit(1);
+         }
+      if(scenarios.isEmpty()) {
+         System.out.println("usage: java AdaptiveSolver [-tolerance x] [-limit minutes] [-policy script] scenario.cf|directory...");
+         System.exit(1);
+         }
+      System.out.println("Scenario\tSolver\tTermination\tTime\tSteps\tLevel1\tLevel2\tTemp1\tTemp2");
+      for(File file : scenarios) {
+         try {
+            Scenario scenario = Scenario.load(file);
+            double[] state = new double[PlantModel.SIZE];
+            double[] controls = new double[PlantModel.CONTROLS];
+            // fixed interval, as the Engine runs
+            PlantModel fixed = new PlantModel(scenario);
+            fixed.initialize(state);
+            fixed.initializeControls(controls);
+            long steps = 0;
+            while(state[PlantModel.STATUS] == Engine.RUNNING && state[PlantModel.T] < limit) {
+               int t = (int)state[PlantModel.T];
+               policy.apply(controls, t, t + fixed.getInterval());
+               fixed.step(state, controls, fixed.getInterval());
+               steps++;
+               }
+            System.out.println(row(file, "fixed", fixed, state, steps));
+            // adaptive
+            PlantModel model = new PlantModel(scenario, Engine.EXPONENTIAL);
+            AdaptiveSolver solver = new AdaptiveSolver(model, tolerance, model.getInterval(), DEFAULT_MAXIMUM_STEP);
+            model.initialize(state);
+            model.initializeControls(controls);
+            while(state[PlantModel.STATUS] == Engine.RUNNING && state[PlantModel.T] < limit) {
+               int t = (int)state[PlantModel.T];
+               int next = policy.getNextTime(t);
+               if(policy.apply(controls, t, next) > 0)
+                  solver.restart();
+               solver.advance(state, controls, Math.min(next, limit));
+               }
+            System.out.println(row(file, "adaptive", model, state, solver.getAccepted()));
+            System.out.println("\t" + solver.getReport());
+            }
+         catch(Exception e) {
+            System.out.println(file.getName() + "\tError: " + e);
+            }
+         }
+      }
+
+   private static String row(File file, String solver, PlantModel model, double[] state, long steps) {
+      String message = model.getTerminationMessage(state);
+      return file.getName() + "\t" + solver + "\t" +
+             (message == null ? BatchRunner.TIME_LIMIT_MESSAGE : message) + "\t" +
+             state[PlantModel.T]/1000 + "\t" + steps + "\t" +
+             state[PlantModel.LEVEL] + "\t" + state[PlantModel.LEVEL+1] + "\t" +
+             state[PlantModel.RESERVOIR_TEMPERATURE] + "\t" + state[PlantModel.RESERVOIR_TEMPERATURE+1];
+      }
+
+   }
@@ -0,0 +1,193 @@
+// BatchRunner.class  Command-line runner that plays every scenario under
+//                    every operator policy, headless and as fast as
+//                    possible, spreading the runs over all cores.  Each
+//                    run gets its own Engine.  One tab-separated summary
+//                    row is printed per run, in the order given.
+//
+//    Usage:  java BatchRunner [-threads n] [-limit minutes] [-interval sec]
+//                             [-exact] [-fast] [-telemetry n] [-policy script]...
+//                             scenario.cf|directory...
+//
+//    Scenario directories are expanded to the *.cf files they contain.
+//    Without -policy each scenario is run once with no operator input.
+//    -interval replaces the scenarios' simulation interval; -exact moves
+//    the first-order components by their exact exponential response,
+//    which stays accurate at intervals 10 to 100 times the usual one.
+//    -fast lets the Engine jump over the stretches in which the plant has
+//    settled in steady state (see Engine.fastForward); the times and
+//    terminations are the same, the scores equal to many digits.
+//    -telemetry records the full plant state every n intervals into
+//    <scenario>_<policy>.tlm (see TelemetryRecorder).
+//
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public final class BatchRunner {
+
+   public final static String TIME_LIMIT_MESSAGE = "Time limit reached.";
+   private int limit;
+   private int interval;                  // msec, 0: the scenario's
+   private int integration = Engine.EULER;
+   private boolean fast;
+   private int telemetry;                 // intervals per telemetry row, 0: none
+
+   public BatchRunner(int limit) {
+      this.limit = limit;
+      }
+
+   public BatchRunner(int limit, int interval, int integration) {
+      this.limit = limit;
+      this.interval = interval;
+      this.integration = integration;
+      }
+
+   // lets the runs jump over settled stretches (see Engine.fastForward)
+   public final void setFastForward(boolean fast) {
+      this.fast = fast;
+      }
+
+   // records each run's full state every decimation intervals (0: not at all)
+   public final void setTelemetry(int decimation) {
+      telemetry = decimation;
+      }
+
+   public static void main(String[] args) {
+      int threads = Runtime.getRuntime().availableProcessors();
+      int limit = 30*60*1000;
+      int interval = 0;
+      int integration = Engine.EULER;
+      boolean fast = false;
+      int telemetry = 0;
+      ArrayList<OperatorPolicy> policies = new ArrayList<OperatorPolicy>();
+      ArrayList<File> scenarios = new ArrayList<File>();
+      try {
+         for(int i=0; i<args.length; i++) {
+            if(args[i].equals("-threads"))
+               threads = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-limit"))
+               limit = (int)(Double.parseDouble(args[++i])*60*1000);
+            else if(args[i].equals("-interval"))
+               interval = (int)Math.round(Double.parseDouble(args[++i])*1000);
+            else if(args[i].equals("-exact"))
+               integration = Engine.EXPONENTIAL;
+            else if(args[i].equals("-fast"))
+               fast = true;
+            else if(args[i].equals("-telemetry"))
+               telemetry = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-policy"))
+               policies.add(ScriptedPolicy.load(new File(args[++i])));
+            else
+               addScenarios(new File(args[i]), scenarios);
+            }
+         }
+      catch(Exception e) {
+         System.out.println("Error: " + e);
+         System.exit(1);
+         }
+      if(scenarios.isEmpty()) {
+         System.out.println("usage: java BatchRunner [-threads n] [-limit minutes] [-interval sec] [-exact] [-fast] [-telemetry n] [-policy script]... scenario.cf|directory...");
+         System.exit(1);
+         }
+      if(policies.isEmpty())
+         policies.add(ScriptedPolicy.NONE);
+
+      final BatchRunner runner = new BatchRunner(limit, interval, integration);
+      runner.setFastForward(fast);
+      runner.setTelemetry(telemetry);
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      ArrayList<Future<String>> rows = new ArrayList<Future<String>>();
+      for(final File scenario : scenarios)
+         for(final OperatorPolicy policy : policies)
+            rows.add(pool.submit(new Callable<String>() {
+                                    public String call() {
+                                       return runner.run(scenario, policy);
+                                       }
+                                    }));
+      System.out.println(header());
+      try {
+         for(Future<String> row : rows)
+            System.out.println(row.get());
+         }
+      catch(Exception e) {
+         System.out.println("Error: " + e);
+         }
+      pool.shutdown();
+      }
+
+   static void addScenarios(File f, ArrayList<File> scenarios) throws IOException {
+      if(f.isDirectory()) {
+         File[] files = f.listFiles(new FilenameFilter() {
+                                       public boolean accept(File dir, String name) {
+                                          return name.endsWith(".cf");
+                                          }
+                                       });
+         Arrays.sort(files);
+         scenarios.addAll(Arrays.asList(files));
+         }
+      else if(f.isFile())
+         scenarios.add(f);
+      else
+         throw new FileNotFoundException(f.toString());
+      }
+
+   public static String header() {
+      return "Scenario\tPolicy\tTermination\tTime\tSteadyStart" +
+             "\tS00\tS01\tS02\tS10\tS11\tS12\tS20\tS21\tS22";
+      }
+
+   // plays one scenario under one policy and returns its summary row
+   public final String run(File scenario, OperatorPolicy policy) {
+      Engine engine;
+      TelemetryRecorder recorder = null;
+      try {
+         engine = new Engine(scenario.getPath());
+         if(interval > 0)
+            engine.setInterval(interval);
+         engine.setIntegration(integration);
+         if(telemetry > 0) {
+            String name = scenario.getName().replaceFirst("\\.cf$", "") + "_" + policy.getName();
+            recorder = new TelemetryRecorder(engine, new File(name + TelemetryRecorder.EXTENSION), telemetry);
+            engine.addEngineListener(recorder);
+            }
+         }
+      catch(Exception e) {
+         return scenario.getName() + "\t" + policy.getName() + "\tError: " + e;
+         }
+      while(!engine.isTerminated() && engine.getTime() < limit) {
+         int t = engine.getTime();
+         policy.apply(engine, t);
+         if(fast)
+            // as far as the step that applies the policy's next action
+            engine.fastForward(Math.min(limit, policy.getNextTime(t + engine.getInterval() - 1) -
+                                               engine.getInterval() + 1));
+         else
+            engine.step();
+         }
+      if(recorder != null)
+         try {
+            recorder.close();
+            }
+         catch(IOException e) {
+            return scenario.getName() + "\t" + policy.getName() + "\tError: " + e;
+            }
+      return row(scenario.getName(), policy.getName(), engine);
+      }
+
+   public static String row(String scenario, String policy, Engine engine) {
+      StringBuffer row = new StringBuffer();
+      row.append(scenario).append('\t').append(policy).append('\t');
+      row.append(engine.isTerminated() ? engine.getTerminationMessage() : TIME_LIMIT_MESSAGE);
+      row.append('\t').append(engine.getTime()/1000.0);
+      // the steady period that ended the run, or the one in progress
+      int steadyStart = engine.getSteadyStartTime();
+      row.append('\t').append(steadyStart == Simulator.NEVER ? "-" : "" + steadyStart/1000.0);
+      Score score = engine.getScore();
+      for(int i=0; i<3; i++)
+         for(int j=0; j<3; j++)
+            row.append('\t').append(score.getScore(i, j));
+      return row.toString();
+      }
+
+   }
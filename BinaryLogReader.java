@@ -0,0 +1,235 @@
+// BinaryLogReader.class  This class reads a binary trial log (see
+//                        BinaryLogSink) one record at a time.  The file is
+//                        memory-mapped and decoded in place; reading a row
+//                        allocates nothing, so an analysis can scan a long
+//                        trial as fast as it can consume the values.
+//
+//    Usage:
+//
+//       BinaryLogReader reader = BinaryLogReader.open(file);
+//       int kind;
+//       while((kind = reader.next()) != BinaryLogReader.END)
+//          if(kind == BinaryLogReader.ROW)
+//             ... reader.getTime(), reader.getSetting(i) ...
+//
+//    seek() goes through the log's LogIndex, when it has one, to the
+//    last SYNC before the time.  A compressed or rotated log (see
+//    LogStream) is decompressed into memory instead of mapped.
+//
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+final class BinaryLogReader implements LogReader {
+
+   private ByteBuffer buffer;
+   private File file;
+   private LogIndex index;
+   private int start;                     // the first record
+   private boolean held;                  // next() returns the current row again
+   private String subject;
+   private String trial;
+   private String scenario;
+   private int interfaceType;
+   private long date;
+   private ArrayList<String> strings = new ArrayList<String>();
+   // current record
+   private String text;
+   private int time;
+   private double[] settings = new double[LogWriter.SETTINGS];
+   private int pumps;
+   private int steadyTime;
+
+   public static BinaryLogReader open(File file) throws IOException {
+      BinaryLogReader reader = new BinaryLogReader(map(file));
+      reader.file = file;
+      return reader;
+      }
+
+   // a file's bytes, or those of a compressed or rotated log decompressed
+   static ByteBuffer map(File file) throws IOException {
+      if(LogStream.isCompressed(file) || LogStream.getPart(file, 1).isFile())
+         return ByteBuffer.wrap(LogStream.readAll(file));
+      FileInputStream in = new FileInputStream(file);
+      try {
+         FileChannel channel = in.getChannel();
+         // the mapping stays valid after the channel is closed
+         return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         }
+      finally {
+         in.close();
+         }
+      }
+
+   public BinaryLogReader(ByteBuffer buffer) throws IOException {
+      this.buffer = buffer;
+      checkMagic(buffer, BinaryLogSink.MAGIC);
+      try {
+         subject = readString();
+         trial = readString();
+         scenario = readString();
+         interfaceType = buffer.get();
+         date = buffer.getLong();
+         }
+      catch(RuntimeException e) {
+         throw new IOException("corrupt binary log header: " + e);
+         }
+      start = buffer.position();
+      }
+
+   // moves to the next record; returns TEXT, ROW or END
+   public final int next() throws IOException {
+      if(held) {
+         held = false;
+         return ROW;
+         }
+      if(!buffer.hasRemaining())
+         return END;
+      try {
+         int tag = buffer.get();
+         switch(tag) {
+            case BinaryLogSink.TEXT_NEW:
+               text = readString();
+               strings.add(text);
+               return TEXT;
+            case BinaryLogSink.TEXT_REF:
+               text = strings.get(readVarint());
+               return TEXT;
+            case BinaryLogSink.KEY:
+               time = readVarint();
+               for(int j=0; j<LogWriter.SETTINGS; j++)
+                  settings[j] = buffer.getDouble();
+               pumps = buffer.get();
+               steadyTime = readVarint();
+               return ROW;
+            case BinaryLogSink.ROW:
+               int mask = buffer.getShort();
+               time += BinaryLogSink.unzigzag(readVarint());
+               for(int j=0; j<LogWriter.SETTINGS; j++)
+                  if((mask & (1 << j)) != 0)
+                     settings[j] = buffer.getDouble();
+               if((mask & (1 << BinaryLogSink.PUMPS_BIT)) != 0)
+                  pumps = buffer.get();
+               if((mask & (1 << BinaryLogSink.STEADY_BIT)) != 0)
+                  steadyTime += BinaryLogSink.unzigzag(readVarint());
+               return ROW;
+            case BinaryLogSink.SYNC:
+               strings.clear();
+               return next();
+            }
+         throw new IOException("corrupt binary log: record type " + tag + " at " + (buffer.position() - 1));
+         }
+      catch(RuntimeException e) {
+         throw new IOException("corrupt binary log at " + buffer.position() + ": " + e);
+         }
+      }
+
+   // the first row at or after time is next; a log opened from a file
+   // with a LogIndex beside it is entered at the last SYNC before time,
+   // any other is read from the start
+   public final void seek(int time) throws IOException {
+      if(index == null && file != null)
+         index = LogIndex.open(file);
+      long offset = index == null ? -1 : index.getOffset(time);
+      held = false;
+      strings.clear();
+      if(offset >= start && offset < buffer.limit())
+         buffer.position((int)offset);
+      else {
+         buffer.position(start);
+         this.time = 0;
+         steadyTime = 0;
+         }
+      int kind;
+      while((kind = next()) != END)
+         if(kind == ROW && this.time >= time) {
+            held = true;
+            return;
+            }
+      }
+
+   // magic and version, as BinaryLogSink.writeHeader wrote them
+   static void checkMagic(ByteBuffer buffer, byte[] magic) throws IOException {
+      for(int i=0; i<magic.length; i++)
+         if(!buffer.hasRemaining() || buffer.get() != magic[i])
+            throw new IOException("not a DURESS log of this kind");
+      int version = buffer.hasRemaining() ? buffer.get() : -1;
+      if(version < 1 || version > BinaryLogSink.VERSION)
+         throw new IOException("unsupported log version " + version);
+      }
+
+   private String readString() {
+      return readString(buffer);
+      }
+
+   private int readVarint() {
+      return readVarint(buffer);
+      }
+
+   static String readString(ByteBuffer buffer) {
+      int length = readVarint(buffer);
+      byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+      }
+
+   static int readVarint(ByteBuffer buffer) {
+      int value = 0;
+      for(int shift=0; ; shift+=7) {
+         int b = buffer.get();
+         value |= (b & 0x7f) << shift;
+         if((b & 0x80) == 0)
+            return value;
+         }
+      }
+
+   public final String getSubject() {
+      return subject;
+      }
+
+   public final String getTrial() {
+      return trial;
+      }
+
+   public final String getScenario() {
+      return scenario;
+      }
+
+   public final int getInterfaceType() {
+      return interfaceType;
+      }
+
+   public final long getDate() {
+      return date;
+      }
+
+   // byte offset of the next record
+   public final int getPosition() {
+      return buffer.position();
+      }
+
+   public final String getText() {
+      return text;
+      }
+
+   public final int getTime() {
+      return time;
+      }
+
+   // index as in LogSink.row: VA, VA1, VA2, VB, VB1, VB2, VO1, VO2, H1, H2, R1, R2
+   public final double getSetting(int index) {
+      return settings[index];
+      }
+
+   public final boolean isPumpOn(int pump) {
+      return (pumps & (1 << pump)) != 0;
+      }
+
+   public final int getSteadyTime() {
+      return steadyTime;
+      }
+
+   }
@@ -0,0 +1,178 @@
+// BinaryLogSink.class  This class writes a trial log in the compact binary
+//                      form read by BinaryLogReader.  Most of a row repeats
+//                      the one before it, so a row only carries the columns
+//                      that changed; every KEY_INTERVAL rows a complete row
+//                      is written so a reader can start decoding there.
+//                      Where the LogIndex asks for it, a SYNC goes before
+//                      the complete row, so a reader can start there
+//                      without having seen the lines before it.
+//
+//    File layout (big-endian, as DataOutputStream writes it):
+//
+//       "DURL" version(2)
+//       header:  subject  trial  scenario  (strings)
+//                interface type (byte)  date (long, msec since 1970)
+//       records, up to the end of the file:
+//          TEXT_NEW  string                     a line not seen before; it
+//                                               joins the string table
+//          TEXT_REF  varint                     a line from the string table
+//          ROW       mask(short) varint(time delta)
+//                    then, for each bit set in mask:
+//                       bits 0..11  setting (double)
+//                       bit  12     pumps (byte)
+//                       bit  13     varint(steady time delta)
+//          KEY       varint(time) 12 settings (double) pumps (byte)
+//                    varint(steady time)
+//          SYNC                                 the string table is empty
+//                                               again; a KEY follows
+//
+//    Version 1 files are the same without SYNC records.
+//
+//    strings are varint(length) followed by UTF-8; time deltas are
+//    zigzag varints.
+//
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+final class BinaryLogSink implements LogSink {
+
+   public final static byte[] MAGIC = {'D', 'U', 'R', 'L'};
+   public final static int VERSION = 2;
+   public final static int TEXT_NEW = 1;
+   public final static int TEXT_REF = 2;
+   public final static int ROW = 3;
+   public final static int KEY = 4;
+   public final static int SYNC = 5;
+   public final static int PUMPS_BIT = 12;
+   public final static int STEADY_BIT = 13;
+   public final static int KEY_INTERVAL = 1024;     // rows
+   private DataOutputStream out;
+   private HashMap<String, Integer> strings = new HashMap<String, Integer>();
+   private boolean sync;                 // the next row starts with a SYNC
+   // previous row
+   private int rows;
+   private int time;
+   private double[] settings = new double[LogWriter.SETTINGS];
+   private int pumps;
+   private int steadyTime;
+
+   public BinaryLogSink(OutputStream stream, String subject, String trial,
+                        String scenario, int interfaceType, long date) throws IOException {
+      out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+      writeHeader(out, MAGIC, subject, trial, scenario, interfaceType, date);
+      }
+
+   public final void text(String line) throws IOException {
+      Integer index = strings.get(line);
+      if(index != null) {
+         out.writeByte(TEXT_REF);
+         writeVarint(index.intValue());
+         }
+      else {
+         strings.put(line, strings.size());
+         out.writeByte(TEXT_NEW);
+         writeString(line);
+         }
+      }
+
+   public final void row(int newTime, double[] newSettings, int offset, int newPumps, int newSteadyTime) throws IOException {
+      if(sync) {
+         out.writeByte(SYNC);
+         strings.clear();
+         sync = false;
+         rows = 0;
+         }
+      if(rows++ % KEY_INTERVAL == 0) {
+         out.writeByte(KEY);
+         writeVarint(newTime);
+         for(int j=0; j<LogWriter.SETTINGS; j++)
+            out.writeDouble(newSettings[offset+j]);
+         out.writeByte(newPumps);
+         writeVarint(newSteadyTime);
+         }
+      else {
+         int mask = 0;
+         for(int j=0; j<LogWriter.SETTINGS; j++)
+            // compare bits so that -0.0 and NaN round-trip too
+            if(Double.doubleToRawLongBits(newSettings[offset+j]) != Double.doubleToRawLongBits(settings[j]))
+               mask |= 1 << j;
+         if(newPumps != pumps)
+            mask |= 1 << PUMPS_BIT;
+         if(newSteadyTime != steadyTime)
+            mask |= 1 << STEADY_BIT;
+         out.writeByte(ROW);
+         out.writeShort(mask);
+         writeVarint(zigzag(newTime - time));
+         for(int j=0; j<LogWriter.SETTINGS; j++)
+            if((mask & (1 << j)) != 0)
+               out.writeDouble(newSettings[offset+j]);
+         if((mask & (1 << PUMPS_BIT)) != 0)
+            out.writeByte(newPumps);
+         if((mask & (1 << STEADY_BIT)) != 0)
+            writeVarint(zigzag(newSteadyTime - steadyTime));
+         }
+      time = newTime;
+      System.arraycopy(newSettings, offset, settings, 0, LogWriter.SETTINGS);
+      pumps = newPumps;
+      steadyTime = newSteadyTime;
+      }
+
+   public final long mark() {
+      sync = true;
+      return out.size();
+      }
+
+   public final void flush() throws IOException {
+      out.flush();
+      }
+
+   public final void close() throws IOException {
+      out.close();
+      }
+
+   // magic, version and the trial header; shared with EventLogSink
+   static void writeHeader(DataOutputStream out, byte[] magic, String subject, String trial,
+                           String scenario, int interfaceType, long date) throws IOException {
+      out.write(magic);
+      out.writeByte(VERSION);
+      writeString(out, subject);
+      writeString(out, trial);
+      writeString(out, scenario);
+      out.writeByte(interfaceType);
+      out.writeLong(date);
+      }
+
+   private void writeString(String s) throws IOException {
+      writeString(out, s);
+      }
+
+   private void writeVarint(int value) throws IOException {
+      writeVarint(out, value);
+      }
+
+   static void writeString(DataOutputStream out, String s) throws IOException {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      writeVarint(out, bytes.length);
+      out.write(bytes);
+      }
+
+   // unsigned LEB128
+   static void writeVarint(DataOutputStream out, int value) throws IOException {
+      while((value & ~0x7f) != 0) {
+         out.writeByte((value & 0x7f) | 0x80);
+         value >>>= 7;
+         }
+      out.writeByte(value);
+      }
+
+   static int zigzag(int value) {
+      return (value << 1) ^ (value >> 31);
+      }
+
+   static int unzigzag(int value) {
+      return (value >>> 1) ^ -(value & 1);
+      }
+
+   }
@@ -17,6 +17,7 @@
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.util.zip.Deflater;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
@@ -48,7 +49,13 @@ public class DuressJ extends Frame implements ActionListener {
     public DuressJ() {
     	
         mainMenu.add(makeMenu("File", new Object[] {"Load Scenario...", null, "Exit"}, this));
-        mainMenu.add(makeMenu("Simulator", new Object[] {"Start", null, "Pause", "Resume"}, this));
+        mainMenu.add(makeMenu("Simulator", new Object[] {"Start", null, "Pause", "Resume", null,
+            makeMenu("Speed", new Object[] {"Real Time", "10x", "100x", "As Fast As Possible", null,
+                                            "Catch Up When Late", "Skip When Late"}, this),
+            makeMenu("Log Format", new Object[] {"Text Log", "Binary Log", "Event Log", null,
+                                                 "Uncompressed Log", "Compressed Log", null,
+                                                 "No Telemetry", "Record Telemetry"}, this)},
+                              this));
         mainMenu.add(makeMenu("Interface", new Object[] {"Physical", null, "Physical + Functional", null,
             makeMenu("Multi-Level", new Object[] {"Settings Level", "Flows Level", "Principles Level", "Goals Level"}, this)},
                               this));
@@ -242,6 +249,32 @@ public class DuressJ extends Frame implements ActionListener {
             simulator.pause();
         else if(arg.equals("Resume"))
             simulator.resume();
+        else if(arg.equals("Real Time"))
+            simulator.setSpeed(SimulationClock.REAL_TIME);
+        else if(arg.equals("10x"))
+            simulator.setSpeed(10);
+        else if(arg.equals("100x"))
+            simulator.setSpeed(100);
+        else if(arg.equals("As Fast As Possible"))
+            simulator.setSpeed(SimulationClock.AS_FAST_AS_POSSIBLE);
+        else if(arg.equals("Catch Up When Late"))
+            simulator.setOverrunPolicy(TickScheduler.CATCH_UP);
+        else if(arg.equals("Skip When Late"))
+            simulator.setOverrunPolicy(TickScheduler.SKIP);
+        else if(arg.equals("Text Log"))
+            simulator.setLogFormat(Log.TEXT);
+        else if(arg.equals("Binary Log"))
+            simulator.setLogFormat(Log.BINARY);
+        else if(arg.equals("Event Log"))
+            simulator.setLogFormat(Log.EVENTS);
+        else if(arg.equals("Uncompressed Log"))
+            simulator.setLogCompression(LogStream.PLAIN);
+        else if(arg.equals("Compressed Log"))
+            simulator.setLogCompression(Deflater.DEFAULT_COMPRESSION);
+        else if(arg.equals("No Telemetry"))
+            simulator.setTelemetry(0);
+        else if(arg.equals("Record Telemetry"))
+            simulator.setTelemetry(TelemetryRecorder.DEFAULT_DECIMATION);
         else if(arg.equals("Physical"))
             simulator.changeUserInterface(Simulator.PHYSICAL);
         else if(arg.equals("Physical + Functional"))
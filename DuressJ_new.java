@@ -22,8 +22,6 @@ public class DuressJ_new extends Frame{
 	   
 	   public final static boolean OFF = false;
 	   public final static boolean ON = true;
-	   public static boolean killswitchstate; 
-	   public static boolean pumpDisplay;
 //	   public static Log log = new Log();
 	  
 	   JLabel label1 = null;
@@ -55,6 +53,7 @@ public class DuressJ_new extends Frame{
 	
 	
 	public void pump(Frame secondScreen , Simulator simulator) {
+		final Session session = simulator.getSession();
 		JButton button=new JButton("Click Here to start PA");
         JButton button2=new JButton("Click Here to start/stop PB");
         JButton killswitchbutton=new JButton();
@@ -89,16 +88,14 @@ public class DuressJ_new extends Frame{
 //                 		label1.setText("PumpA status ="+simulator.PA.pumpState+"\n"); 
 //                 	if (killswitchstate  == OFF){	
 //                 		log.printLog("Hello this is SUNNY");
+	 	                // switched (and logged) by the Engine at the next step
 	 	                if(simulator.PA.pumpState == OFF) {
 	 	                	button.setText("Pump ON");
-	 	                	simulator.PA.setPumpState(ON);}
+	 	                	session.submit(simulator.PA.getName(), 1);}
 	 	                else {
 	 	                	button.setText("Pump OFF");
 	// 	                	button.setForeground(getForeground());
-	 	                	simulator.PA.setPumpState(OFF);}
-	 	                //Signe: added logging
-	 	                if(Simulator.log_started)
-	 	                   Simulator.log.updatePump(simulator.PA.pumpState, getName());
+	 	                	session.submit(simulator.PA.getName(), 0);}
 //             }
                  	
              	}
@@ -114,36 +111,33 @@ public class DuressJ_new extends Frame{
       		
               if(simulator.PB.pumpState == OFF) {
               	//button.setText("Pump ON");
-              	simulator.PB.setPumpState(ON);}
+              	session.submit(simulator.PB.getName(), 1);}
               else {
               	//button.setText("Pump OFF");
 //              	button.setForeground(getForeground());
-              	simulator.PB.setPumpState(OFF);}
-              //Signe: added logging
-              if(Simulator.log_started)
-                 Simulator.log.updatePump(simulator.PB.pumpState, getName());
+              	session.submit(simulator.PB.getName(), 0);}
       	}
       	}});
  		
  		// Kill switch Button
- 		killswitchstate = OFF;
- 		pumpDisplay = OFF;
+ 		session.setKillSwitch(OFF);
+ 		session.setPumpDisplay(OFF);
  		killswitchbutton.setText("KILL SWITCH");
  		
  		//	button1.setLayout();
  			secondScreen.add(killswitchbutton);
  			killswitchbutton.addMouseListener(new MouseAdapter() {  
  		      public void mouseClicked(MouseEvent event) {
- 		          if(killswitchstate == OFF) {
- 		        	 pumpDisplay = ON;
- 		        	 killswitchstate = ON;
- 		        	System.out.println("I am setting Kill Switch ON :: " + killswitchstate);
+ 		          if(session.isKillSwitchOn() == OFF) {
+ 		        	 session.setPumpDisplay(ON);
+ 		        	 session.setKillSwitch(ON);
+ 		        	System.out.println("I am setting Kill Switch ON :: " + session.isKillSwitchOn());
  		          	
  		           }
  		          else {
- 		        	 killswitchstate = OFF;
- 		        	pumpDisplay = OFF;
- 		        	System.out.println("I am setting Kill Switch OFF :: " + killswitchstate);
+ 		        	 session.setKillSwitch(OFF);
+ 		        	session.setPumpDisplay(OFF);
+ 		        	System.out.println("I am setting Kill Switch OFF :: " + session.isKillSwitchOn());
  		          	
  		          }
  		//          //Signe: added logging
@@ -199,7 +193,7 @@ public class DuressJ_new extends Frame{
              JSlider source = (JSlider)event.getSource();
              if(source.getValueIsAdjusting()) {
             	 
-            	 simulator.VA.setValveSetting((double)(source.getValue() / 10.0));
+            	 simulator.getSession().submit(simulator.VA.getControlName(), (double)(source.getValue() / 10.0));
             	 simulator.VA.setSlider((double)(source.getValue() / 10.0));
              }
              }
@@ -0,0 +1,749 @@
+// Engine.class     This class defines the thermodynamic plant (the two
+//                  feedwater strings and the two reservoirs) and advances
+//                  it one simulation interval at a time.  It creates no
+//                  AWT components, so a scenario can be run without a
+//                  display; views attach to it as EngineListeners.
+//
+//                  Operator input arrives as OperatorCommands queued on
+//                  the Session and is applied (and logged) only at the
+//                  start of a step, never while one is being calculated.
+//
+//    Note: the equations and their order are the ones that used to live
+//          in Simulator.run().
+//
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
+final class Engine {
+
+   public final static int RUNNING = 0;
+   public final static int TERMINATED_ERROR = 1;
+   public final static int TERMINATED_STEADY = 2;
+   public final static String STEADY_MESSAGE = "Congratulations, Steady state was reached.";
+   // how the first-order components (valves, pumps, heaters, hidden
+   // heaters and demands) follow their settings
+   public final static int EULER = 0;         // dt/tau of the way each step, as always
+   public final static int EXPONENTIAL = 1;   // exactly, for any dt (see LagFactor)
+   // how close (a fraction of its maximum) a first-order component must be
+   // to its setting for fastForward() to take it as settled
+   public final static double EPSILON = 1e-9;
+   private Scenario scenario;
+   private int dt;
+   private int integration = EULER;
+   private int steadyLimit;
+   private int steadyMinTime;
+   private double temperatureMargin;
+   private double demandMargin;
+   private Score score;
+   private Session session;
+   private FaultTimeline faults = new FaultTimeline();
+   private SnapshotBuffer snapshots;
+   private volatile RunControl control;
+   private final ConcurrentLinkedQueue<CompletableFuture<Snapshot>> snapshotRequests =
+      new ConcurrentLinkedQueue<CompletableFuture<Snapshot>>();
+   HiddenHeater HH0;
+   Pump PA, PB;
+   Valve VA, VB;
+   Splitter SA, SB;
+   Valve VA1, VA2, VB1, VB2;
+   Mixer M1, M2;
+   Heater H1, H2;
+   HiddenHeater HH1, HH2;
+   Reservoir R1, R2;
+   private int t;
+   private int steadyTime;
+   private int steadyStartTime;
+   private volatile int state;
+   private String terminationMessage;
+   // operator command latency (nsec, queued -> applied)
+   private long commandCount;
+   private long commandLatencySum;
+   private long commandLatencyMax;
+   private ArrayList<EngineListener> listeners = new ArrayList<EngineListener>();
+
+   public Engine(String configurationFilename) throws IOException {
+      this(configurationFilename, new Session());
+      }
+
+   public Engine(String configurationFilename, Session session) throws IOException {
+      this(Scenario.load(new File(configurationFilename)), session);
+      }
+
+   public Engine(Scenario scenario, Session session) {
+      this.scenario = scenario;
+      this.session = session;
+      dt = scenario.interval;
+      steadyLimit = scenario.steadyLimit;
+      steadyMinTime = scenario.steadyCheckTime;
+      temperatureMargin = scenario.temperatureMargin;
+      demandMargin = scenario.demandMargin;
+      score = new Score();
+      HH0 = hiddenHeater(scenario.HH0);
+      PA = pump(session, scenario.PA);
+      PB = pump(session, scenario.PB);
+      VA = valve(session, scenario.VA);
+      VB = valve(session, scenario.VB);
+      SA = new Splitter("SA", scenario.SA);
+      SB = new Splitter("SB", scenario.SB);
+      VA1 = valve(session, scenario.VA1);
+      VA2 = valve(session, scenario.VA2);
+      VB1 = valve(session, scenario.VB1);
+      VB2 = valve(session, scenario.VB2);
+      M1 = new Mixer("M1");
+      M2 = new Mixer("M2");
+      H1 = heater(session, "H1", scenario.H1);
+      H2 = heater(session, "H2", scenario.H2);
+      HH1 = hiddenHeater(scenario.HH1);
+      HH2 = hiddenHeater(scenario.HH2);
+      R1 = reservoir(session, "Reservoir 1", "VO1", scenario.R1, scenario.VO1, scenario.DC1);
+      R2 = reservoir(session, "Reservoir 2", "VO2", scenario.R2, scenario.VO2, scenario.DC2);
+      HiddenHeater[] hidden = {HH0, HH1, HH2};
+      for(int i=0; i<hidden.length; i++)
+         hidden[i].scheduleFaults(faults);
+      Valve[] valves = {VA, VA1, VA2, VB, VB1, VB2, R1, R2};
+      for(int v=0; v<valves.length; v++)
+         valves[v].scheduleFaults(faults);
+      PA.scheduleFaults(faults);
+      PB.scheduleFaults(faults);
+      H1.scheduleFaults(faults);
+      H2.scheduleFaults(faults);
+      t = 0;
+      steadyTime = 0;
+      steadyStartTime = Simulator.NEVER;
+      state = RUNNING;
+      }
+
+   private static HiddenHeater hiddenHeater(Scenario.ValveSpec s) {
+      return new HiddenHeater(s.name, s.maximum, s.initialSetting, s.initialOutput, s.timeConstant,
+                              s.fault1Setting, s.fault1Time, s.fault2Setting, s.fault2Time);
+      }
+
+   private static Pump pump(Session session, Scenario.PumpSpec s) {
+      return new Pump(session, s.name, s.initialState, s.minimumFlow, s.maximumFlow,
+                      s.timeConstant, s.faultTime, s.breakTime);
+      }
+
+   private static Valve valve(Session session, Scenario.ValveSpec s) {
+      return new Valve(session, s.name, s.maximum, s.initialSetting, s.initialOutput, s.timeConstant,
+                       s.fault1Setting, s.fault1Time, s.fault2Setting, s.fault2Time);
+      }
+
+   private static Heater heater(Session session, String name, Scenario.HeaterSpec s) {
+      return new Heater(session, name, s.maximumSetting, s.initialSetting, s.initialOutput,
+                        s.maximumHeatFlow, s.timeConstant, s.faultTime, s.faultPercentage);
+      }
+
+   private Reservoir reservoir(Session session, String name, String control, Scenario.ReservoirSpec r, Scenario.ValveSpec v, Scenario.ValveSpec d) {
+      return new Reservoir(session, name, control, r.maximumInflow, r.maximumOutflow, r.initialLevel,
+                           r.minimumLevel, r.maximumLevel, demandMargin, r.demandTemperature,
+                           temperatureMargin, r.maximumTemperature, r.minimumEnergyInflow,
+                           r.maximumEnergyInflow, r.maximumEnergyOutflow, r.initialEnergy,
+                           r.maximumEnergy, r.tankArea, r.density, r.specificHeat,
+                           r.boilingTemperature, r.additionalInflow, r.additionalInflowTemperature,
+                           r.additionalInflowTime, r.blowUpTime,
+                           // outflow valve (NOTE: DuressJ does not consider name or maxflow)
+                           v.initialSetting, v.initialOutput, v.timeConstant,
+                           v.fault1Setting, v.fault1Time, v.fault2Setting, v.fault2Time,
+                           // demand inialization (modellled as valve)
+                           d.name, d.maximum, d.initialSetting, d.initialOutput, d.timeConstant,
+                           d.fault1Setting, d.fault1Time, d.fault2Setting, d.fault2Time);
+      }
+
+   // queues operator input for the next step; safe from any thread
+   public final void submit(String control, double value) {
+      session.submit(control, value);
+      }
+
+   // operator input by control name, as it appears on the interface:
+   // VA..VB2, VO1, VO2 (valve settings), PA, PB (0 = off), H1, H2.
+   // Applies immediately; only call it from the thread that steps.
+   public final void setControl(String name, double value) {
+      if(name.equals("PA"))
+         PA.setPumpState(value != 0);
+      else if(name.equals("PB"))
+         PB.setPumpState(value != 0);
+      else if(name.equals("H1"))
+         H1.setSetting(value);
+      else if(name.equals("H2"))
+         H2.setSetting(value);
+      else
+         getValve(name).setValveSetting(value);
+      }
+
+   public final Valve getValve(String name) {
+      if(name.equals("VA"))
+         return VA;
+      else if(name.equals("VA1"))
+         return VA1;
+      else if(name.equals("VA2"))
+         return VA2;
+      else if(name.equals("VB"))
+         return VB;
+      else if(name.equals("VB1"))
+         return VB1;
+      else if(name.equals("VB2"))
+         return VB2;
+      else if(name.equals("VO1"))
+         return R1;
+      else if(name.equals("VO2"))
+         return R2;
+      throw new IllegalArgumentException("unknown control " + name);
+      }
+
+   // the operator's current settings, as PlantModel controls
+   public final void getControls(double[] controls) {
+      Valve[] valves = {VA, VA1, VA2, VB, VB1, VB2, R1, R2};
+      for(int v=0; v<valves.length; v++)
+         controls[PlantModel.VA+v] = valves[v].getValveSetting();
+      controls[PlantModel.H1] = H1.getSetting();
+      controls[PlantModel.H2] = H2.getSetting();
+      controls[PlantModel.PA] = PA.pumpState ? 1 : 0;
+      controls[PlantModel.PB] = PB.pumpState ? 1 : 0;
+      }
+
+   public final void addEngineListener(EngineListener l) {
+      listeners.add(l);
+      }
+
+   public final void removeEngineListener(EngineListener l) {
+      listeners.remove(l);
+      }
+
+   // advance the plant by one simulation interval (dt)
+   public final void step() {
+      if(state != RUNNING)
+         return;
+      takeSnapshots();
+
+      applyCommands();
+      if(session.isLogging()) {
+         session.getLog().writeLog(t);
+         session.getLog().printLog("Hi this is where you enter your steps");
+         }
+
+      calculate();
+      for(int i=0; i<listeners.size(); i++)
+         listeners.get(i).engineStepped(this, t);
+      if(state != RUNNING) {
+         // requests queued after this step's takeSnapshots()
+         answerSnapshotRequests();
+         for(int i=0; i<listeners.size(); i++)
+            listeners.get(i).engineTerminated(this, terminationMessage);
+         return;
+         }
+      t += dt;
+      }
+
+   // Like step(), but once the plant has settled in steady state covers
+   // every interval before until (msec), the next fault or the end of the
+   // steady period at once: the score and the steady time grow by as many
+   // intervals, the heaters and the reservoir energies move as that many
+   // steps would move them (in closed form) and the log gets a row for
+   // each interval, as if they had been stepped.  Settled means both
+   // reservoirs within their margins, no operator command waiting, every
+   // valve, pump, demand and hidden heater within EPSILON of its setting
+   // and the levels standing still; the heaters are then the only things
+   // still moving, and the temperatures are shown to stay within the
+   // margins however long the jump (see Reservoir.canSkip).  Returns the
+   // number of intervals covered (0 if the run is over).
+   public final int fastForward(int until) {
+      if(state != RUNNING)
+         return 0;
+      int steps = getSettledSteps(until);
+      if(steps < 2) {
+         step();
+         return 1;
+         }
+      takeSnapshots();
+      Log log = session.isLogging() ? session.getLog() : null;
+      for(int k=0; k<steps; k++)
+         if(log != null) {
+            log.writeLog(t + k*dt);
+            log.printLog("Hi this is where you enter your steps");
+            log.updateState(steadyTime + (k + 1)*dt);
+            }
+      R1.skip(steps, dt, H1.getTargetHeatFlow(), H1.getLagFactor(dt));
+      R2.skip(steps, dt, H2.getTargetHeatFlow(), H2.getLagFactor(dt));
+      H1.skip(steps, dt);
+      H2.skip(steps, dt);
+      updateScore(R1, steps);
+      updateScore(R2, steps);
+      steadyTime += steps*dt;
+      t += (steps - 1)*dt;
+      if(steadyMinTime != Simulator.NEVER && steadyTime >= steadyLimit)
+         terminate(TERMINATED_STEADY, STEADY_MESSAGE);
+      for(int i=0; i<listeners.size(); i++)
+         listeners.get(i).engineStepped(this, t);
+      if(state != RUNNING) {
+         answerSnapshotRequests();
+         for(int i=0; i<listeners.size(); i++)
+            listeners.get(i).engineTerminated(this, terminationMessage);
+         return steps;
+         }
+      t += dt;
+      return steps;
+      }
+
+   // how many intervals fastForward(until) can cover at once (0: it has to step)
+   private int getSettledSteps(int until) {
+      if(steadyTime == 0 || session.hasCommands())
+         return 0;
+      // the steps at t, t+dt, ... before until and before the next fault
+      long end = Math.min(until, faults.getNextTime());
+      long steps = Math.min((end - t + dt - 1)/dt, (Integer.MAX_VALUE - t)/dt);
+      // ... up to the one that ends the steady period
+      if(steadyMinTime != Simulator.NEVER)
+         steps = Math.min(steps, (steadyLimit - steadyTime + dt - 1)/dt);
+      if(steps < 2)
+         return 0;
+      HiddenHeater[] hidden = {HH0, HH1, HH2};
+      for(int i=0; i<hidden.length; i++)
+         if(!hidden[i].isSettled(EPSILON))
+            return 0;
+      Valve[] valves = {VA, VA1, VA2, VB, VB1, VB2, R1, R2};
+      for(int v=0; v<valves.length; v++)
+         if(!valves[v].isSettled(EPSILON))
+            return 0;
+      if(!PA.isSettled(EPSILON) || !PB.isSettled(EPSILON) || !H1.canSkip(dt) || !H2.canSkip(dt))
+         return 0;
+      if(!R1.canSkip(dt, H1.getTargetHeatFlow(), R1.getDemandTemperature() - temperatureMargin,
+                     R1.getDemandTemperature() + temperatureMargin) ||
+         !R2.canSkip(dt, H2.getTargetHeatFlow(), R2.getDemandTemperature() - temperatureMargin,
+                     R2.getDemandTemperature() + temperatureMargin))
+         return 0;
+      return (int)steps;
+      }
+
+   // takes a snapshot into buffer at the start of the steps its period
+   // asks for (null: none)
+   public final void setSnapshotBuffer(SnapshotBuffer buffer) {
+      snapshots = buffer;
+      }
+
+   // the run state of the thread that steps this engine (null: none); a
+   // paused or stopped run then answers snapshot requests at once
+   public final void setRunControl(RunControl runControl) {
+      control = runControl;
+      }
+
+   // a snapshot taken at the start of the next step (at once if the run is
+   // over, paused or stopped, see setRunControl); safe from any thread
+   public final CompletableFuture<Snapshot> requestSnapshot() {
+      CompletableFuture<Snapshot> request = new CompletableFuture<Snapshot>();
+      snapshotRequests.add(request);
+      RunControl control = this.control;
+      if(isTerminated())
+         answerSnapshotRequests();
+      else if(control != null)
+         control.whenIdle(new Runnable() {
+                             public void run() {
+                                answerSnapshotRequests();
+                                }
+                             });
+      return request;
+      }
+
+   private void takeSnapshots() {
+      if(snapshots != null)
+         snapshots.offer(this, t);
+      if(!snapshotRequests.isEmpty())
+         answerSnapshotRequests();
+      }
+
+   private void answerSnapshotRequests() {
+      CompletableFuture<Snapshot> request;
+      while((request = snapshotRequests.poll()) != null)
+         request.complete(snapshot());
+      }
+
+   // the state of the plant between two steps (see Snapshot); only call it
+   // from the thread that steps (or while it is held in RunControl)
+   public final Snapshot snapshot() {
+      Snapshot snapshot = new Snapshot();
+      snapshot(snapshot);
+      return snapshot;
+      }
+
+   // the same, into a snapshot whose space is reused
+   public final void snapshot(Snapshot into) {
+      try {
+         DataOutputStream out = into.rewrite();
+         Snapshot.writeHeader(out, scenario.getHash());
+         out.writeInt(t);
+         out.writeInt(dt);
+         out.writeInt(integration);
+         out.writeInt(state);
+         out.writeUTF(terminationMessage == null ? "" : terminationMessage);
+         out.writeInt(steadyTime);
+         out.writeInt(steadyStartTime);
+         for(int i=0; i<3; i++)
+            for(int j=0; j<3; j++)
+               out.writeDouble(score.getScore(i, j));
+         HH0.save(out);
+         HH1.save(out);
+         HH2.save(out);
+         Flow[] flows = getFlows();
+         for(int i=0; i<flows.length; i++)
+            flows[i].save(out);
+         H1.save(out);
+         H2.save(out);
+         faults.save(out, getFaultTargets());
+         Log log = session.getLog();
+         out.writeBoolean(log != null);
+         if(log != null)
+            log.save(out);
+         }
+      catch(IOException e) {
+         // a ByteArrayOutputStream does not throw
+         throw new IllegalStateException(e.toString());
+         }
+      }
+
+   // puts the plant back in the state of snapshot, which must have been
+   // taken of an Engine made from the same scenario file.  The row in
+   // progress of the log is restored too if both have a log.
+   public final void restore(Snapshot snapshot) throws IOException {
+      DataInputStream in = snapshot.open();
+      if(!Snapshot.readHeader(in).equals(scenario.getHash()))
+         throw new IOException("the snapshot is of another scenario");
+      t = in.readInt();
+      setInterval(in.readInt());
+      setIntegration(in.readInt());
+      state = in.readInt();
+      terminationMessage = in.readUTF();
+      if(state == RUNNING)
+         terminationMessage = null;
+      steadyTime = in.readInt();
+      steadyStartTime = in.readInt();
+      score.clear();
+      for(int i=0; i<3; i++)
+         for(int j=0; j<3; j++)
+            score.setScore(i, j, in.readDouble());
+      HH0.restore(in);
+      HH1.restore(in);
+      HH2.restore(in);
+      Flow[] flows = getFlows();
+      for(int i=0; i<flows.length; i++)
+         flows[i].restore(in);
+      H1.restore(in);
+      H2.restore(in);
+      faults.restore(in, getFaultTargets());
+      if(in.readBoolean() && session.isLogging())
+         session.getLog().restore(in);
+      }
+
+   // the components in snapshot order
+   private Flow[] getFlows() {
+      return new Flow[] {PA, PB, VA, VB, SA, SB, VA1, VA2, VB1, VB2, M1, M2, R1, R2};
+      }
+
+   private FaultTarget[] getFaultTargets() {
+      return new FaultTarget[] {HH0, HH1, HH2, VA, VA1, VA2, VB, VB1, VB2, R1, R2,
+                                R1.getDemandTarget(), R2.getDemandTarget(), PA, PB, H1, H2};
+      }
+
+   // drains the command queue; everything queued before this point takes
+   // effect in this step
+   private void applyCommands() {
+      OperatorCommand command;
+      while((command = session.pollCommand()) != null) {
+         try {
+            setControl(command.control, command.value);
+            }
+         catch(IllegalArgumentException e) {
+            System.out.println("Error: " + e);
+            continue;
+            }
+         command.applied = System.nanoTime();
+         command.appliedTime = t;
+         long latency = command.getLatency();
+         commandCount++;
+         commandLatencySum += latency;
+         if(latency > commandLatencyMax)
+            commandLatencyMax = latency;
+         if(session.isLogging())
+            logControl(session.getLog(), command.control, command.value);
+         }
+      }
+
+   private void logControl(Log log, String name, double value) {
+      if(name.equals("PA"))
+         log.updatePump(PA.pumpState, PA.getName());
+      else if(name.equals("PB"))
+         log.updatePump(PB.pumpState, PB.getName());
+      else if(name.equals("H1") || name.equals("H2"))
+         log.updateHeater(value, name);
+      else
+         log.updateValve(value, getValve(name).getName());
+      }
+
+   private void calculate() {
+      // faults that set in by now
+      faults.fire(t);
+
+      //////////////////////////////////////////////////////////////////
+      //// calculate hidden heater outputs ////////////////////////////
+      HH0.checkForFault(t, dt);
+      HH1.checkForFault(t, dt);
+      HH2.checkForFault(t, dt);
+      ////////////////////////////////////////////////////////////////
+      ////// calculate demand ///////////////////////////////////////
+      R1.calculateDemand(t, dt);
+      R2.calculateDemand(t, dt);
+      /////////////////////////////////////////////////////////////////
+      ////////////////////////////////////////////////////////////////
+      ////// calculate allowable mass flow through stream 'A' ///////
+      VA1.calculateResistance(t, dt);
+      VA2.calculateResistance(t, dt);
+      SA.calculateResistance(VA1.getValveOpening(), VA2.getValveOpening());
+      VA.calculateResistance(t, dt);
+      PA.setMaximumPipeFlow(VA.getValveOpening(), SA.getMaximumAllowableMassFlow());
+      ///////////////////////////////////////////////////////////////////
+      ////// set mass flow and temperature through stream 'A' //////////
+      PA.setMassFlowOut(t, dt);
+      PA.setTemperatureOut(HH0.getHeatFlowOut());
+      VA.setMassFlowOut(PA.getMassFlowOut());
+      VA.setTemperatureOut(PA.getTemperatureOut());
+      SA.setMassFlowOut(VA.getMassFlowOut(), VA1.getValveOpening(), VA2.getValveOpening());
+      SA.setTemperatureOut(VA.getTemperatureOut());
+      VA1.setMassFlowOut(SA.getMassFlowOut());
+      VA1.setTemperatureOut(SA.getTemperatureOut());
+      VA2.setMassFlowOut(SA.getMassFlowOut2());
+      VA2.setTemperatureOut(SA.getTemperatureOut2());
+      //////////////////////////////////////////////////////////////////////////
+      /////////////////////////////////////////////////////////////////////////
+      ////// calculate allowable mass flow through stream 'B' ////////////////
+      VB1.calculateResistance(t, dt);
+      VB2.calculateResistance(t, dt);
+      SB.calculateResistance(VB1.getValveOpening(), VB2.getValveOpening());
+      VB.calculateResistance(t, dt);
+      PB.setMaximumPipeFlow(VB.getValveOpening(), SB.getMaximumAllowableMassFlow());
+      ///////////////////////////////////////////////////////////////////
+      ////// set mass flow and temperatute through stream 'B' //////////
+      PB.setMassFlowOut(t, dt);
+      PB.setTemperatureOut(HH0.getHeatFlowOut());
+      VB.setMassFlowOut(PB.getMassFlowOut());
+      VB.setTemperatureOut(PB.getTemperatureOut());
+      SB.setMassFlowOut(VB.getMassFlowOut(), VB1.getValveOpening(), VB2.getValveOpening());
+      SB.setTemperatureOut(VB.getTemperatureOut());
+      VB1.setMassFlowOut(SB.getMassFlowOut());
+      VB1.setTemperatureOut(SB.getTemperatureOut());
+      VB2.setMassFlowOut(SB.getMassFlowOut2());
+      VB2.setTemperatureOut(SB.getTemperatureOut2());
+      //////////////////////////////////////////////////////////////////////////
+      /////////////////////////////////////////////////////////////////////////
+      //// check to see if pumps are broken //////////////////////////////////
+      if(PA.getMaximumMassFlowOut() == 0) {
+         terminate(TERMINATED_ERROR, PA.getName() + " blew up because valves were closed.");
+         return;
+         }
+      if(PB.getMaximumMassFlowOut() == 0) {
+         terminate(TERMINATED_ERROR, PB.getName() + " blew up because valves were closed.");
+         return;
+         }
+      ///////////////////////////////////////////////////////////////////////
+      //////////////////////////////////////////////////////////////////////
+      ////// set mass flow and temperature through mixers '1' and '2' /////
+      M1.setMassFlowOut(VA1.getMassFlowOut(), VB1.getMassFlowOut());
+      M1.setTemperatureOut(VA1.getTemperatureOut(), VB1.getTemperatureOut());
+      M2.setMassFlowOut(VA2.getMassFlowOut(), VB2.getMassFlowOut());
+      M2.setTemperatureOut(VA2.getTemperatureOut(), VB2.getTemperatureOut());
+      /////////////////////////////////////////////////////////////////////////////
+      ////////////////////////////////////////////////////////////////////////////
+      ////// calculate visible heaters 'H1' and 'H2' ////////////////////////////
+      H1.setHeatFlowOut(t, dt);
+      H2.setHeatFlowOut(t, dt);
+      ///////////////////////////////////////////////////////////////////////////
+      //////////////////////////////////////////////////////////////////////////
+      ////// calculate allowable mass flow through reservoir output valves ////
+      R1.calculateResistance(t, dt);
+      R2.calculateResistance(t, dt);
+      //////////////////////////////////////////////////////////////////////
+      /////////////////////////////////////////////////////////////////////
+      ////// calculate Reservoir settings ////////////////////////////////
+      R1.setMassFlowIn(M1.getMassFlowOut());
+      R1.setTemperatureIn(M1.getTemperatureOut());
+      R1.setMassFlowOut(R1.getValveOpening());
+      R1.setHeaterEnergyIn(H1.getHeatFlowOut());
+      R1.setHiddenHeaterEnergyIn(HH1.getHeatFlowOut());
+      R1.calculateReservoir(t, dt);
+      if(checkReservoir(R1))
+         return;
+      //////////////////////////////////////////////////////////////
+      R2.setMassFlowIn(M2.getMassFlowOut());
+      R2.setTemperatureIn(M2.getTemperatureOut());
+      R2.setMassFlowOut(R2.getValveOpening());
+      R2.setHeaterEnergyIn(H2.getHeatFlowOut());
+      R2.setHiddenHeaterEnergyIn(HH2.getHeatFlowOut());
+      R2.calculateReservoir(t, dt);
+      if(checkReservoir(R2))
+         return;
+      ///////////////////////////////////////////////////////////////
+      //////////////////////////////////////////////////////////////
+      //////  update scores ///////////////////////////////////////
+      updateScore(R1, 1);
+      updateScore(R2, 1);
+      ////////////////////////////////////////////////////////////
+      ///////////////////////////////////////////////////////////
+      ////// calculate steady state time////////////////////////
+      if(isWithinMargins(R1) && isWithinMargins(R2)) {
+         if(steadyTime == 0)
+            steadyStartTime = t;
+         steadyTime += dt;
+         if(session.isLogging())
+            session.getLog().updateState(steadyTime);
+         }
+      else {
+         steadyTime = 0;
+         if(session.isLogging())
+            session.getLog().updateState(0);
+         }
+      if(steadyMinTime != Simulator.NEVER && steadyTime >= steadyLimit)
+         terminate(TERMINATED_STEADY, STEADY_MESSAGE);
+      }
+
+   private boolean checkReservoir(Reservoir r) {
+      if(r.getError() == Reservoir.ERROR_BOIL)
+         terminate(TERMINATED_ERROR, "The water in " + r.getName() + " reached boiling point.");
+      else if(r.getError() == Reservoir.ERROR_OVERHEAT)
+         terminate(TERMINATED_ERROR, r.getName() + " was heated empty.");
+      else if(r.getError() == Reservoir.ERROR_OVERFLOW)
+         terminate(TERMINATED_ERROR, r.getName() + " overflowed.");
+      return state != RUNNING;
+      }
+
+   // scores steps intervals of the reservoir's present flow
+   private void updateScore(Reservoir r, int steps) {
+      // low temperature
+      if(r.getTemperatureOut() < r.getDemandTemperature() - temperatureMargin)
+         score.setScore(0, 0, r.getMassFlowOut()*dt/1000*steps);
+      // high temperature
+      else if(r.getTemperatureOut() > r.getDemandTemperature() + temperatureMargin)
+         score.setScore(2, 0, r.getMassFlowOut()*dt/1000*steps);
+      // good temperature and low flow
+      else if(r.getMassFlowOut() < r.getDemand() - demandMargin)
+         score.setScore(1, 0, r.getMassFlowOut()*dt/1000*steps);
+      // good temperature and high flow
+      else if(r.getMassFlowOut() > r.getDemand() + demandMargin) {
+         // desired level
+         score.setScore(1, 1, (r.getDemand() + demandMargin)*dt/1000*steps);
+         // excess flow
+         score.setScore(1, 2, (r.getMassFlowOut() - r.getDemand() - demandMargin)*dt/1000*steps);
+         }
+      // good temperature and good flow
+      else
+         score.setScore(1, 1, r.getMassFlowOut()*dt/1000*steps);
+      }
+
+   private boolean isWithinMargins(Reservoir r) {
+      return r.getMassFlowOut() >= r.getDemand() - demandMargin &&
+             r.getMassFlowOut() <= r.getDemand() + demandMargin &&
+             r.getTemperatureOut() >= r.getDemandTemperature() - temperatureMargin &&
+             r.getTemperatureOut() <= r.getDemandTemperature() + temperatureMargin;
+      }
+
+   private void terminate(int reason, String message) {
+      state = reason;
+      terminationMessage = message;
+      //Signe: write reason for termination to log file
+      if(session.isLogging())
+         session.getLog().endSimulation(message);
+      }
+
+   public final int getTime() {
+      return t;
+      }
+
+   public final int getInterval() {
+      return dt;
+      }
+
+   // msec per step from now on (the scenario's interval to start with);
+   // intervals near or above the demand time constant need EXPONENTIAL
+   public final void setInterval(int interval) {
+      if(interval <= 0)
+         throw new IllegalArgumentException("interval must be positive: " + interval);
+      dt = interval;
+      }
+
+   // the faults still to come; more can be scheduled on it
+   public final FaultTimeline getFaultTimeline() {
+      return faults;
+      }
+
+   public final int getIntegration() {
+      return integration;
+      }
+
+   // EULER or EXPONENTIAL, for every first-order component
+   public final void setIntegration(int mode) {
+      if(mode != EULER && mode != EXPONENTIAL)
+         throw new IllegalArgumentException("unknown integration " + mode);
+      integration = mode;
+      HiddenHeater[] hidden = {HH0, HH1, HH2};
+      for(int i=0; i<hidden.length; i++)
+         hidden[i].setIntegration(mode);
+      Valve[] valves = {VA, VA1, VA2, VB, VB1, VB2, R1, R2};
+      for(int v=0; v<valves.length; v++)
+         valves[v].setIntegration(mode);
+      PA.setIntegration(mode);
+      PB.setIntegration(mode);
+      H1.setIntegration(mode);
+      H2.setIntegration(mode);
+      }
+
+   public final int getSteadyTime() {
+      return steadyTime;
+      }
+
+   public final int getSteadyLimit() {
+      return steadyLimit;
+      }
+
+   // time at which the current steady-state period began (NEVER if not steady)
+   public final int getSteadyStartTime() {
+      return steadyTime > 0 ? steadyStartTime : Simulator.NEVER;
+      }
+
+   public final Session getSession() {
+      return session;
+      }
+
+   public final Scenario getScenario() {
+      return scenario;
+      }
+
+   public final Score getScore() {
+      return score;
+      }
+
+   public final int getState() {
+      return state;
+      }
+
+   public final boolean isTerminated() {
+      return state != RUNNING;
+      }
+
+   public final String getTerminationMessage() {
+      return terminationMessage;
+      }
+
+   public final long getCommandCount() {
+      return commandCount;
+      }
+
+   // null if no operator command has been applied
+   public final String getCommandReport() {
+      if(commandCount == 0)
+         return null;
+      java.text.NumberFormat nf = java.text.NumberFormat.getInstance();
+      nf.setMaximumFractionDigits(1);
+      return "Commands: " + commandCount + " applied, latency mean " +
+             nf.format((double)commandLatencySum/commandCount/1000) +
+             " us, max " + nf.format(commandLatencyMax/1000.0) + " us";
+      }
+
+   }
@@ -0,0 +1,15 @@
+// EngineListener.class  This interface is implemented by anything that
+//                        wants to follow a running Engine (e.g. the AWT
+//                        panels in Simulator).  Both methods are called
+//                        on the simulation thread.
+//
+
+interface EngineListener {
+
+   // called after the plant has been advanced for simulated time t
+   public void engineStepped(Engine engine, int t);
+
+   // called once, when the plant fails or reaches steady state
+   public void engineTerminated(Engine engine, String message);
+
+   }
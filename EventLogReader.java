@@ -0,0 +1,223 @@
+// EventLogReader.class  This class rebuilds the full trial log, row by row
+//                       and line by line, from the events EventLogSink
+//                       wrote.  Like BinaryLogReader it decodes a memory-
+//                       mapped file in place and allocates nothing per row.
+//
+//    Having no rows to start at, an event log has no LogIndex; seek()
+//    reads on from the current row or, for an earlier time, from the
+//    start, which is quick as most rows are not in the file at all.
+//
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+final class EventLogReader implements LogReader {
+
+   private final static int EOF = -1;
+   private ByteBuffer buffer;
+   private String subject;
+   private String trial;
+   private String scenario;
+   private int interfaceType;
+   private long date;
+   // next event, read ahead
+   private int eventTag;
+   private int eventTime;
+   // current row
+   private boolean started;
+   private boolean ended;
+   private int time;
+   private int dt;
+   private double[] settings = new double[LogWriter.SETTINGS];
+   private int pumps;
+   private int steadyTime;
+   // lines written after every row, and the next one to return
+   private ArrayList<String> lines = new ArrayList<String>();
+   private int line;
+   private String text;
+   private boolean held;                  // next() returns the current row again
+
+   public static EventLogReader open(File file) throws IOException {
+      return new EventLogReader(BinaryLogReader.map(file));
+      }
+
+   public EventLogReader(ByteBuffer buffer) throws IOException {
+      this.buffer = buffer;
+      readHeader();
+      }
+
+   private void readHeader() throws IOException {
+      BinaryLogReader.checkMagic(buffer, EventLogSink.MAGIC);
+      try {
+         subject = BinaryLogReader.readString(buffer);
+         trial = BinaryLogReader.readString(buffer);
+         scenario = BinaryLogReader.readString(buffer);
+         interfaceType = buffer.get();
+         date = buffer.getLong();
+         peek();
+         // header lines
+         if(eventTag == EventLogSink.LINES)
+            apply();
+         }
+      catch(RuntimeException e) {
+         throw new IOException("corrupt event log header: " + e);
+         }
+      }
+
+   public final int next() throws IOException {
+      if(held) {
+         held = false;
+         return ROW;
+         }
+      if(line < lines.size()) {
+         text = lines.get(line++);
+         return TEXT;
+         }
+      if(ended)
+         return END;
+      try {
+         if(!started) {
+            if(eventTag != EventLogSink.START) {
+               ended = true;
+               return END;
+               }
+            started = true;
+            time = eventTime;
+            }
+         else {
+            if(eventTag == EventLogSink.END || eventTag == EOF) {
+               ended = true;
+               return END;
+               }
+            if(dt <= 0)
+               throw new IOException("corrupt event log: no interval after " + time);
+            int previous = time;
+            time += dt;
+            steadyTime = EventLogSink.expectedSteadyTime(steadyTime, time - previous);
+            }
+         if(eventTime < time && eventTag != EOF)
+            throw new IOException("corrupt event log: event at " + eventTime + " before row " + time);
+         // everything recorded for this row, including the lines and
+         // interval change that follow it
+         while(eventTag != EOF && eventTag != EventLogSink.END && eventTime == time)
+            apply();
+         line = 0;
+         return ROW;
+         }
+      catch(RuntimeException e) {
+         throw new IOException("corrupt event log at " + buffer.position() + ": " + e);
+         }
+      }
+
+   // the first row at or after time is next
+   public final void seek(int time) throws IOException {
+      if(held && time == this.time)
+         return;
+      if(!started || time <= this.time) {
+         // from the start
+         buffer.position(0);
+         eventTime = 0;
+         started = false;
+         ended = false;
+         this.time = 0;
+         dt = 0;
+         Arrays.fill(settings, 0);
+         pumps = 0;
+         steadyTime = 0;
+         lines.clear();
+         line = 0;
+         readHeader();
+         }
+      held = false;
+      int kind;
+      while((kind = next()) != END)
+         if(kind == ROW && this.time >= time) {
+            held = true;
+            return;
+            }
+      }
+
+   // reads the tag and time of the next event (EOF at the end of the file)
+   private void peek() {
+      if(!buffer.hasRemaining()) {
+         eventTag = EOF;
+         return;
+         }
+      eventTag = buffer.get();
+      eventTime += BinaryLogSink.unzigzag(BinaryLogReader.readVarint(buffer));
+      }
+
+   // applies the payload of the event peeked at and peeks at the next one
+   private void apply() throws IOException {
+      switch(eventTag) {
+         case EventLogSink.START:
+            break;
+         case EventLogSink.SETTING:
+            int index = buffer.get();
+            settings[index] = buffer.getDouble();
+            break;
+         case EventLogSink.PUMPS:
+            pumps = buffer.get();
+            break;
+         case EventLogSink.STEADY:
+            steadyTime = BinaryLogReader.readVarint(buffer);
+            break;
+         case EventLogSink.TICK:
+            dt = BinaryLogReader.readVarint(buffer);
+            break;
+         case EventLogSink.LINES:
+            int n = BinaryLogReader.readVarint(buffer);
+            lines.clear();
+            for(int i=0; i<n; i++)
+               lines.add(BinaryLogReader.readString(buffer));
+            line = 0;
+            break;
+         default:
+            throw new IOException("corrupt event log: event type " + eventTag + " at " + (buffer.position() - 1));
+         }
+      peek();
+      }
+
+   public final String getSubject() {
+      return subject;
+      }
+
+   public final String getTrial() {
+      return trial;
+      }
+
+   public final String getScenario() {
+      return scenario;
+      }
+
+   public final int getInterfaceType() {
+      return interfaceType;
+      }
+
+   public final long getDate() {
+      return date;
+      }
+
+   public final String getText() {
+      return text;
+      }
+
+   public final int getTime() {
+      return time;
+      }
+
+   public final double getSetting(int index) {
+      return settings[index];
+      }
+
+   public final boolean isPumpOn(int pump) {
+      return (pumps & (1 << pump)) != 0;
+      }
+
+   public final int getSteadyTime() {
+      return steadyTime;
+      }
+
+   }
@@ -0,0 +1,180 @@
+// EventLogSink.class  This class writes a trial log as the changes between
+//                     rows rather than the rows themselves: operator
+//                     settings and pump switches when they change, steady
+//                     state when it starts and ends, the water levels at a
+//                     sampling interval, and the text lines between rows
+//                     when they differ from the last ones.  An operator
+//                     touches a control a few times a minute, so most
+//                     ticks write nothing at all.  EventLogReader rebuilds
+//                     every row from it.
+//
+//    Rows are expected every dt; only a change of interval is recorded.
+//    The steady time is expected to grow by the interval while non-zero
+//    and to stay zero otherwise; only the rows that break that rule carry
+//    it.  Between level samples a rebuilt row shows the last sample, so
+//    the rebuilt table is exact when levelInterval is 0.
+//
+//    File layout (see BinaryLogSink for the header, strings and varints):
+//
+//       "DURE" version(1) header
+//       events, each:  tag(byte) zigzag varint(time - previous event time)
+//          START                       first row
+//          SETTING  index(byte) double  VA..H2 (0..9), R1/R2 levels (10, 11)
+//          PUMPS    byte
+//          STEADY   varint
+//          TICK     varint              rows now follow every (varint) msec
+//          LINES    varint n, n strings lines written after this row (and
+//                                       after every row until the next LINES);
+//                                       before START: the header lines
+//          END                          last row
+//
+
+import java.io.*;
+
+final class EventLogSink implements LogSink {
+
+   public final static byte[] MAGIC = {'D', 'U', 'R', 'E'};
+   public final static int START = 1;
+   public final static int SETTING = 2;
+   public final static int PUMPS = 3;
+   public final static int STEADY = 4;
+   public final static int TICK = 5;
+   public final static int LINES = 6;
+   public final static int END = 7;
+   public final static int LEVELS = 10;               // settings index of R1 (R2 follows)
+   public final static int DEFAULT_LEVEL_INTERVAL = 1000;
+   private DataOutputStream out;
+   private volatile int levelInterval = DEFAULT_LEVEL_INTERVAL;
+   private int eventTime;
+   // previous row
+   private boolean started;
+   private int time;
+   private int dt;
+   private double[] settings = new double[LogWriter.SETTINGS];
+   private int pumps;
+   private int steadyTime;
+   private int[] levelTimes = new int[LogWriter.SETTINGS - LEVELS];
+   // text lines since the previous row, and the ones recorded last
+   private java.util.ArrayList<String> lines = new java.util.ArrayList<String>();
+   private java.util.ArrayList<String> lastLines = new java.util.ArrayList<String>();
+
+   public EventLogSink(OutputStream stream, String subject, String trial,
+                       String scenario, int interfaceType, long date) throws IOException {
+      out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+      BinaryLogSink.writeHeader(out, MAGIC, subject, trial, scenario, interfaceType, date);
+      }
+
+   // msec between water level samples (0: every row)
+   public final void setLevelInterval(int interval) {
+      levelInterval = Math.max(0, interval);
+      }
+
+   public final void text(String line) {
+      lines.add(line);
+      }
+
+   public final void row(int newTime, double[] newSettings, int offset, int newPumps, int newSteadyTime) throws IOException {
+      if(!started) {
+         // header lines
+         writeLines(0);
+         event(START, newTime);
+         for(int j=0; j<LogWriter.SETTINGS; j++) {
+            event(SETTING, newTime);
+            out.writeByte(j);
+            out.writeDouble(newSettings[offset+j]);
+            }
+         event(PUMPS, newTime);
+         out.writeByte(newPumps);
+         event(STEADY, newTime);
+         BinaryLogSink.writeVarint(out, newSteadyTime);
+         for(int j=0; j<levelTimes.length; j++)
+            levelTimes[j] = newTime;
+         started = true;
+         }
+      else {
+         // lines after the previous row belong to that row
+         if(!lines.equals(lastLines))
+            writeLines(time);
+         lines.clear();
+         if(newTime - time != dt) {
+            dt = newTime - time;
+            event(TICK, time);
+            BinaryLogSink.writeVarint(out, dt);
+            }
+         for(int j=0; j<LEVELS; j++)
+            if(Double.doubleToRawLongBits(newSettings[offset+j]) != Double.doubleToRawLongBits(settings[j]))
+               writeSetting(newTime, j, newSettings[offset+j]);
+         for(int j=LEVELS; j<LogWriter.SETTINGS; j++)
+            if(newTime - levelTimes[j-LEVELS] >= levelInterval &&
+               Double.doubleToRawLongBits(newSettings[offset+j]) != Double.doubleToRawLongBits(settings[j])) {
+               writeSetting(newTime, j, newSettings[offset+j]);
+               levelTimes[j-LEVELS] = newTime;
+               }
+         if(newPumps != pumps) {
+            event(PUMPS, newTime);
+            out.writeByte(newPumps);
+            }
+         if(newSteadyTime != expectedSteadyTime(steadyTime, newTime - time)) {
+            event(STEADY, newTime);
+            BinaryLogSink.writeVarint(out, newSteadyTime);
+            }
+         }
+      time = newTime;
+      // levels keep their last recorded sample
+      System.arraycopy(newSettings, offset, settings, 0, LEVELS);
+      for(int j=LEVELS; j<LogWriter.SETTINGS; j++)
+         if(levelTimes[j-LEVELS] == newTime)
+            settings[j] = newSettings[offset+j];
+      pumps = newPumps;
+      steadyTime = newSteadyTime;
+      }
+
+   // what the steady time of a row is taken to be unless a STEADY event says otherwise
+   static int expectedSteadyTime(int previous, int interval) {
+      return previous > 0 ? previous + interval : 0;
+      }
+
+   private void writeSetting(int t, int index, double value) throws IOException {
+      event(SETTING, t);
+      out.writeByte(index);
+      out.writeDouble(value);
+      }
+
+   private void writeLines(int t) throws IOException {
+      event(LINES, t);
+      BinaryLogSink.writeVarint(out, lines.size());
+      for(int i=0; i<lines.size(); i++)
+         BinaryLogSink.writeString(out, lines.get(i));
+      java.util.ArrayList<String> swap = lastLines;
+      lastLines = lines;
+      lines = swap;
+      }
+
+   private void event(int tag, int t) throws IOException {
+      out.writeByte(tag);
+      BinaryLogSink.writeVarint(out, BinaryLogSink.zigzag(t - eventTime));
+      eventTime = t;
+      }
+
+   // a row is rebuilt from everything before it, so a reader cannot
+   // start anywhere but at the beginning
+   public final long mark() {
+      return -1;
+      }
+
+   public final void flush() throws IOException {
+      out.flush();
+      }
+
+   public final void close() throws IOException {
+      if(started) {
+         if(!lines.equals(lastLines))
+            writeLines(time);
+         event(END, time);
+         }
+      else if(!lines.isEmpty())
+         writeLines(0);
+      out.close();
+      }
+
+   }
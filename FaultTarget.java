@@ -0,0 +1,12 @@
+// FaultTarget.class  This interface is a component that can be put into
+//                    a fault by a FaultTimeline.
+//
+
+// What slot and value mean is up to the component: a setting it is stuck
+// at (valves, hidden heaters, demands), a breakdown (pumps), a loss of
+// power (heaters) or a leak or extra inflow (reservoirs).
+interface FaultTarget {
+
+   public void fault(int slot, double value);
+
+   }
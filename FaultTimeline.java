@@ -0,0 +1,120 @@
+// FaultTimeline.class  This class holds the faults of a run as timed events
+//                      and sets each one off when the simulation reaches
+//                      its time, instead of every component asking every
+//                      step whether its fault time has passed.  The
+//                      Engine fills it from the scenario (two faults per
+//                      valve, hidden heater and demand, one per pump,
+//                      heater and reservoir) and fires it at the start of
+//                      each step; more can be scheduled at any time, for
+//                      any component, as many as needed.
+//
+//    Events fire in time order, and in the order they were scheduled
+//    when their times are equal.  A component told of a fault with a
+//    higher slot than the one it has keeps the new one; a lower slot is
+//    ignored, which is how the scenario's fault 2 wins over fault 1
+//    whatever their times.
+//
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+final class FaultTimeline {
+
+   private PriorityQueue<Event> queue = new PriorityQueue<Event>();
+   private long scheduled;
+   private long fired;
+
+   // target gets fault(slot, value) at time (msec); NEVER is ignored
+   public final void schedule(int time, FaultTarget target, int slot, double value) {
+      if(time != Simulator.NEVER)
+         queue.add(new Event(time, scheduled++, target, slot, value));
+      }
+
+   // sets off every event due at or before t; returns how many there were
+   public final int fire(int t) {
+      int n = 0;
+      while(!queue.isEmpty() && queue.peek().time <= t) {
+         Event e = queue.poll();
+         e.target.fault(e.slot, e.value);
+         n++;
+         }
+      fired += n;
+      return n;
+      }
+
+   // the time of the next event (Integer.MAX_VALUE if there is none)
+   public final int getNextTime() {
+      return queue.isEmpty() ? Integer.MAX_VALUE : queue.peek().time;
+      }
+
+   public final int getPending() {
+      return queue.size();
+      }
+
+   public final long getFired() {
+      return fired;
+      }
+
+   // writes the events still to come, in order, each target as its index
+   // in targets (see Engine.snapshot)
+   public final void save(DataOutput out, FaultTarget[] targets) throws IOException {
+      Event[] events = queue.toArray(new Event[queue.size()]);
+      Arrays.sort(events);
+      out.writeLong(fired);
+      out.writeInt(events.length);
+      for(int i=0; i<events.length; i++) {
+         out.writeInt(events[i].time);
+         out.writeInt(indexOf(events[i].target, targets));
+         out.writeInt(events[i].slot);
+         out.writeDouble(events[i].value);
+         }
+      }
+
+   // replaces the events still to come with the ones save() wrote
+   public final void restore(DataInput in, FaultTarget[] targets) throws IOException {
+      queue.clear();
+      fired = in.readLong();
+      int n = in.readInt();
+      for(int i=0; i<n; i++) {
+         int time = in.readInt();
+         int target = in.readInt();
+         if(target < 0 || target >= targets.length)
+            throw new IOException("bad fault target " + target);
+         int slot = in.readInt();
+         schedule(time, targets[target], slot, in.readDouble());
+         }
+      }
+
+   private static int indexOf(FaultTarget target, FaultTarget[] targets) {
+      for(int i=0; i<targets.length; i++)
+         if(targets[i] == target)
+            return i;
+      throw new IllegalStateException("fault target is not part of the plant: " + target);
+      }
+
+   private final static class Event implements Comparable<Event> {
+
+      final int time;
+      final long sequence;
+      final FaultTarget target;
+      final int slot;
+      final double value;
+
+      Event(int time, long sequence, FaultTarget target, int slot, double value) {
+         this.time = time;
+         this.sequence = sequence;
+         this.target = target;
+         this.slot = slot;
+         this.value = value;
+         }
+
+      public int compareTo(Event e) {
+         if(time != e.time)
+            return time < e.time ? -1 : 1;
+         return sequence < e.sequence ? -1 : sequence > e.sequence ? 1 : 0;
+         }
+
+      }
+
+   }
@@ -15,6 +15,7 @@
 //
 
 import java.awt.*;
+import java.io.*;
 
 public class Flow {
 
@@ -27,17 +28,24 @@ public class Flow {
 
    public Flow(String name) {
       this.name = name;
-      flowCanvas = new FlowCanvas();
-      nameCanvas = new NameCanvas(name);
       }
 
    public Flow(String name, double max) {
       this.name = name;
       maximumMassFlowOut = max;
+      }
+
+   // creates the canvases; only called when the component is displayed,
+   // so that the simulation can also run without a screen
+   public void createDisplay() {
       flowCanvas = new FlowCanvas();
       nameCanvas = new NameCanvas(name);
       }
 
+   // brings the canvases up to date with the current state
+   public void updateDisplay() {
+      }
+
    public final String getName() {
       return name;
       }
@@ -69,6 +77,20 @@ public class Flow {
       return temperatureOut;
       }
 
+   // the state that changes while the plant runs (see Engine.snapshot);
+   // subclasses add theirs after this
+   public void save(DataOutput out) throws IOException {
+      out.writeDouble(massFlowOut);
+      out.writeDouble(maximumMassFlowOut);
+      out.writeDouble(temperatureOut);
+      }
+
+   public void restore(DataInput in) throws IOException {
+      massFlowOut = in.readDouble();
+      maximumMassFlowOut = in.readDouble();
+      temperatureOut = in.readDouble();
+      }
+
    public final static double min(double x, double y) {
       return (x<y ? x : y);
       }
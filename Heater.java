@@ -28,11 +28,12 @@
 //
 
 import java.awt.*;
+import java.io.*;
 import javax.swing.*;
 import javax.swing.border.*;
 import javax.swing.event.*;
 
-public final class Heater {            //    note:       heat = energy (W)
+public final class Heater implements FaultTarget {            //    note:       heat = energy (W)
 
    private String name;
    private double maximumSetting;
@@ -43,13 +44,17 @@ public final class Heater {            //    note:       heat = energy (W)
    private double timeConstant;
    private int faultTime;
    private double faultSetpoint;
+   private LagFactor exact;          // null: Euler integration
+   private boolean broken;           // the heater's fault has set in
    private HeaterCanvas heaterCanvas;
    private HeaterSliderCanvas heaterSliderCanvas;
    private HeaterMeterCanvas heaterMeterCanvas;
    private HeaterLabelCanvas heaterLabelCanvas;
+   private Session session;
 
-   public Heater(String name, double maxSet, double initSet, double initHeat,
+   public Heater(Session session, String name, double maxSet, double initSet, double initHeat,
                  double maxHeat, double tC, int ft, double fsp) {
+      this.session = session;
       this.name = name;
       maximumSetting = maxSet;
       setting = initSet;
@@ -59,6 +64,10 @@ public final class Heater {            //    note:       heat = energy (W)
       timeConstant = tC;
       faultTime = ft;
       faultSetpoint = fsp;
+      }
+
+   // creates the canvases; only called when the heater is displayed
+   public final void createDisplay() {
       heaterCanvas = new HeaterCanvas();
       heaterSliderCanvas = new HeaterSliderCanvas(this, (int)maximumSetting);
       heaterSliderCanvas.setHeaterSlider((int)setting);
@@ -67,23 +76,88 @@ public final class Heater {            //    note:       heat = energy (W)
       }
 
    public final void setHeatFlowOut(int t, int dt) {
-      double localSetting = setting;
-
-      // is heater broken?
-      if(faultTime != Simulator.NEVER && faultTime <= t)
-         localSetting = setting*faultSetpoint/100;
+      double localSetting = getLocalSetting();
 
       // calculate heater opening
       opening = Flow.max(0, Flow.min(opening, maximumHeatFlowOut));
 
       // add the derivative
-      if(opening >= 0 || opening <= maximumHeatFlowOut)
+      if(exact != null)
+         opening += (localSetting - opening)*exact.get(dt);
+      else if(opening >= 0 || opening <= maximumHeatFlowOut)
          opening += (localSetting - opening)*dt/timeConstant;
 
       //calculate heatFlowOut
       heatFlowOut = maximumHeatFlowOut*opening/maximumSetting;
-      heaterMeterCanvas.setMeterSetting(opening);
+      }
+
+   // the setting the heater is heading for (less, once it is broken)
+   private double getLocalSetting() {
+      return broken ? setting*faultSetpoint/100 : setting;
+      }
+
+   // the fraction of the distance to its setting the heater covers in a
+   // step of dt msec
+   public final double getLagFactor(int dt) {
+      return exact != null ? exact.get(dt) : (double)dt/timeConstant;
+      }
+
+   // the heat flow the heater is heading for
+   public final double getTargetHeatFlow() {
+      return maximumHeatFlowOut*getLocalSetting()/maximumSetting;
+      }
+
+   // true if steps of dt msec take the heater straight (without overshoot
+   // or clipping) to its setting, so that skip() can jump ahead
+   public final boolean canSkip(int dt) {
+      double factor = getLagFactor(dt);
+      double localSetting = getLocalSetting();
+      return factor > 0 && factor <= 1 && opening >= 0 && opening <= maximumHeatFlowOut &&
+             localSetting >= 0 && localSetting <= maximumHeatFlowOut;
+      }
+
+   // moves the heater as steps calls of setHeatFlowOut(t, dt) would
+   public final void skip(int steps, int dt) {
+      double localSetting = getLocalSetting();
+      opening = localSetting + (opening - localSetting)*Math.pow(1 - getLagFactor(dt), steps);
+      heatFlowOut = maximumHeatFlowOut*opening/maximumSetting;
+      }
+
+   // the scenario's fault
+   public final void scheduleFaults(FaultTimeline timeline) {
+      timeline.schedule(faultTime, this, 1, faultSetpoint);
+      }
 
+   // from now on the heater gives value percent of its setting
+   public final void fault(int slot, double value) {
+      broken = true;
+      faultSetpoint = value;
+      }
+
+   // Engine.EULER or Engine.EXPONENTIAL
+   public final void setIntegration(int mode) {
+      exact = mode == Engine.EXPONENTIAL ? new LagFactor(timeConstant) : null;
+      }
+
+   // the state that changes while the plant runs (see Engine.snapshot)
+   public final void save(DataOutput out) throws IOException {
+      out.writeDouble(setting);
+      out.writeDouble(opening);
+      out.writeDouble(heatFlowOut);
+      out.writeBoolean(broken);
+      out.writeDouble(faultSetpoint);
+      }
+
+   public final void restore(DataInput in) throws IOException {
+      setting = in.readDouble();
+      opening = in.readDouble();
+      heatFlowOut = in.readDouble();
+      broken = in.readBoolean();
+      faultSetpoint = in.readDouble();
+      }
+
+   public final void updateDisplay() {
+      heaterMeterCanvas.setMeterSetting(opening);
       }
 
    public final double getHeatFlowOut() {
@@ -94,6 +168,10 @@ public final class Heater {            //    note:       heat = energy (W)
       setting = newSetting;
       }
 
+   public final double getSetting() {
+      return setting;
+      }
+
    public final HeaterSliderCanvas getHeaterSliderCanvas() {
       return heaterSliderCanvas;
       }
@@ -110,6 +188,10 @@ public final class Heater {            //    note:       heat = energy (W)
       return heaterLabelCanvas;
       }
 
+   public final Session getSession() {
+      return session;
+      }
+
    //Signe: added methog for log.java to know which heater instance was modified
    public final String getName () {
        return name;
@@ -165,23 +247,16 @@ final class HeaterSliderCanvas extends JPanel {
 
       heaterSlider.addChangeListener(new ChangeListener() {
                                         public void stateChanged(ChangeEvent event) {
-                                        	if(!DuressJ_new.killswitchstate) {
+                                        	if(!heater.getSession().isKillSwitchOn()) {
                                            JSlider source = (JSlider)event.getSource();
 
 					   // Ed: source.getValue() is now divided by 10.0 to scale
 					   //     to a one-digit decimal (must be .0 - or else it 
 					   //     won't cast to double)
 
+                                           // applied and logged by the Engine at the next step
                                            if(!source.getValueIsAdjusting())
-                                              heater.setSetting((double)(source.getValue() / 10.0)); //ed: /10.0
-                                           
-
-					   // Ed: source.getValue() is now divided by 10.0 to scale
-					   //     to a one-digit decimal (must be .0 - or else it 
-					   //     won't cast to double)
-                                          //Signe
-                                          if(Simulator.log_started)
-                                           Simulator.log.updateHeater((double)(source.getValue() / 10.0), heater.getName()); //ed: /10.0
+                                              heater.getSession().submit(heater.getName(), (double)(source.getValue() / 10.0)); //ed: /10.0
                                            //Simulator.logTime = true;
                                            }
                                         }
@@ -14,7 +14,9 @@
 //
 //
 
-public final class HiddenHeater {
+import java.io.*;
+
+public final class HiddenHeater implements FaultTarget {
 
    private String name;
    private double maximumHeatFlowOut;
@@ -25,6 +27,8 @@ public final class HiddenHeater {
    private int fault1Time;
    private double fault2Setpoint;
    private int fault2Time;
+   private LagFactor exact;          // null: Euler integration
+   private int faultSlot;            // the fault the heater is in (0: none)
 
    public HiddenHeater(String name, double max, double initSet, double initOpen, double tC,
                        double f1sp, int f1t, double f2sp, int f2t) {
@@ -40,16 +44,51 @@ public final class HiddenHeater {
       }
 
    public final void checkForFault(int t, int dt) {
-      // check to see if valve is in one of the fault modes
-      if(fault2Time != Simulator.NEVER && fault2Time <= t)
-         setting = fault2Setpoint;
-      else if(fault1Time != Simulator.NEVER && fault1Time <= t)
-         setting = fault1Setpoint;
-
       // calculate opening
       opening = Flow.max(0, Flow.min(opening, maximumHeatFlowOut));
       // add the derivative
-      opening += (setting-opening)*dt/timeConstant;
+      if(exact != null)
+         opening += (setting-opening)*exact.get(dt);
+      else
+         opening += (setting-opening)*dt/timeConstant;
+      }
+
+   // the scenario's faults 1 and 2
+   public final void scheduleFaults(FaultTimeline timeline) {
+      timeline.schedule(fault1Time, this, 1, fault1Setpoint);
+      timeline.schedule(fault2Time, this, 2, fault2Setpoint);
+      }
+
+   // fixes the setting at setpoint, unless a fault of a higher slot has
+   public final void fault(int slot, double setpoint) {
+      if(slot >= faultSlot) {
+         faultSlot = slot;
+         setting = setpoint;
+         }
+      }
+
+   // Engine.EULER or Engine.EXPONENTIAL
+   public final void setIntegration(int mode) {
+      exact = mode == Engine.EXPONENTIAL ? new LagFactor(timeConstant) : null;
+      }
+
+   // true if the output is within epsilon (a fraction of the maximum) of the setting
+   public final boolean isSettled(double epsilon) {
+      return opening >= 0 && opening <= maximumHeatFlowOut &&
+             Math.abs(setting - opening) <= epsilon*maximumHeatFlowOut;
+      }
+
+   // the state that changes while the plant runs (see Engine.snapshot)
+   public final void save(DataOutput out) throws IOException {
+      out.writeDouble(setting);
+      out.writeDouble(opening);
+      out.writeInt(faultSlot);
+      }
+
+   public final void restore(DataInput in) throws IOException {
+      setting = in.readDouble();
+      opening = in.readDouble();
+      faultSlot = in.readInt();
       }
 
    public final double getHeatFlowOut() {
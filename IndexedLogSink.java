@@ -0,0 +1,75 @@
+// IndexedLogSink.class  This class is the LogSink that writes the time
+//                       index of a trial log beside it.
+//
+
+import java.io.*;
+
+// Writes a LogIndex while it passes the records on to the sink of the log
+// (on the LogWriter's thread): every interval msec of simulated time the
+// sink is asked to mark the row about to be written, and its offset goes
+// into the index.  A sink that cannot mark rows gets no entries.
+final class IndexedLogSink implements LogSink {
+
+   private final LogSink sink;
+   private final DataOutputStream index;
+   private volatile int interval = LogIndex.DEFAULT_INTERVAL;
+   private boolean started;
+   private int next;                      // time of the next entry
+
+   public IndexedLogSink(LogSink sink, OutputStream index) throws IOException {
+      this.sink = sink;
+      this.index = new DataOutputStream(new BufferedOutputStream(index, 4096));
+      this.index.writeInt(LogIndex.MAGIC);
+      this.index.writeInt(LogIndex.VERSION);
+      }
+
+   // msec of simulated time between entries
+   public final void setInterval(int interval) {
+      if(interval <= 0)
+         throw new IllegalArgumentException("index interval must be positive: " + interval);
+      this.interval = interval;
+      }
+
+   public final LogSink getSink() {
+      return sink;
+      }
+
+   public final void text(String line) throws IOException {
+      sink.text(line);
+      }
+
+   public final void row(int time, double[] settings, int offset, int pumps, int steadyTime) throws IOException {
+      if(!started || time >= next) {
+         long position = sink.mark();
+         if(position >= 0) {
+            index.writeInt(time);
+            index.writeLong(position);
+            }
+         int step = interval;
+         next = time - time % step + step;
+         started = true;
+         }
+      sink.row(time, settings, offset, pumps, steadyTime);
+      }
+
+   public final long mark() throws IOException {
+      return sink.mark();
+      }
+
+   // the log first; an entry that still gets to the disk before its row
+   // is not used (see LogIndex)
+   public final void flush() throws IOException {
+      sink.flush();
+      index.flush();
+      }
+
+   public final void close() throws IOException {
+      try {
+         sink.close();
+         }
+      finally {
+         index.close();
+         }
+      }
+
+   }
@@ -0,0 +1,37 @@
+// LagFactor.class  This class is the exact step of a first-order component
+//                  (valve, pump, heater, hidden heater or demand) with time
+//                  constant tau: over dt msec it covers the fraction
+//                  1 - exp(-dt/tau) of the distance to its setting, however
+//                  large dt is.  The fraction is worked out once for each
+//                  interval, not every step.
+//
+//    Engine.EXPONENTIAL integration moves the components by it instead of
+//    adding dt/tau of the distance (Engine.EULER), which overshoots once
+//    dt nears tau and diverges past 2*tau.
+//
+
+final class LagFactor {
+
+   private final double timeConstant;
+   private int dt = -1;
+   private double factor;
+
+   public LagFactor(double timeConstant) {
+      this.timeConstant = timeConstant;
+      }
+
+   // the fraction of the distance to the setting covered in dt msec
+   public final double get(int dt) {
+      if(dt != this.dt) {
+         factor = fraction(dt, timeConstant);
+         this.dt = dt;
+         }
+      return factor;
+      }
+
+   // the same, worked out every time (for steps of varying length)
+   public static double fraction(int dt, double timeConstant) {
+      return timeConstant > 0 ? -Math.expm1(-dt/timeConstant) : 1;
+      }
+
+   }
@@ -9,6 +9,15 @@
 //
 //    Date: April, 2003
 //
+//    Note: the file is written by a LogWriter on its own thread; writeLog
+//          only copies the current values into the writer's ring.  The
+//          file is TEXT (log_<name>_<trial>.txt), BINARY (.dlog, see
+//          BinaryLogSink) or EVENTS (.elog, changes only, see EventLogSink);
+//          LogConverter turns the other two into the first.  Text and
+//          binary logs get a sparse time index beside them (.idx, see
+//          LogIndex) so readers can seek to any time.  Any of them may be
+//          gzip-compressed (.gz) and cut into parts by size or time (see
+//          LogStream), on the writer's thread as well.
 //
 
 import java.io.*;
@@ -19,9 +28,19 @@ import java.text.NumberFormat.*;
 
 public class Log {
 
+    //log file formats
+    public final static int TEXT = 0;
+    public final static int BINARY = 1;
+    public final static int EVENTS = 2;
+    public final static String TEXT_EXTENSION = ".txt";
+    public final static String BINARY_EXTENSION = ".dlog";
+    public final static String EVENT_EXTENSION = ".elog";
+
     //log file members
-    public FileOutputStream log;
-    public PrintStream pLog;
+    private LogWriter writer;
+    private LogSink sink;
+    private IndexedLogSink index;
+    private RotatingLogSink rotation;
    // public boolean logTime;
 
     //data members to be logged
@@ -66,14 +85,35 @@ public class Log {
 
     //should log be created with initial values of all elements??
     public Log(String name, String trial, String initScenario, int initIf, double initVA, double initVA1, double initVA2, double initVB, double initVB1, double initVB2, double initVO1, double initVO2, boolean initPA, boolean initPB, double initH1, double initH2, double initR1, double initR2) {
+        this(TEXT, LogStream.PLAIN, name, trial, initScenario, initIf, initVA, initVA1, initVA2, initVB, initVB1, initVB2, initVO1, initVO2, initPA, initPB, initH1, initH2, initR1, initR2);
+    }
+
+    public Log(int format, String name, String trial, String initScenario, int initIf, double initVA, double initVA1, double initVA2, double initVB, double initVB1, double initVB2, double initVO1, double initVO2, boolean initPA, boolean initPB, double initH1, double initH2, double initR1, double initR2) {
+        this(format, LogStream.PLAIN, name, trial, initScenario, initIf, initVA, initVA1, initVA2, initVB, initVB1, initVB2, initVO1, initVO2, initPA, initPB, initH1, initH2, initR1, initR2);
+    }
 
+    //compression: LogStream.PLAIN or a Deflater level (-1..9) to gzip the log at
+    public Log(int format, int compression, String name, String trial, String initScenario, int initIf, double initVA, double initVA1, double initVA2, double initVB, double initVB1, double initVB2, double initVO1, double initVO2, boolean initPA, boolean initPB, double initH1, double initH2, double initR1, double initR2) {
+
+        Date date = new Date();
 
         //create log file and write header
         try {
 
-            String filename = ".//log_files//log_"+name+"_"+trial+".txt";
-                log = new FileOutputStream(filename);
-                pLog = new PrintStream(log);
+            LogStream file = new LogStream(new File(getFilename(format, name, trial)), compression);
+            if(format == BINARY)
+                sink = new BinaryLogSink(file, name, trial, initScenario, initIf, date.getTime());
+            else if(format == EVENTS)
+                sink = new EventLogSink(file, name, trial, initScenario, initIf, date.getTime());
+            else
+                sink = new TextLogSink(file);
+            rotation = new RotatingLogSink(sink, file);
+            if(format == EVENTS)
+                writer = new LogWriter(rotation);
+            else {
+                index = new IndexedLogSink(rotation, new FileOutputStream(getFilename(format, compression, name, trial) + LogIndex.EXTENSION));
+                writer = new LogWriter(index);
+            }
 
             
         }
@@ -112,11 +152,11 @@ public class Log {
         reservoirR1Level = initR1;
         reservoirR2Level = initR2;
 
-        pLog.println("DURESS SIMULATION LOGFILE\n");
-        pLog.println("-------------------------\n");
-        pLog.println("Date: " + (new Date()).toString() + "\n");
-        pLog.println("Subject: " + name + "\nTrial #: " + trial + "\n");
-        pLog.println("Scenario: " + scenario + "\n");
+        marker("DURESS SIMULATION LOGFILE\n");
+        marker("-------------------------\n");
+        marker("Date: " + date.toString() + "\n");
+        marker("Subject: " + name + "\nTrial #: " + trial + "\n");
+        marker("Scenario: " + scenario + "\n");
 
         String ifString = "";
         switch(interfaceType)
@@ -140,12 +180,69 @@ public class Log {
                 ifString = "Goals";
                 break;
         }
-        pLog.println("Interface Type: " + ifString);
+        marker("Interface Type: " + ifString);
     
         
 
     }
 
+    public static String getFilename(int format, String name, String trial) {
+        String extension = TEXT_EXTENSION;
+        if(format == BINARY)
+            extension = BINARY_EXTENSION;
+        else if(format == EVENTS)
+            extension = EVENT_EXTENSION;
+        return ".//log_files//log_"+name+"_"+trial+extension;
+    }
+
+    //the name of the (first part of the) log as written at compression
+    public static String getFilename(int format, int compression, String name, String trial) {
+        return LogStream.getFile(new File(getFilename(format, name, trial)), compression).getPath();
+    }
+
+    //the telemetry recorded beside the log (see TelemetryRecorder)
+    public static String getTelemetryFilename(String name, String trial) {
+        return ".//log_files//log_"+name+"_"+trial+TelemetryRecorder.EXTENSION;
+    }
+
+    //EVENTS only: msec between water level samples (0: every tick)
+    public void setLevelInterval(int interval) {
+        if(sink instanceof EventLogSink)
+            ((EventLogSink)sink).setLevelInterval(interval);
+    }
+
+    //TEXT and BINARY only: msec of simulated time between index entries
+    public void setIndexInterval(int interval) {
+        if(index != null)
+            index.setInterval(interval);
+    }
+
+    //a new part of the log once this one has partSize bytes on the disk or
+    //began partTime msec of simulated time ago (0: no limit)
+    public void setRotation(long partSize, int partTime) {
+        if(rotation != null) {
+            rotation.setPartSize(partSize);
+            rotation.setPartTime(partTime);
+        }
+    }
+
+    //any thread; never dropped
+    private void marker(String line) {
+        if(writer != null)
+            writer.putMarker(line);
+    }
+
+    //what the writer does when the simulation outruns the disk:
+    //LogWriter.BLOCK (default), LogWriter.DROP or LogWriter.SAMPLE
+    public void setBackpressure(int policy) {
+        if(writer != null)
+            writer.setBackpressure(policy);
+    }
+
+    public long getDropped() {
+        return writer == null ? 0 : writer.getDropped();
+    }
+
     //methods to modify values
     public void updateValve(double newSetting, String valveName) {
 
@@ -211,7 +308,7 @@ public void updateState(int time)
 public void setScenario(String newScenario){
 
     scenario = newScenario;
-    pLog.println("NEW Scenario: " + scenario + "\n");
+    marker("NEW Scenario: " + scenario + "\n");
 }
 
 public void setIfType(int newIf) {
@@ -239,7 +336,7 @@ public void setIfType(int newIf) {
             ifString = "Goals";
             break;
     }
-    pLog.println("NEW Interface Type: " + ifString);
+    marker("NEW Interface Type: " + ifString);
     
 }
 
@@ -250,42 +347,80 @@ public void setIfType(int newIf) {
         
         time = newTime;
 
-        java.text.NumberFormat nf = java.text.NumberFormat.getInstance();
-        nf.setMaximumFractionDigits(5);
+        if(writer == null)
+            return;
 
         if(firstTime)
         {
-            pLog.println("-------------------------\n");
-            pLog.println("Time\tVA\tVA1\tVA2\tVB\tVB1\tVB2\tVO1\tVO2\tPA\tPB\tH1\tH2\tR1\tR2\tSteadyTime");
+            writer.putMarker("-------------------------\n");
+            writer.putMarker("Time\tVA\tVA1\tVA2\tVB\tVB1\tVB2\tVO1\tVO2\tPA\tPB\tH1\tH2\tR1\tR2\tSteadyTime");
             firstTime = false;
         }
         
-        pLog.println(time +"\t"+ valveVASetting +"\t"+ valveVA1Setting +"\t"+ valveVA2Setting+"\t"+ valveVBSetting +"\t"+ valveVB1Setting +"\t"+ valveVB2Setting+"\t"+ valveVO1Setting +"\t"+ valveVO2Setting+"\t"+ (pumpPASetting?1:0) +"\t"+ (pumpPBSetting?1:0) +"\t"+ heaterH1Setting +"\t"+ heaterH2Setting+"\t"+ nf.format(reservoirR1Level) +"\t"+ nf.format(reservoirR2Level) +"\t"+steadyTime);
+        writer.putRow(time, valveVASetting, valveVA1Setting, valveVA2Setting, valveVBSetting, valveVB1Setting, valveVB2Setting, valveVO1Setting, valveVO2Setting, pumpPASetting, pumpPBSetting, heaterH1Setting, heaterH2Setting, reservoirR1Level, reservoirR2Level, steadyTime);
 
     }
     
+    //the row in progress and the time of the last one written (see
+    //Engine.snapshot); a restored log carries on from there
+    public void save(DataOutput out) throws IOException {
+        double[] settings = {valveVASetting, valveVA1Setting, valveVA2Setting,
+                             valveVBSetting, valveVB1Setting, valveVB2Setting,
+                             valveVO1Setting, valveVO2Setting, heaterH1Setting, heaterH2Setting,
+                             reservoirR1Level, reservoirR2Level};
+        for(int i=0; i<settings.length; i++)
+            out.writeDouble(settings[i]);
+        out.writeBoolean(pumpPASetting);
+        out.writeBoolean(pumpPBSetting);
+        out.writeInt(steadyTime);
+        out.writeInt(time);
+        out.writeBoolean(firstTime);
+    }
+
+    public void restore(DataInput in) throws IOException {
+        valveVASetting = in.readDouble();
+        valveVA1Setting = in.readDouble();
+        valveVA2Setting = in.readDouble();
+        valveVBSetting = in.readDouble();
+        valveVB1Setting = in.readDouble();
+        valveVB2Setting = in.readDouble();
+        valveVO1Setting = in.readDouble();
+        valveVO2Setting = in.readDouble();
+        heaterH1Setting = in.readDouble();
+        heaterH2Setting = in.readDouble();
+        reservoirR1Level = in.readDouble();
+        reservoirR2Level = in.readDouble();
+        pumpPASetting = in.readBoolean();
+        pumpPBSetting = in.readBoolean();
+        steadyTime = in.readInt();
+        time = in.readInt();
+        firstTime = in.readBoolean();
+    }
+
+    //time of the last row written
+    public int getTime() {
+        return time;
+    }
+
     //output method
     public void printLog(String newString) {
-    	pLog.println(newString);
+        if(writer != null)
+            writer.putText(newString);
 
     }
 
 public void endSimulation(String message) {
 
-    pLog.println("TERMINATION: " + message + "\n");
+    marker("TERMINATION: " + message + "\n");
 
-    try {
-        log.close();
-    }
-    catch (IOException e) {
-        System.out.println("ERROR CLOSING LOG FILE\n");
-        e.printStackTrace();
-    }
+    //flushes everything still in the ring before returning
+    if(writer != null)
+        writer.close();
     
     }
 
 public void writeNameTrial(String name, String trial) {
 
-    pLog.println("Subject: " + name + "\nTrial #: " + trial + "\n");
+    marker("Subject: " + name + "\nTrial #: " + trial + "\n");
 }
 }
@@ -0,0 +1,289 @@
+// LogAnalytics.class  Command-line tool that sums up a study: it scans any
+//                     number of text trial logs in parallel and prints one
+//                     table of metrics per subject, per scenario and over
+//                     all of them.
+//
+//    Usage:  java LogAnalytics [-threads n] log.txt|log.txt.gz|directory...
+//
+//    For each group: the logs and rows in it, the simulated time, how many
+//    logs reached steady state and the mean time at which their first
+//    steady period began, the control actions (one per control changed
+//    from one row to the next; pumps included), the time spent in each
+//    interface type, how the trials ended and the variance of each of the
+//    ten continuous settings over all rows.
+//
+//    Each file is memory-mapped (a compressed or rotated log, see
+//    LogStream, is decompressed into memory) and scanned byte by byte:
+//    rows are split at their tabs and their numbers parsed in place,
+//    without regular expressions, Strings or boxed values, into the
+//    primitive accumulators of a LogStats.  Only the header and the few marker
+//    lines that matter (interface changes, termination) become Strings.
+//    The header's length varies and marker lines come between the rows,
+//    so every line is classified as it comes.
+//
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+public final class LogAnalytics {
+
+   private final static byte[] COLUMNS = TextLogReader.COLUMNS.getBytes(StandardCharsets.US_ASCII);
+   private final static byte[] INTERFACE = "Interface Type: ".getBytes(StandardCharsets.US_ASCII);
+   private final static byte[] NEW_INTERFACE = "NEW Interface Type: ".getBytes(StandardCharsets.US_ASCII);
+   private final static byte[] TERMINATION = "TERMINATION: ".getBytes(StandardCharsets.US_ASCII);
+   private final static int FIELDS = 16;
+   private final static double[] POWERS_OF_TEN = new double[23];
+
+   static {
+      POWERS_OF_TEN[0] = 1;
+      for(int i=1; i<POWERS_OF_TEN.length; i++)
+         POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1]*10;
+      }
+
+   public static void main(String[] args) {
+      int threads = Runtime.getRuntime().availableProcessors();
+      ArrayList<File> logs = new ArrayList<File>();
+      try {
+         for(int i=0; i<args.length; i++) {
+            if(args[i].equals("-threads"))
+               threads = Integer.parseInt(args[++i]);
+            else
+               addLogs(new File(args[i]), logs);
+            }
+         }
+      catch(Exception e) {
+         System.out.println("Error: " + e);
+         System.exit(1);
+         }
+      if(logs.isEmpty()) {
+         System.out.println("usage: java LogAnalytics [-threads n] log.txt|log.txt.gz|directory...");
+         System.exit(1);
+         }
+
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      ArrayList<Future<LogStats>> results = new ArrayList<Future<LogStats>>();
+      for(final File log : logs)
+         results.add(pool.submit(new Callable<LogStats>() {
+                                    public LogStats call() throws IOException {
+                                       return scan(log);
+                                       }
+                                    }));
+      TreeMap<String, LogStats> subjects = new TreeMap<String, LogStats>();
+      TreeMap<String, LogStats> scenarios = new TreeMap<String, LogStats>();
+      LogStats all = new LogStats();
+      for(int i=0; i<results.size(); i++) {
+         LogStats stats;
+         try {
+            stats = results.get(i).get();
+            }
+         catch(Exception e) {
+            System.out.println("Error: " + logs.get(i) + ": " + e.getCause());
+            continue;
+            }
+         add(subjects, stats.subject, stats);
+         add(scenarios, stats.scenario, stats);
+         all.add(stats);
+         }
+      pool.shutdown();
+
+      System.out.println(LogStats.header());
+      for(Map.Entry<String, LogStats> e : subjects.entrySet())
+         System.out.println(e.getValue().row("Subject", e.getKey()));
+      for(Map.Entry<String, LogStats> e : scenarios.entrySet())
+         System.out.println(e.getValue().row("Scenario", e.getKey()));
+      System.out.println(all.row("All", "-"));
+      }
+
+   static void addLogs(File f, ArrayList<File> logs) throws IOException {
+      if(f.isDirectory()) {
+         File[] files = f.listFiles(new FilenameFilter() {
+                                       public boolean accept(File dir, String name) {
+                                          return LogStream.getBase(new File(name)).getName().endsWith(Log.TEXT_EXTENSION);
+                                          }
+                                       });
+         Arrays.sort(files);
+         logs.addAll(Arrays.asList(files));
+         }
+      else if(f.isFile())
+         logs.add(f);
+      else
+         throw new FileNotFoundException(f.toString());
+      }
+
+   private static void add(TreeMap<String, LogStats> groups, String name, LogStats stats) {
+      if(name == null || name.isEmpty())
+         name = "-";
+      LogStats group = groups.get(name);
+      if(group == null) {
+         group = new LogStats();
+         groups.put(name, group);
+         }
+      group.add(stats);
+      }
+
+   // the metrics of one text log
+   public static LogStats scan(File file) throws IOException {
+      ByteBuffer buffer = BinaryLogReader.map(file);
+      LogStats stats = new LogStats();
+      stats.logs = 1;
+      int end = buffer.limit();
+      int position = 0;
+      boolean header = true;
+      int interfaceType = -1;
+      // the previous row
+      int previousTime = 0;
+      double[] previous = new double[LogWriter.SETTINGS];
+      int previousPumps = 0;
+      boolean first = true;
+      double[] settings = new double[LogWriter.SETTINGS];
+      int[] tabs = new int[FIELDS];
+      while(position < end) {
+         int lineEnd = position;
+         while(lineEnd < end && buffer.get(lineEnd) != '\n')
+            lineEnd++;
+         int next = lineEnd + 1;
+         if(lineEnd > position && buffer.get(lineEnd - 1) == '\r')
+            lineEnd--;
+         if(header) {
+            if(equals(buffer, position, lineEnd, COLUMNS))
+               header = false;
+            else if(startsWith(buffer, position, lineEnd, INTERFACE))
+               interfaceType = TextLogReader.parseInterfaceType(string(buffer, position + INTERFACE.length, lineEnd));
+            else {
+               String line = string(buffer, position, lineEnd);
+               if(line.startsWith("Subject: "))
+                  stats.subject = line.substring(9);
+               else if(line.startsWith("Scenario: "))
+                  stats.scenario = line.substring(10);
+               }
+            }
+         else if(isRow(buffer, position, lineEnd, tabs)) {
+            int time = (int)parseNumber(buffer, position, tabs[0]);
+            for(int j=0; j<8; j++)
+               settings[j] = parseNumber(buffer, tabs[j] + 1, tabs[j+1]);
+            int pumps = (parseNumber(buffer, tabs[8] + 1, tabs[9]) != 0 ? 1 : 0) |
+                        (parseNumber(buffer, tabs[9] + 1, tabs[10]) != 0 ? 2 : 0);
+            settings[8] = parseNumber(buffer, tabs[10] + 1, tabs[11]);
+            settings[9] = parseNumber(buffer, tabs[11] + 1, tabs[12]);
+            int steadyTime = (int)parseNumber(buffer, tabs[14] + 1, tabs[15]);
+            stats.rows++;
+            if(!first) {
+               stats.time += time - previousTime;
+               if(interfaceType >= 0)
+                  stats.interfaceTime[interfaceType] += time - previousTime;
+               for(int j=0; j<10; j++)
+                  if(settings[j] != previous[j])
+                     stats.actions++;
+               stats.actions += Integer.bitCount(pumps ^ previousPumps);
+               }
+            if(steadyTime > 0 && stats.steadyLogs == 0) {
+               stats.steadyLogs = 1;
+               stats.firstSteadySum = time - steadyTime;
+               }
+            stats.addSettings(settings);
+            System.arraycopy(settings, 0, previous, 0, 10);
+            previousTime = time;
+            previousPumps = pumps;
+            first = false;
+            }
+         else if(startsWith(buffer, position, lineEnd, NEW_INTERFACE))
+            interfaceType = TextLogReader.parseInterfaceType(string(buffer, position + NEW_INTERFACE.length, lineEnd));
+         else if(startsWith(buffer, position, lineEnd, TERMINATION))
+            stats.terminations[LogStats.getTermination(string(buffer, position + TERMINATION.length, lineEnd))]++;
+         position = next;
+         }
+      if(header)
+         throw new IOException("not a DURESS text log: " + file);
+      int ended = 0;
+      for(int i=0; i<LogStats.TERMINATIONS; i++)
+         ended += stats.terminations[i];
+      if(ended == 0)
+         stats.terminations[LogStats.NONE]++;
+      return stats;
+      }
+
+   // a row starts with a digit and has FIELDS tab-separated fields (their
+   // ends are left in tabs)
+   private static boolean isRow(ByteBuffer buffer, int start, int end, int[] tabs) {
+      if(start == end || buffer.get(start) < '0' || buffer.get(start) > '9')
+         return false;
+      int n = 0;
+      for(int i=start; i<end; i++)
+         if(buffer.get(i) == '\t') {
+            if(n == FIELDS - 1)
+               return false;
+            tabs[n++] = i;
+            }
+      tabs[n] = end;
+      return n == FIELDS - 1;
+      }
+
+   // a number as Integer.toString or Double.toString wrote it (sign,
+   // digits, fraction, exponent)
+   static double parseNumber(ByteBuffer buffer, int start, int end) throws IOException {
+      boolean negative = false;
+      long mantissa = 0;
+      int digits = 0;
+      int scale = 0;                   // decimal places
+      boolean fraction = false;
+      int i = start;
+      if(i < end && buffer.get(i) == '-') {
+         negative = true;
+         i++;
+         }
+      for(; i<end; i++) {
+         byte b = buffer.get(i);
+         if(b >= '0' && b <= '9') {
+            // beyond 18 digits only the scale counts
+            if(digits < 18) {
+               mantissa = mantissa*10 + (b - '0');
+               digits++;
+               if(fraction)
+                  scale++;
+               }
+            else if(!fraction)
+               scale--;
+            }
+         else if(b == '.')
+            fraction = true;
+         else if(b == 'E' || b == 'e') {
+            scale -= (int)parseNumber(buffer, i + 1, end);
+            break;
+            }
+         else
+            throw new IOException("bad number at byte " + i);
+         }
+      if(i == start || (digits == 0 && !fraction))
+         throw new IOException("bad number at byte " + start);
+      double value = mantissa;
+      if(scale > 0)
+         value = scale < POWERS_OF_TEN.length ? value/POWERS_OF_TEN[scale] : value/Math.pow(10, scale);
+      else if(scale < 0)
+         value = -scale < POWERS_OF_TEN.length ? value*POWERS_OF_TEN[-scale] : value*Math.pow(10, -scale);
+      return negative ? -value : value;
+      }
+
+   private static boolean startsWith(ByteBuffer buffer, int start, int end, byte[] prefix) {
+      if(end - start < prefix.length)
+         return false;
+      for(int i=0; i<prefix.length; i++)
+         if(buffer.get(start + i) != prefix[i])
+            return false;
+      return true;
+      }
+
+   private static boolean equals(ByteBuffer buffer, int start, int end, byte[] line) {
+      return end - start == line.length && startsWith(buffer, start, end, line);
+      }
+
+   private static String string(ByteBuffer buffer, int start, int end) {
+      byte[] bytes = new byte[end - start];
+      for(int i=0; i<bytes.length; i++)
+         bytes[i] = buffer.get(start + i);
+      return new String(bytes, StandardCharsets.UTF_8);
+      }
+
+   }
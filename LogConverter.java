@@ -0,0 +1,80 @@
+// LogConverter.class  Command-line tool that turns binary and event trial
+//                     logs back into the tab-separated text DURESS has
+//                     always written, line for line.
+//
+//    Usage:  java LogConverter log.dlog|log.elog...
+//
+//    Each log_<subject>_<trial>.dlog or .elog, compressed (.gz) or not,
+//    is written out as the plain .txt beside it, with its LogIndex.
+//
+
+import java.io.*;
+
+public final class LogConverter {
+
+   public static void main(String[] args) {
+      if(args.length == 0) {
+         System.out.println("usage: java LogConverter log.dlog|log.elog...");
+         System.exit(1);
+         }
+      for(int i=0; i<args.length; i++) {
+         File in = new File(args[i]);
+         if(LogStream.getBase(in).getName().endsWith(Log.TEXT_EXTENSION)) {
+            System.out.println("Error: " + in + " is a text log already");
+            continue;
+            }
+         String name = LogStream.getBase(in).getPath();
+         int dot = name.lastIndexOf('.');
+         if(dot > name.lastIndexOf(File.separatorChar))
+            name = name.substring(0, dot);
+         File out = new File(name + Log.TEXT_EXTENSION);
+         try {
+            toText(in, out);
+            System.out.println(in + " -> " + out);
+            }
+         catch(IOException e) {
+            System.out.println("Error: " + in + ": " + e);
+            }
+         }
+      }
+
+   // a reader for any log format, chosen by file extension (before
+   // GZIP_EXTENSION, if the log is compressed)
+   public static LogReader open(File in) throws IOException {
+      String name = LogStream.getBase(in).getName();
+      if(name.endsWith(Log.TEXT_EXTENSION))
+         return TextLogReader.open(in);
+      if(name.endsWith(Log.EVENT_EXTENSION))
+         return EventLogReader.open(in);
+      return BinaryLogReader.open(in);
+      }
+
+   public static void toText(File in, File out) throws IOException {
+      LogReader reader = open(in);
+      LogSink sink = new IndexedLogSink(new TextLogSink(new FileOutputStream(out)),
+                                        new FileOutputStream(LogIndex.getFile(out)));
+      try {
+         copy(reader, sink);
+         }
+      finally {
+         sink.close();
+         }
+      }
+
+   // replays every remaining record of reader into sink
+   public static void copy(LogReader reader, LogSink sink) throws IOException {
+      double[] settings = new double[LogWriter.SETTINGS];
+      int kind;
+      while((kind = reader.next()) != LogReader.END) {
+         if(kind == LogReader.TEXT)
+            sink.text(reader.getText());
+         else {
+            for(int j=0; j<settings.length; j++)
+               settings[j] = reader.getSetting(j);
+            sink.row(reader.getTime(), settings, 0,
+                     (reader.isPumpOn(0) ? 1 : 0) | (reader.isPumpOn(1) ? 2 : 0), reader.getSteadyTime());
+            }
+         }
+      }
+
+   }
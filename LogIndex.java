@@ -0,0 +1,87 @@
+// LogIndex.class  This class reads the sparse time index written beside a
+//                 trial log (log_<subject>_<trial>.txt.idx, .dlog.idx): the
+//                 byte offset of a row every interval msec of simulated
+//                 time (DEFAULT_INTERVAL unless Log.setIndexInterval says
+//                 otherwise), at which a reader can start.  Finding the
+//                 row before any time is a binary search over the
+//                 memory-mapped entries, so a reader can open minute 17
+//                 of a long trial without reading the 16 before it.
+//
+//    File layout (big-endian):
+//
+//       "DIDX" version(int)
+//       entries, in time order:  time(int, msec)  offset(long)
+//
+//    The entries are written as the log is, so a log cut short by a
+//    crash keeps the index up to its last flush; an entry beyond the end
+//    of its log is not used.
+//
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+final class LogIndex {
+
+   public final static String EXTENSION = ".idx";
+   public final static int DEFAULT_INTERVAL = 10000;       // msec
+   final static int MAGIC = 0x44494458;                  // "DIDX"
+   final static int VERSION = 1;
+   final static int HEADER = 8;
+   final static int ENTRY = 12;
+   private ByteBuffer buffer;
+   private int entries;
+
+   public LogIndex(ByteBuffer buffer) throws IOException {
+      this.buffer = buffer;
+      if(buffer.limit() < HEADER || buffer.getInt(0) != MAGIC)
+         throw new IOException("not a log index");
+      if(buffer.getInt(4) != VERSION)
+         throw new IOException("log index version " + buffer.getInt(4) + " (expected " + VERSION + ")");
+      // a partly written last entry is left out
+      entries = (buffer.limit() - HEADER)/ENTRY;
+      }
+
+   public static File getFile(File log) {
+      return new File(log.getPath() + EXTENSION);
+      }
+
+   // the index beside log, or null if it has none
+   public static LogIndex open(File log) throws IOException {
+      File file = getFile(log);
+      if(!file.isFile())
+         return null;
+      return new LogIndex(BinaryLogReader.map(file));
+      }
+
+   // the offset of the last entry at or before time, -1 if there is none
+   public final long getOffset(int time) {
+      int low = 0;
+      int high = entries - 1;
+      int found = -1;
+      while(low <= high) {
+         int middle = (low + high) >>> 1;
+         if(getTime(middle) <= time) {
+            found = middle;
+            low = middle + 1;
+            }
+         else
+            high = middle - 1;
+         }
+      return found < 0 ? -1 : getEntryOffset(found);
+      }
+
+   public final int size() {
+      return entries;
+      }
+
+   // time (msec) of entry i
+   public final int getTime(int i) {
+      return buffer.getInt(HEADER + i*ENTRY);
+      }
+
+   // byte offset in the log of entry i
+   public final long getEntryOffset(int i) {
+      return buffer.getLong(HEADER + i*ENTRY + 4);
+      }
+
+   }
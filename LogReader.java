@@ -0,0 +1,52 @@
+// LogReader.class  This interface reads a trial log back as the records a
+//                  LogWriter was given: text lines and rows.  Rows come
+//                  out complete whatever the file kept of them.
+//
+//    TextLogReader:    .txt files (TextLogSink)
+//    BinaryLogReader:  .dlog files (BinaryLogSink)
+//    EventLogReader:   .elog files (EventLogSink), rebuilt tick by tick
+//
+//    Text and binary logs written by Log have a LogIndex beside them,
+//    through which seek() goes straight to a time instead of reading the
+//    whole trial up to it.  A time range is read by seeking to its start
+//    and reading rows while getTime() is before its end.
+//
+
+import java.io.*;
+
+interface LogReader {
+
+   public final static int END = 0;
+   public final static int TEXT = 1;
+   public final static int ROW = 2;
+
+   // moves to the next record; returns TEXT, ROW or END
+   public int next() throws IOException;
+
+   // makes the first row at or after time (msec) the next record; the
+   // rows and lines before it are skipped (END next if there is none)
+   public void seek(int time) throws IOException;
+
+   public String getText();
+
+   public int getTime();
+
+   // index as in LogSink.row: VA, VA1, VA2, VB, VB1, VB2, VO1, VO2, H1, H2, R1, R2
+   public double getSetting(int index);
+
+   // 0: PA, 1: PB
+   public boolean isPumpOn(int pump);
+
+   public int getSteadyTime();
+
+   public String getSubject();
+
+   public String getTrial();
+
+   public String getScenario();
+
+   public int getInterfaceType();
+
+   public long getDate();
+
+   }
@@ -0,0 +1,225 @@
+// LogReplay.class  Command-line tool that plays recorded trials again: each
+//                  log's operator settings (VA ... VO2, PA/PB, H1/H2) are
+//                  fed to a headless Engine on its scenario, step for step
+//                  and as fast as possible, and the levels it computes are
+//                  checked against the R1/R2 levels the log recorded.  A
+//                  whole study can so be scored again in seconds after a
+//                  change to the physics, without calling the subjects
+//                  back.  Logs are replayed on all cores, one summary row
+//                  each, in the order given.
+//
+//    Usage:  java LogReplay [-threads n] [-config directory] [-tolerance level]
+//                           log|directory...
+//
+//    A log is any of the three formats (see LogConverter.open), compressed
+//    or not; log directories are expanded to the logs in them (the first
+//    part of each, see LogStream).  The scenario named in
+//    the log is looked for in -config (default "config").
+//
+//    A row at time t holds the settings in effect for the step at t and
+//    the levels the step before left, so the levels are compared before
+//    the row's settings are applied and the step taken.  Error1 and Error2
+//    are the largest differences in level; a difference of more than
+//    -tolerance (the log keeps 5 decimals) or a termination other than the
+//    logged one is reported under Divergence, with where it first showed.
+//
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public final class LogReplay {
+
+   public final static double DEFAULT_TOLERANCE = 1e-4;
+   private final static String TERMINATION = "TERMINATION: ";
+   // the controls of LogReader.getSetting 0..9
+   private final static String[] CONTROLS = {"VA", "VA1", "VA2", "VB", "VB1", "VB2", "VO1", "VO2", "H1", "H2"};
+   private File configuration;
+   private double tolerance;
+
+   public LogReplay(File configuration, double tolerance) {
+      this.configuration = configuration;
+      this.tolerance = tolerance;
+      }
+
+   public static void main(String[] args) {
+      int threads = Runtime.getRuntime().availableProcessors();
+      File configuration = new File("config");
+      double tolerance = DEFAULT_TOLERANCE;
+      ArrayList<File> logs = new ArrayList<File>();
+      try {
+         for(int i=0; i<args.length; i++) {
+            if(args[i].equals("-threads"))
+               threads = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-config"))
+               configuration = new File(args[++i]);
+            else if(args[i].equals("-tolerance"))
+               tolerance = Double.parseDouble(args[++i]);
+            else
+               addLogs(new File(args[i]), logs);
+            }
+         }
+      catch(Exception e) {
+         System.out.println("Error: " + e);
+         System.exit(1);
+         }
+      if(logs.isEmpty()) {
+         System.out.println("usage: java LogReplay [-threads n] [-config directory] [-tolerance level] log|directory...");
+         System.exit(1);
+         }
+
+      final LogReplay replay = new LogReplay(configuration, tolerance);
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      ArrayList<Future<String>> rows = new ArrayList<Future<String>>();
+      for(final File log : logs)
+         rows.add(pool.submit(new Callable<String>() {
+                                 public String call() {
+                                    return replay.run(log);
+                                    }
+                                 }));
+      System.out.println(header());
+      try {
+         for(Future<String> row : rows)
+            System.out.println(row.get());
+         }
+      catch(Exception e) {
+         System.out.println("Error: " + e);
+         }
+      pool.shutdown();
+      }
+
+   static void addLogs(File f, ArrayList<File> logs) throws IOException {
+      if(f.isDirectory()) {
+         File[] files = f.listFiles(new FilenameFilter() {
+                                       public boolean accept(File dir, String name) {
+                                          name = LogStream.getBase(new File(name)).getName();
+                                          return name.endsWith(Log.TEXT_EXTENSION) ||
+                                                 name.endsWith(Log.BINARY_EXTENSION) ||
+                                                 name.endsWith(Log.EVENT_EXTENSION);
+                                          }
+                                       });
+         Arrays.sort(files);
+         logs.addAll(Arrays.asList(files));
+         }
+      else if(f.isFile())
+         logs.add(f);
+      else
+         throw new FileNotFoundException(f.toString());
+      }
+
+   public static String header() {
+      return "Log\tSubject\tTrial\tScenario\tRows\tTermination\tTime" +
+             "\tS00\tS01\tS02\tS10\tS11\tS12\tS20\tS21\tS22\tError1\tError2\tDivergence";
+      }
+
+   // replays one log and returns its summary row
+   public final String run(File log) {
+      Replay replay = new Replay();
+      try {
+         replay.play(LogConverter.open(log));
+         }
+      catch(Exception e) {
+         return log.getName() + "\tError: " + e;
+         }
+      return replay.row(log.getName());
+      }
+
+   // the state of one replay
+   private final class Replay {
+
+      String subject;
+      String trial;
+      String scenario;
+      Engine engine;
+      int rows;
+      double[] error = new double[2];
+      String divergence;
+      String loggedTermination;
+      double[] controls = new double[PlantModel.CONTROLS];
+
+      void play(LogReader reader) throws IOException {
+         int kind;
+         while((kind = reader.next()) != LogReader.END) {
+            if(kind == LogReader.TEXT) {
+               if(reader.getText().startsWith(TERMINATION))
+                  loggedTermination = reader.getText().substring(TERMINATION.length()).trim();
+               continue;
+               }
+            if(engine == null)
+               start(reader);
+            int t = reader.getTime();
+            if(t < engine.getTime())
+               throw new IOException("row at " + t + " after " + engine.getTime());
+            // a gap in the log leaves the settings as they were
+            while(!engine.isTerminated() && engine.getTime() < t)
+               engine.step();
+            if(engine.isTerminated()) {
+               diverge(engine.getTime(), "terminated before the log did");
+               break;
+               }
+            check(engine.R1, reader.getSetting(10), 0, t);
+            check(engine.R2, reader.getSetting(11), 1, t);
+            apply(reader);
+            rows++;
+            }
+         // the step of the last row is the one that ended the trial
+         if(engine != null && loggedTermination != null && !engine.isTerminated())
+            engine.step();
+         if(engine != null && loggedTermination != null && !loggedTermination.equals(engine.getTerminationMessage()))
+            diverge(engine.getTime(), "logged termination: " + loggedTermination);
+         }
+
+      void start(LogReader reader) throws IOException {
+         subject = reader.getSubject();
+         trial = reader.getTrial();
+         scenario = reader.getScenario();
+         if(scenario == null)
+            throw new IOException("the log names no scenario");
+         engine = new Engine(Scenario.load(new File(configuration, scenario)), new Session());
+         }
+
+      void check(Reservoir r, double logged, int i, int t) {
+         double difference = Math.abs(r.getWaterLevel() - logged);
+         if(difference > error[i])
+            error[i] = difference;
+         if(difference > tolerance)
+            diverge(t, "R" + (i + 1) + " level " + r.getWaterLevel() + ", logged " + logged);
+         }
+
+      void diverge(int t, String what) {
+         if(divergence == null)
+            divergence = t/1000.0 + ": " + what;
+         }
+
+      // the row's settings, where they differ from the engine's
+      void apply(LogReader reader) {
+         engine.getControls(controls);
+         for(int j=0; j<CONTROLS.length; j++)
+            if(reader.getSetting(j) != controls[PlantModel.getControlIndex(CONTROLS[j])])
+               engine.setControl(CONTROLS[j], reader.getSetting(j));
+         if(reader.isPumpOn(0) != (controls[PlantModel.PA] != 0))
+            engine.setControl("PA", reader.isPumpOn(0) ? 1 : 0);
+         if(reader.isPumpOn(1) != (controls[PlantModel.PB] != 0))
+            engine.setControl("PB", reader.isPumpOn(1) ? 1 : 0);
+         }
+
+      String row(String log) {
+         StringBuffer row = new StringBuffer();
+         row.append(log).append('\t').append(subject).append('\t').append(trial);
+         row.append('\t').append(scenario).append('\t').append(rows);
+         if(engine == null)
+            return row.append("\tError: no rows").toString();
+         row.append('\t').append(engine.isTerminated() ? engine.getTerminationMessage() : "-");
+         row.append('\t').append(engine.getTime()/1000.0);
+         Score score = engine.getScore();
+         for(int i=0; i<3; i++)
+            for(int j=0; j<3; j++)
+               row.append('\t').append(score.getScore(i, j));
+         row.append('\t').append(error[0]).append('\t').append(error[1]);
+         row.append('\t').append(divergence == null ? "-" : divergence);
+         return row.toString();
+         }
+
+      }
+
+   }
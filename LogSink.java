@@ -0,0 +1,30 @@
+// LogSink.class  This interface is the file format a LogWriter hands its
+//                records to, on the writer thread.  A trial log is a
+//                sequence of text lines (header, markers, termination) and
+//                rows (time, the twelve settings and levels, the pumps and
+//                the steady time).
+//
+//    TextLogSink:    the tab-separated text the DURESS logs always had
+//    BinaryLogSink:  a compact binary form of the same records
+//
+
+import java.io.*;
+
+interface LogSink {
+
+   public void text(String line) throws IOException;
+
+   // settings[offset..offset+LogWriter.SETTINGS): VA, VA1, VA2, VB, VB1,
+   // VB2, VO1, VO2, H1, H2, R1, R2; pumps bit 0: PA, bit 1: PB
+   public void row(int time, double[] settings, int offset, int pumps, int steadyTime) throws IOException;
+
+   // makes the next row one a reader can start at (see LogIndex) and
+   // returns the byte offset it will be written at; -1 if the format has
+   // no such rows
+   public long mark() throws IOException;
+
+   public void flush() throws IOException;
+
+   public void close() throws IOException;
+
+   }
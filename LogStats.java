@@ -0,0 +1,115 @@
+// LogStats.class  This class holds what LogAnalytics adds up over trial
+//                 logs.
+//
+
+// The metrics of one log or of a group of them, in primitive accumulators
+// that add up (the variances by Chan's pairwise update).
+final class LogStats {
+
+   // how trials ended
+   public final static int STEADY = 0;
+   public final static int BOIL = 1;
+   public final static int EMPTY = 2;
+   public final static int OVERFLOW = 3;
+   public final static int PUMP = 4;
+   public final static int OTHER = 5;
+   public final static int NONE = 6;          // no termination logged
+   public final static int TERMINATIONS = 7;
+   private final static String[] TERMINATION_NAMES = {"Steady", "Boiled", "HeatedEmpty", "Overflow",
+                                                      "PumpBlown", "Other", "None"};
+   private final static String[] SETTING_NAMES = {"VA", "VA1", "VA2", "VB", "VB1", "VB2", "VO1", "VO2", "H1", "H2"};
+   private final static int SETTINGS = 10;
+   String subject;
+   String scenario;
+   int logs;
+   long rows;
+   long time;                                // msec
+   int steadyLogs;                           // logs that reached steady state
+   long firstSteadySum;                      // msec, over those
+   long actions;
+   long[] interfaceTime = new long[TextLogReader.INTERFACE_TYPES.length];
+   int[] terminations = new int[TERMINATIONS];
+   // per setting: rows, mean and sum of squared deviations
+   long settingRows;
+   double[] mean = new double[SETTINGS];
+   double[] m2 = new double[SETTINGS];
+
+   static int getTermination(String message) {
+      if(message.equals(Engine.STEADY_MESSAGE))
+         return STEADY;
+      if(message.contains("boiling"))
+         return BOIL;
+      if(message.contains("heated empty"))
+         return EMPTY;
+      if(message.contains("overflowed"))
+         return OVERFLOW;
+      if(message.contains("blew up"))
+         return PUMP;
+      return OTHER;
+      }
+
+   // one row's settings (Welford)
+   final void addSettings(double[] settings) {
+      settingRows++;
+      for(int j=0; j<SETTINGS; j++) {
+         double delta = settings[j] - mean[j];
+         mean[j] += delta/settingRows;
+         m2[j] += delta*(settings[j] - mean[j]);
+         }
+      }
+
+   final void add(LogStats s) {
+      logs += s.logs;
+      rows += s.rows;
+      time += s.time;
+      steadyLogs += s.steadyLogs;
+      firstSteadySum += s.firstSteadySum;
+      actions += s.actions;
+      for(int i=0; i<interfaceTime.length; i++)
+         interfaceTime[i] += s.interfaceTime[i];
+      for(int i=0; i<TERMINATIONS; i++)
+         terminations[i] += s.terminations[i];
+      long n = settingRows + s.settingRows;
+      if(n > 0)
+         for(int j=0; j<SETTINGS; j++) {
+            double delta = s.mean[j] - mean[j];
+            mean[j] += delta*s.settingRows/n;
+            m2[j] += s.m2[j] + delta*delta*settingRows*s.settingRows/n;
+            }
+      settingRows = n;
+      }
+
+   // population variance of setting j over all rows
+   public final double getVariance(int j) {
+      return settingRows == 0 ? 0 : m2[j]/settingRows;
+      }
+
+   public static String header() {
+      StringBuffer header = new StringBuffer("Group\tName\tLogs\tRows\tTime\tSteadyLogs\tFirstSteady\tActions\tActionsPerMin");
+      for(int i=0; i<TextLogReader.INTERFACE_TYPES.length; i++)
+         header.append('\t').append(TextLogReader.INTERFACE_TYPES[i].replace(" + ", "+"));
+      for(int i=0; i<TERMINATIONS; i++)
+         header.append('\t').append(TERMINATION_NAMES[i]);
+      for(int j=0; j<SETTINGS; j++)
+         header.append("\tVar").append(SETTING_NAMES[j]);
+      return header.toString();
+      }
+
+   // times in seconds; FirstSteady is the mean over the logs that got there
+   public final String row(String group, String name) {
+      StringBuffer row = new StringBuffer();
+      row.append(group).append('\t').append(name).append('\t').append(logs).append('\t').append(rows);
+      row.append('\t').append(time/1000.0).append('\t').append(steadyLogs);
+      row.append('\t').append(steadyLogs == 0 ? "-" : "" + firstSteadySum/steadyLogs/1000.0);
+      row.append('\t').append(actions);
+      row.append('\t').append(time == 0 ? 0 : Math.round(actions*60000.0*100/time)/100.0);
+      for(int i=0; i<interfaceTime.length; i++)
+         row.append('\t').append(interfaceTime[i]/1000.0);
+      for(int i=0; i<TERMINATIONS; i++)
+         row.append('\t').append(terminations[i]);
+      for(int j=0; j<SETTINGS; j++)
+         row.append('\t').append((float)getVariance(j));
+      return row.toString();
+      }
+
+   }
@@ -0,0 +1,242 @@
+// LogStream.class  This class is the file a trial log is written to: plain,
+//                  or gzip-compressed at a given Deflater level (the name
+//                  gets GZIP_EXTENSION), and in one part or cut into
+//                  several by a RotatingLogSink.  Part 0 has the log's
+//                  name; part k the name before compression with ".k"
+//                  after it, then GZIP_EXTENSION when compressed:
+//
+//       log_<subject>_<trial>.txt.gz  log_<subject>_<trial>.txt.1.gz  ...
+//
+//    The sinks write to it from the LogWriter's thread, so compressing
+//    and rotating never hold up the thread that steps the Engine.  A
+//    compressed part reaches the disk in deflate-sized pieces rather than
+//    at every LogWriter flush (a sync flush at each one would cost most
+//    of the compression), so a run killed without its shutdown hook
+//    loses the tail of the part; a reader takes what is there.
+//
+//    Readers see the parts, decompressed, as one stream (open, readAll),
+//    and the byte offsets a LogIndex records are offsets in that stream.
+//    Seeking skips whole parts by their size (a finished gzip part
+//    records its size in its trailer, modulo 4 GB) and decompresses only
+//    the part it lands in.
+//
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+final class LogStream extends OutputStream {
+
+   public final static String GZIP_EXTENSION = ".gz";
+   public final static int PLAIN = -2;          // no compression; Deflater levels are -1 (default) to 9
+   private final File base;                     // part 0's name before compression
+   private final int level;
+   private int part;
+   private OutputStream out;                    // the current part
+   private long partSize;                       // bytes of it on the disk
+
+   public LogStream(File base, int level) throws IOException {
+      if(level != PLAIN && (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION))
+         throw new IllegalArgumentException("compression level must be PLAIN or -1..9: " + level);
+      this.base = base;
+      this.level = level;
+      // the parts of an earlier log of the same name would be read as this one's
+      for(int i=1; getPart(base, level != PLAIN, i).delete(); i++)
+         ;
+      out = openPart();
+      }
+
+   // the name of part 0 of a log of base written at level
+   public static File getFile(File base, int level) {
+      return level == PLAIN ? base : new File(base.getPath() + GZIP_EXTENSION);
+      }
+
+   public static boolean isCompressed(File file) {
+      return file.getName().endsWith(GZIP_EXTENSION);
+      }
+
+   // the name of part 0 before compression
+   public static File getBase(File file) {
+      if(!isCompressed(file))
+         return file;
+      String path = file.getPath();
+      return new File(path.substring(0, path.length() - GZIP_EXTENSION.length()));
+      }
+
+   // part i of the log whose part 0 is first
+   public static File getPart(File first, int i) {
+      return getPart(getBase(first), isCompressed(first), i);
+      }
+
+   private static File getPart(File base, boolean compressed, int i) {
+      String path = i == 0 ? base.getPath() : base.getPath() + "." + i;
+      return new File(compressed ? path + GZIP_EXTENSION : path);
+      }
+
+   private OutputStream openPart() throws IOException {
+      partSize = 0;
+      OutputStream file = new FilterOutputStream(new FileOutputStream(getPart(base, level != PLAIN, part))) {
+                             public void write(int b) throws IOException {
+                                out.write(b);
+                                partSize++;
+                                }
+                             public void write(byte[] b, int offset, int length) throws IOException {
+                                out.write(b, offset, length);
+                                partSize += length;
+                                }
+                             };
+      if(level == PLAIN)
+         return file;
+      return new GZIPOutputStream(file, 1 << 16) {
+                {
+                def.setLevel(level);
+                }
+                };
+      }
+
+   // finishes the current part and starts the next
+   public final void rotate() throws IOException {
+      out.close();
+      part++;
+      out = openPart();
+      }
+
+   // the current part and the bytes of it written to the disk so far
+   public final int getPart() {
+      return part;
+      }
+
+   public final long getPartSize() {
+      return partSize;
+      }
+
+   public final void write(int b) throws IOException {
+      out.write(b);
+      }
+
+   public final void write(byte[] b, int offset, int length) throws IOException {
+      out.write(b, offset, length);
+      }
+
+   public final void flush() throws IOException {
+      out.flush();
+      }
+
+   public final void close() throws IOException {
+      out.close();
+      }
+
+   // the log whose part 0 is first, decompressed and from offset on
+   public static InputStream open(File first, long offset) throws IOException {
+      boolean compressed = isCompressed(first);
+      ArrayList<InputStream> parts = new ArrayList<InputStream>();
+      try {
+         for(int i=0; ; i++) {
+            File file = getPart(first, i);
+            if(i > 0 && !file.isFile())
+               break;
+            boolean last = !getPart(first, i + 1).isFile();
+            // the size of the last compressed part is only known by reading it
+            long size = !compressed ? file.length() : last ? -1 : getSize(file);
+            if(size >= 0 && offset >= size && !last) {
+               offset -= size;
+               continue;
+               }
+            if(!compressed) {
+               FileInputStream in = new FileInputStream(file);
+               parts.add(in);
+               in.getChannel().position(offset);
+               }
+            else {
+               InputStream in = new PartInputStream(new FileInputStream(file));
+               parts.add(in);
+               for(long skipped; offset > 0 && (skipped = in.skip(offset)) > 0; )
+                  offset -= skipped;
+               }
+            offset = 0;
+            }
+         }
+      catch(IOException e) {
+         for(InputStream in : parts)
+            in.close();
+         throw e;
+         }
+      return new SequenceInputStream(Collections.enumeration(parts));
+      }
+
+   // all of the log whose part 0 is first, decompressed
+   public static byte[] readAll(File first) throws IOException {
+      // a guess at the size, for the first buffer: the last compressed
+      // part may be unfinished, so its trailer is not trusted
+      long size = 0;
+      for(int i=0; getPart(first, i).isFile(); i++) {
+         File file = getPart(first, i);
+         if(!isCompressed(first))
+            size += file.length();
+         else
+            size += getPart(first, i + 1).isFile() ? getSize(file) : 4*file.length();
+         }
+      byte[] bytes = new byte[(int)Math.min(Math.max(size, 1 << 16), Integer.MAX_VALUE - 8)];
+      int length = 0;
+      InputStream in = open(first, 0);
+      try {
+         while(true) {
+            if(length == bytes.length) {
+               // full: grown only if there is more
+               int b = in.read();
+               if(b < 0)
+                  break;
+               if(length == Integer.MAX_VALUE - 8)
+                  throw new IOException(first + " is too large to read at once");
+               bytes = Arrays.copyOf(bytes, (int)Math.min(2L*length, Integer.MAX_VALUE - 8));
+               bytes[length++] = (byte)b;
+               }
+            int n = in.read(bytes, length, bytes.length - length);
+            if(n < 0)
+               break;
+            length += n;
+            }
+         }
+      finally {
+         in.close();
+         }
+      return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+      }
+
+   // the uncompressed size a gzip file's trailer records (modulo 4 GB)
+   private static long getSize(File file) throws IOException {
+      RandomAccessFile in = new RandomAccessFile(file, "r");
+      try {
+         if(in.length() < 4)
+            return 0;
+         in.seek(in.length() - 4);
+         return Integer.reverseBytes(in.readInt()) & 0xffffffffL;
+         }
+      finally {
+         in.close();
+         }
+      }
+
+   // a gzip part that ends where its file does, finished or not
+   private final static class PartInputStream extends GZIPInputStream {
+
+      PartInputStream(InputStream in) throws IOException {
+         super(in, 1 << 16);
+         }
+
+      public int read(byte[] b, int offset, int length) throws IOException {
+         try {
+            return super.read(b, offset, length);
+            }
+         catch(EOFException e) {
+            return -1;
+            }
+         }
+
+      }
+
+   }
@@ -0,0 +1,309 @@
+// LogWriter.class  This class writes a trial log on a background thread so
+//                  the simulation thread never waits on the disk.  Rows are
+//                  copied into preallocated primitive slots of a bounded
+//                  ring (one producer: the thread that steps the Engine,
+//                  one consumer: the writer thread) and handed in batches
+//                  to a LogSink, which formats and buffers them.
+//
+//    When the ring is full a row or text line is
+//       BLOCK:  waited for (nothing is lost, the simulation may stall)
+//       DROP:   dropped
+//       SAMPLE: kept only every sampleInterval-th time while the ring is
+//               more than half full, dropped when it is full
+//
+//    Markers (header, subject, interface type, termination) may be put
+//    from any thread and are never dropped.  They wait in a queue until
+//    the producer's next put, which keeps them in order with the rows.
+//
+//    A put holds the state word from claiming its slot until it is
+//    published, and close() takes it with a CAS, so a row is either
+//    written or counted as dropped: the writer closes the sink only after
+//    every put that got in ahead of close() has been published.
+//
+
+import java.io.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+final class LogWriter implements Runnable {
+
+   public final static int BLOCK = 0;
+   public final static int DROP = 1;
+   public final static int SAMPLE = 2;
+   public final static int DEFAULT_CAPACITY = 4096;     // slots, a power of two
+   // VA, VA1, VA2, VB, VB1, VB2, VO1, VO2, H1, H2, R1, R2
+   public final static int SETTINGS = 12;
+   private final static long PARK_NANOS = 10000000;     // writer idle wake-up
+   private final static long BLOCK_NANOS = 50000;       // producer retry when full
+   // state
+   private final static int OPEN = 0;
+   private final static int PUTTING = 1;                // producer between claim and publish
+   private final static int CLOSED = 2;
+
+   private final LogSink sink;
+   private final int capacity;
+   private final int mask;
+   // slots
+   private final String[] texts;          // text line, or null for a row
+   private final int[] times;
+   private final int[] steadyTimes;
+   private final byte[] pumps;            // bit 0: PA, bit 1: PB
+   private final double[] settings;       // SETTINGS per slot
+   private volatile long head;            // next slot the producer fills
+   private volatile long tail;            // next slot the writer reads
+   private volatile long flushed;         // slots written and flushed
+   private volatile boolean parked;
+   private final AtomicInteger state = new AtomicInteger(OPEN);
+   private boolean failed;                // writer only
+   private final ConcurrentLinkedQueue<String> markers = new ConcurrentLinkedQueue<String>();
+   private final Thread thread;
+   private final Thread shutdownHook;
+   // producer only
+   private int policy = BLOCK;
+   private int sampleInterval = 10;
+   private long sampleCount;
+   private volatile long dropped;         // read by any thread
+
+   public LogWriter(LogSink sink) {
+      this(sink, DEFAULT_CAPACITY);
+      }
+
+   public LogWriter(LogSink sink, int capacity) {
+      if(Integer.bitCount(capacity) != 1)
+         throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+      this.sink = sink;
+      this.capacity = capacity;
+      mask = capacity - 1;
+      texts = new String[capacity];
+      times = new int[capacity];
+      steadyTimes = new int[capacity];
+      pumps = new byte[capacity];
+      settings = new double[capacity*SETTINGS];
+      thread = new Thread(this, "Log writer");
+      thread.setDaemon(true);
+      thread.start();
+      // a run that is quit half way still gets its rows on disk
+      shutdownHook = new Thread() {
+                        public void run() {
+                           close();
+                           }
+                        };
+      Runtime.getRuntime().addShutdownHook(shutdownHook);
+      }
+
+   public final void setBackpressure(int newPolicy) {
+      policy = newPolicy;
+      }
+
+   public final int getBackpressure() {
+      return policy;
+      }
+
+   public final void setSampleInterval(int interval) {
+      sampleInterval = Math.max(1, interval);
+      }
+
+   // rows and text lines lost to DROP or SAMPLE, or put after close()
+   public final long getDropped() {
+      return dropped;
+      }
+
+   // any thread; written before the producer's next row or line
+   public final void putMarker(String line) {
+      markers.offer(line);
+      }
+
+   // producer only
+   public final void putText(String line) {
+      foldMarkers();
+      long slot = claim(false);
+      if(slot < 0)
+         return;
+      texts[(int)slot & mask] = line;
+      publish(slot);
+      }
+
+   // producer only; allocates nothing
+   public final void putRow(int time, double va, double va1, double va2,
+                            double vb, double vb1, double vb2, double vo1, double vo2,
+                            boolean pa, boolean pb, double h1, double h2,
+                            double r1, double r2, int steadyTime) {
+      foldMarkers();
+      long slot = claim(false);
+      if(slot < 0)
+         return;
+      int i = (int)slot & mask;
+      int s = i*SETTINGS;
+      texts[i] = null;
+      times[i] = time;
+      steadyTimes[i] = steadyTime;
+      pumps[i] = (byte)((pa ? 1 : 0) | (pb ? 2 : 0));
+      settings[s] = va;
+      settings[s+1] = va1;
+      settings[s+2] = va2;
+      settings[s+3] = vb;
+      settings[s+4] = vb1;
+      settings[s+5] = vb2;
+      settings[s+6] = vo1;
+      settings[s+7] = vo2;
+      settings[s+8] = h1;
+      settings[s+9] = h2;
+      settings[s+10] = r1;
+      settings[s+11] = r2;
+      publish(slot);
+      }
+
+   private void foldMarkers() {
+      String line;
+      while((line = markers.peek()) != null) {
+         long slot = claim(true);
+         if(slot < 0)
+            return;        // left for the writer if it is closing
+         // only the writer polls too, and not before close()
+         markers.poll();
+         texts[(int)slot & mask] = line;
+         publish(slot);
+         }
+      }
+
+   // returns the slot to fill, or -1 if the record is to be left out; a
+   // slot is held (state PUTTING) until publish()
+   private long claim(boolean essential) {
+      if(!state.compareAndSet(OPEN, PUTTING)) {
+         if(!essential)
+            dropped++;
+         return -1;
+         }
+      long h = head;
+      if(h - tail >= capacity) {
+         if(!essential && policy != BLOCK)
+            return release(true);
+         while(h - tail >= capacity) {
+            if(!thread.isAlive())
+               return release(false);
+            wakeWriter();
+            LockSupport.parkNanos(BLOCK_NANOS);
+            }
+         }
+      else if(!essential && policy == SAMPLE && h - tail >= capacity/2 &&
+              sampleCount++ % sampleInterval != 0)
+         return release(true);
+      return h;
+      }
+
+   private long release(boolean drop) {
+      if(drop)
+         dropped++;
+      state.set(OPEN);
+      return -1;
+      }
+
+   private void publish(long slot) {
+      head = slot + 1;
+      state.set(OPEN);
+      if(parked)
+         wakeWriter();
+      }
+
+   private void wakeWriter() {
+      LockSupport.unpark(thread);
+      }
+
+   // producer only; returns when everything put so far is on disk
+   public final void flush() {
+      foldMarkers();
+      long target = head;
+      while(flushed < target && thread.isAlive()) {
+         wakeWriter();
+         LockSupport.parkNanos(BLOCK_NANOS);
+         }
+      }
+
+   // writes what is left (queued markers last), closes the stream and
+   // waits for the writer; any thread, any number of times
+   public final void close() {
+      // waits out a put in progress; none starts after this
+      while(!state.compareAndSet(OPEN, CLOSED) && state.get() != CLOSED)
+         LockSupport.parkNanos(BLOCK_NANOS);
+      wakeWriter();
+      join();
+      if(Thread.currentThread() != shutdownHook) {
+         try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            }
+         catch(IllegalStateException e) {
+            // already shutting down
+            }
+         }
+      }
+
+   private void join() {
+      if(Thread.currentThread() == thread)
+         return;
+      try {
+         thread.join();
+         }
+      catch(InterruptedException e) {
+         Thread.currentThread().interrupt();
+         }
+      }
+
+   public void run() {
+      while(true) {
+         long t = tail;
+         long h = head;
+         if(t == h) {
+            // once CLOSED, head is final
+            if(state.get() == CLOSED && head == t)
+               break;
+            parked = true;
+            if(head == t && state.get() != CLOSED)
+               LockSupport.parkNanos(this, PARK_NANOS);
+            parked = false;
+            continue;
+            }
+         try {
+            for(; t < h; t++) {
+               int i = (int)t & mask;
+               if(!failed) {
+                  if(texts[i] != null)
+                     sink.text(texts[i]);
+                  else
+                     sink.row(times[i], settings, i*SETTINGS, pumps[i], steadyTimes[i]);
+                  }
+               texts[i] = null;
+               // free the slot as soon as it has been read
+               tail = t + 1;
+               }
+            if(head == t && !failed)
+               sink.flush();
+            }
+         catch(IOException e) {
+            fail(e);
+            }
+         flushed = tail;
+         }
+      try {
+         if(!failed) {
+            // markers put after the producer's last row
+            String marker;
+            while((marker = markers.poll()) != null)
+               sink.text(marker);
+            }
+         sink.close();
+         }
+      catch(IOException e) {
+         fail(e);
+         }
+      flushed = tail;
+      }
+
+   // a broken file stops the writing, not the simulation
+   private void fail(IOException e) {
+      if(!failed)
+         System.out.println("ERROR WRITING LOG FILE: " + e + "\n");
+      failed = true;
+      }
+
+   }
@@ -15,6 +15,8 @@
 //
 //
 
+import java.io.*;
+
 public final class Mixer extends Flow {
 
    private double massFlowInA;
@@ -39,4 +41,16 @@ public final class Mixer extends Flow {
          super.setTemperatureOut(0);
       }
 
+   public final void save(DataOutput out) throws IOException {
+      super.save(out);
+      out.writeDouble(massFlowInA);
+      out.writeDouble(massFlowInB);
+      }
+
+   public final void restore(DataInput in) throws IOException {
+      super.restore(in);
+      massFlowInA = in.readDouble();
+      massFlowInB = in.readDouble();
+      }
+
    }
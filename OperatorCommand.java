@@ -0,0 +1,35 @@
+// OperatorCommand.class  This class is one operator input (a slider moved,
+//                        a pump switched) on its way from the interface,
+//                        a script or a remote client to the Engine.
+//                        Commands are queued on the Session from any
+//                        thread and applied by the Engine at the start of
+//                        its next step, so the plant never sees a setting
+//                        change half way through a step.
+//
+//    control:  VA..VB2, VO1, VO2, H1, H2 (settings), PA, PB (0: off, 1: on)
+//
+
+final class OperatorCommand {
+
+   public final String control;
+   public final double value;
+   public final long submitted;    // System.nanoTime() when queued
+   long applied;                   // System.nanoTime() when applied
+   int appliedTime;                // simulated time (msec) of the step it joined
+
+   public OperatorCommand(String control, double value) {
+      this.control = control;
+      this.value = value;
+      submitted = System.nanoTime();
+      }
+
+   // nsec between queueing and reaching the plant
+   public final long getLatency() {
+      return applied - submitted;
+      }
+
+   public final int getAppliedTime() {
+      return appliedTime;
+      }
+
+   }
@@ -0,0 +1,19 @@
+// OperatorPolicy.class  This class defines the operator that drives an
+//                       Engine when there is nobody at the interface
+//                       (batch runs).  apply() is called before every
+//                       step, with the simulated time of that step.
+//
+//    See ScriptedPolicy for the script format.
+//
+
+interface OperatorPolicy {
+
+   public String getName();
+
+   public void apply(Engine engine, int t);
+
+   // the time of the first action after t (Integer.MAX_VALUE if none)
+   public int getNextTime(int t);
+
+   }
+
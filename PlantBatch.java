@@ -0,0 +1,677 @@
+// PlantBatch.class  This class steps many plants of one PlantModel together,
+//                   each with its own state and controls.  The plants are
+//                   kept in blocks of BLOCK, and a block by column
+//                   (quantity q of the plant in place j of block b at
+//                   (b*SIZE + q)*BLOCK + j), so a block's state fits in
+//                   the first level cache.  A step is one pass over each
+//                   block, plant by plant, with every parameter, fault
+//                   check and the choice of Euler or exponential lags
+//                   worked out once per block before it; each column is
+//                   read once per step.  The operations are those of
+//                   PlantModel.step(), so the results are the same bit
+//                   for bit.
+//
+//    All running plants are at the same time after step() and run().
+//    run(steps) is step() steps times, but takes each block through all
+//    of them before it goes on to the next, so the block stays in the
+//    cache; when there are too many plants for the cache, step() by step()
+//    reads the whole batch from memory each time.  What the batch saves
+//    is the work that is the same for every plant, above all the
+//    exponential fractions (an expm1 per component and step one by one);
+//    with Euler lags each plant still takes the same arithmetic as in
+//    PlantModel, and the batch is about as fast as stepping the plants one
+//    by one.  Plants that end are moved behind the running ones of their
+//    block, so a pass only ever looks at running plants; plants are
+//    always addressed by their own number (0 .. size()-1), not by where
+//    they are kept.
+//
+//    Usage:  java PlantBatch [-plants n] [-minutes m] [-exact] scenario.cf
+//
+//    runs n plants of the scenario, each under its own fixed controls,
+//    once one by one with PlantModel.step(), once here with step() and
+//    once with run(), and prints the plant steps per second of each and
+//    whether their states agree.
+//
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+final class PlantBatch {
+
+   public final static int BLOCK = 32;         // plants per block
+   private final static int SIZE = PlantModel.SIZE;
+   private final static int CONTROLS = PlantModel.CONTROLS;
+   private final static int LAGS = PlantModel.LAGS;
+   private final static double NEVER = PlantModel.NEVER;
+   private final PlantModel model;
+   private final int size;
+   private final int blocks;
+   private final double[] state;
+   private final double[] controls;
+   // the plant kept in each place (-1: none), and the place of each plant
+   private final int[] plants;
+   private final int[] slots;
+   private final int[] running;                // per block
+   private int total;
+   // worked out before each block is stepped
+   private final double[] settings = new double[LAGS*BLOCK];
+   private final double[] lagMultiplier = new double[LAGS];
+   private final double[] lagDivisor = new double[LAGS];
+   private final double[] pumpMultiplier = new double[2];
+   private final double[] pumpDivisor = new double[2];
+   private final double[] heaterMultiplier = new double[2];
+   private final double[] heaterDivisor = new double[2];
+   private int factorsDt = -1;
+   private final boolean[] pumpBroken = new boolean[2];
+   private final boolean[] heaterBroken = new boolean[2];
+   private final boolean[] leak = new boolean[2];
+   private final double[] addInFlow = new double[2];
+   private final double[] addOutFlow = new double[2];
+   private final double[] addInEnergy = new double[2];
+
+   public PlantBatch(PlantModel model, int size) {
+      this.model = model;
+      this.size = size;
+      blocks = (size + BLOCK - 1)/BLOCK;
+      state = new double[blocks*SIZE*BLOCK];
+      controls = new double[blocks*CONTROLS*BLOCK];
+      plants = new int[blocks*BLOCK];
+      slots = new int[size];
+      running = new int[blocks];
+      initialize();
+      }
+
+   public final PlantModel getModel() {
+      return model;
+      }
+
+   public final int size() {
+      return size;
+      }
+
+   // the number of plants still running
+   public final int getRunning() {
+      return total;
+      }
+
+   // puts every plant as the Engine starts it, under the scenario's controls
+   public final void initialize() {
+      double[] s = new double[SIZE];
+      double[] c = new double[CONTROLS];
+      model.initialize(s);
+      model.initializeControls(c);
+      Arrays.fill(plants, -1);
+      for(int i=0; i<size; i++) {
+         plants[i] = slots[i] = i;
+         int b = i/BLOCK, j = i%BLOCK;
+         for(int q=0; q<SIZE; q++)
+            state[(b*SIZE+q)*BLOCK+j] = s[q];
+         for(int q=0; q<CONTROLS; q++)
+            controls[(b*CONTROLS+q)*BLOCK+j] = c[q];
+         }
+      for(int b=0; b<blocks; b++)
+         running[b] = Math.min(BLOCK, size - b*BLOCK);
+      total = size;
+      }
+
+   // copies the state of plant (SIZE doubles) in or out; a running state
+   // must be at the time of the other running plants
+   public final void setState(int plant, double[] s) {
+      int slot = slots[plant];
+      int b = slot/BLOCK, j = slot%BLOCK;
+      boolean wasRunning = j < running[b];
+      if(s[PlantModel.STATUS] == Engine.RUNNING && total > (wasRunning ? 1 : 0)) {
+         double t = getTime(plant);
+         if(s[PlantModel.T] != t)
+            throw new IllegalArgumentException("plant " + plant + " is at " + s[PlantModel.T] + ", the batch at " + t);
+         }
+      for(int q=0; q<SIZE; q++)
+         state[(b*SIZE+q)*BLOCK+j] = s[q];
+      // keep the running plants in front
+      if(s[PlantModel.STATUS] == Engine.RUNNING && !wasRunning) {
+         swap(b, j, running[b]++);
+         total++;
+         }
+      else if(s[PlantModel.STATUS] != Engine.RUNNING && wasRunning) {
+         swap(b, j, --running[b]);
+         total--;
+         }
+      }
+
+   // the time of the running plants other than plant
+   private double getTime(int plant) {
+      for(int b=0; b<blocks; b++)
+         for(int j=0; j<running[b]; j++)
+            if(plants[b*BLOCK+j] != plant)
+               return state[(b*SIZE+PlantModel.T)*BLOCK+j];
+      return NEVER;
+      }
+
+   public final void getState(int plant, double[] s) {
+      int slot = slots[plant];
+      int b = slot/BLOCK, j = slot%BLOCK;
+      for(int q=0; q<SIZE; q++)
+         s[q] = state[(b*SIZE+q)*BLOCK+j];
+      }
+
+   // copies the controls of plant (CONTROLS doubles) in or out
+   public final void setControls(int plant, double[] c) {
+      int slot = slots[plant];
+      int b = slot/BLOCK, j = slot%BLOCK;
+      for(int q=0; q<CONTROLS; q++)
+         controls[(b*CONTROLS+q)*BLOCK+j] = c[q];
+      }
+
+   public final void getControls(int plant, double[] c) {
+      int slot = slots[plant];
+      int b = slot/BLOCK, j = slot%BLOCK;
+      for(int q=0; q<CONTROLS; q++)
+         c[q] = controls[(b*CONTROLS+q)*BLOCK+j];
+      }
+
+   public final void setControl(int plant, int control, double value) {
+      int slot = slots[plant];
+      controls[(slot/BLOCK*CONTROLS+control)*BLOCK+slot%BLOCK] = value;
+      }
+
+   // quantity q (a PlantModel state index) of plant
+   public final double get(int plant, int q) {
+      int slot = slots[plant];
+      return state[(slot/BLOCK*SIZE+q)*BLOCK+slot%BLOCK];
+      }
+
+   public final int step() {
+      return step(model.getInterval());
+      }
+
+   // advances every running plant by dt msec, as PlantModel.step() does;
+   // returns the number still running
+   public final int step(int dt) {
+      for(int b=0; b<blocks; b++)
+         if(running[b] > 0)
+            stepBlock(b, dt);
+      return total;
+      }
+
+   // step() steps times (or until every plant has ended), a block at a
+   // time; returns the number still running
+   public final int run(int steps) {
+      int dt = model.getInterval();
+      for(int b=0; b<blocks; b++)
+         for(int k=0; k<steps && running[b] > 0; k++)
+            stepBlock(b, dt);
+      return total;
+      }
+
+   // exchanges the plants in places i and j of block b
+   private void swap(int b, int i, int j) {
+      if(i == j)
+         return;
+      for(int q=b*SIZE*BLOCK, end=q+SIZE*BLOCK; q<end; q+=BLOCK) {
+         double x = state[q+i];
+         state[q+i] = state[q+j];
+         state[q+j] = x;
+         }
+      for(int q=b*CONTROLS*BLOCK, end=q+CONTROLS*BLOCK; q<end; q+=BLOCK) {
+         double x = controls[q+i];
+         controls[q+i] = controls[q+j];
+         controls[q+j] = x;
+         }
+      int plant = plants[b*BLOCK+i];
+      plants[b*BLOCK+i] = plants[b*BLOCK+j];
+      plants[b*BLOCK+j] = plant;
+      if(plants[b*BLOCK+i] >= 0)
+         slots[plants[b*BLOCK+i]] = b*BLOCK+i;
+      if(plant >= 0)
+         slots[plant] = b*BLOCK+j;
+      }
+
+   // a first-order step is opening + (setting-opening)*multiplier/divisor:
+   // dt/timeConstant for Euler (the order PlantModel multiplies and
+   // divides in), the exact fraction over 1 for exponential lags, so the
+   // loops need not ask which
+   private void setFactors(int dt) {
+      if(dt == factorsDt)
+         return;
+      boolean exponential = model.exponential;
+      for(int c=0; c<LAGS; c++) {
+         lagMultiplier[c] = exponential ? LagFactor.fraction(dt, model.timeConstant[c]) : dt;
+         lagDivisor[c] = exponential ? 1 : model.timeConstant[c];
+         }
+      for(int k=0; k<2; k++) {
+         pumpMultiplier[k] = exponential ? LagFactor.fraction(dt, model.pumpTimeConstant[k]) : dt;
+         pumpDivisor[k] = exponential ? 1 : model.pumpTimeConstant[k];
+         }
+      for(int r=0; r<2; r++) {
+         double timeConstant = model.heaters[r].timeConstant;
+         heaterMultiplier[r] = exponential ? LagFactor.fraction(dt, timeConstant) : dt;
+         heaterDivisor[r] = exponential ? 1 : timeConstant;
+         }
+      factorsDt = dt;
+      }
+
+   // the settings the first-order components of block b head for this
+   // step: the fault setting, the scenario's or the operator's
+   private void setSettings(int b, int n, double t) {
+      PlantModel m = model;
+      for(int c=0; c<LAGS; c++) {
+         double setting;
+         if(m.fault2Time[c] != NEVER && m.fault2Time[c] <= t)
+            setting = m.fault2Setting[c];
+         else if(m.fault1Time[c] != NEVER && m.fault1Time[c] <= t)
+            setting = m.fault1Setting[c];
+         else if(c >= PlantModel.HH0)
+            setting = m.setting[c];
+         else {
+            // valves take the operator's setting
+            System.arraycopy(controls, (b*CONTROLS+c)*BLOCK, settings, c*BLOCK, n);
+            continue;
+            }
+         Arrays.fill(settings, c*BLOCK, c*BLOCK + n, setting);
+         }
+      }
+
+   // the pump, heater and reservoir faults at time t
+   private void setFaults(double t) {
+      PlantModel m = model;
+      for(int k=0; k<2; k++)
+         pumpBroken[k] = m.pumpFaultTime[k] != NEVER && m.pumpFaultTime[k] <= t;
+      for(int r=0; r<2; r++) {
+         Scenario.HeaterSpec h = m.heaters[r];
+         heaterBroken[r] = h.faultTime != Simulator.NEVER && h.faultTime <= t;
+         Scenario.ReservoirSpec p = m.reservoirs[r];
+         addInFlow[r] = addOutFlow[r] = addInEnergy[r] = 0;
+         leak[r] = false;
+         // check for leaks or extra inflow (configuration fault)
+         if(p.additionalInflowTime != Simulator.NEVER && p.additionalInflowTime <= t)
+            if(p.additionalInflow > 0) {
+               addInFlow[r] = p.additionalInflow;
+               addInEnergy[r] = addInFlow[r]*p.specificHeat*p.additionalInflowTemperature;
+               }
+            else {
+               addOutFlow[r] = -p.additionalInflow;
+               leak[r] = true;
+               }
+         }
+      }
+
+   // PlantModel.step() for the running plants of block b
+   private void stepBlock(int b, int dt) {
+      double[] state = this.state;
+      double[] controls = this.controls;
+      double[] settings = this.settings;
+      PlantModel m = model;
+      final int W = BLOCK;
+      int n = running[b];
+      int base = b*SIZE*W, controlBase = b*CONTROLS*W;
+      double t = state[base+PlantModel.T*W];
+      setFactors(dt);
+      setSettings(b, n, t);
+      setFaults(t);
+      // columns
+      int opening = base + PlantModel.OPENING*W;
+      int flow = base + PlantModel.FLOW*W, temperature = base + PlantModel.TEMPERATURE*W;
+      int pumpFlow = base + PlantModel.PUMP_FLOW*W, pumpTemperature = base + PlantModel.PUMP_TEMPERATURE*W;
+      int pumpMaximum = base + PlantModel.PUMP_MAXIMUM*W, pumpTimeLeft = base + PlantModel.PUMP_TIME_LEFT*W;
+      int splitterFlow = base + PlantModel.SPLITTER_FLOW*W;
+      int splitterTemperature = base + PlantModel.SPLITTER_TEMPERATURE*W;
+      int mixerFlow = base + PlantModel.MIXER_FLOW*W, mixerTemperature = base + PlantModel.MIXER_TEMPERATURE*W;
+      int heaterOpening = base + PlantModel.HEATER_OPENING*W, heatFlow = base + PlantModel.HEAT_FLOW*W;
+      int status = base + PlantModel.STATUS*W, cause = base + PlantModel.CAUSE*W;
+      int steadyTime = base + PlantModel.STEADY_TIME*W, steadyStart = base + PlantModel.STEADY_START*W;
+      int time = base + PlantModel.T*W;
+      int pumpControl = controlBase + PlantModel.PA*W, heaterControl = controlBase + PlantModel.H1*W;
+      // parameters and faults, which depend on the time only
+      double[] maximum = m.maximum;
+      double[] lagMultiplier = this.lagMultiplier, lagDivisor = this.lagDivisor;
+      double[] splitterMaximum = m.splitterMaximum;
+      boolean[] pumpBroken = this.pumpBroken, heaterBroken = this.heaterBroken, leak = this.leak;
+      double[] addInFlow = this.addInFlow, addOutFlow = this.addOutFlow, addInEnergy = this.addInEnergy;
+      boolean steadyCheck = m.steadyCheckTime != NEVER;
+      double steadyLimit = m.steadyLimit;
+      double demandMargin = m.demandMargin, temperatureMargin = m.temperatureMargin;
+      int ended = 0;
+      for(int j=0; j<n; j++) {
+         // hidden heaters, demands and the valves of both strings
+         for(int c=PlantModel.HH0; c<LAGS; c++) {
+            int q = opening + c*W + j;
+            double o = state[q] < maximum[c] ? state[q] : maximum[c];
+            o = 0 > o ? 0 : o;
+            state[q] = o + (settings[c*W+j]-o)*lagMultiplier[c]/lagDivisor[c];
+            }
+         for(int c=PlantModel.VA; c<=PlantModel.VB2; c++) {
+            int q = opening + c*W + j;
+            double o = state[q] < maximum[c] ? state[q] : maximum[c];
+            o = 0 > o ? 0 : o;
+            state[q] = o + (settings[c*W+j]-o)*lagMultiplier[c]/lagDivisor[c];
+            }
+         // feedwater strings 'A' and 'B': pump, valve, splitter and the two
+         // valves after it
+         double hidden = state[opening+PlantModel.HH0*W+j];
+         for(int k=0; k<2; k++) {
+            int v = PlantModel.VA + 3*k;
+            double o1 = state[opening+(v+1)*W+j], o2 = state[opening+(v+2)*W+j];
+            double pipeFlow = o1 + o2;
+            pipeFlow = splitterMaximum[k] < pipeFlow ? splitterMaximum[k] : pipeFlow;
+            pipeFlow = state[opening+v*W+j] < pipeFlow ? state[opening+v*W+j] : pipeFlow;
+            // pump
+            boolean on = controls[pumpControl+k*W+j] != 0 && !pumpBroken[k];
+            double f = state[pumpFlow+k*W+j];
+            double maximumFlow = state[pumpMaximum+k*W+j];
+            double timeLeft = state[pumpTimeLeft+k*W+j];
+            double maxFlow = on ? (maximumFlow < pipeFlow ? maximumFlow : pipeFlow) : 0;
+            double currentFlow = f < maxFlow ? f : maxFlow;
+            currentFlow = 0 > currentFlow ? 0 : currentFlow;
+            currentFlow += (maxFlow-currentFlow)*pumpMultiplier[k]/pumpDivisor[k];
+            f = currentFlow;
+            // check to see if pump should blow-up
+            if(on && f < m.pumpMinimumFlow[k])
+               if(timeLeft == NEVER)
+                  timeLeft = m.pumpBreakTime[k];
+               else if(timeLeft <= 0)
+                  maximumFlow = 0;
+               else
+                  timeLeft -= dt;
+            else
+               timeLeft = NEVER;
+            double temp = f > 0 ? hidden : 0;
+            state[pumpFlow+k*W+j] = f;
+            state[pumpTemperature+k*W+j] = temp;
+            state[pumpMaximum+k*W+j] = maximumFlow;
+            state[pumpTimeLeft+k*W+j] = timeLeft;
+            // valve
+            f = f >= 0 ? f : 0;
+            temp = f > 0 ? temp : 0;
+            state[flow+v*W+j] = f;
+            state[temperature+v*W+j] = temp;
+            // splitter
+            double flow1, flow2;
+            if(o1 + o2 > 0) {
+               flow1 = f*o1/(o1+o2);
+               flow2 = f - flow1;
+               }
+            else {
+               flow1 = 0;
+               flow2 = 0;
+               }
+            double temperature1 = flow1 > 0 ? temp : 0;
+            state[splitterFlow+2*k*W+j] = flow1;
+            state[splitterFlow+(2*k+1)*W+j] = flow2;
+            state[splitterTemperature+2*k*W+j] = temperature1;
+            state[splitterTemperature+(2*k+1)*W+j] = temp;
+            // the valves after it
+            flow1 = flow1 >= 0 ? flow1 : 0;
+            flow2 = flow2 >= 0 ? flow2 : 0;
+            state[flow+(v+1)*W+j] = flow1;
+            state[temperature+(v+1)*W+j] = flow1 > 0 ? temperature1 : 0;
+            state[flow+(v+2)*W+j] = flow2;
+            state[temperature+(v+2)*W+j] = flow2 > 0 ? temp : 0;
+            }
+         // check to see if pumps are broken
+         if(state[pumpMaximum+j] == 0 || state[pumpMaximum+W+j] == 0) {
+            state[status+j] = Engine.TERMINATED_ERROR;
+            state[cause+j] = state[pumpMaximum+j] == 0 ? PlantModel.CAUSE_PA : PlantModel.CAUSE_PB;
+            ended++;
+            continue;
+            }
+         for(int r=0; r<2; r++) {
+            // mixers '1' and '2'
+            double a = state[flow+(PlantModel.VA1+r)*W+j], c = state[flow+(PlantModel.VB1+r)*W+j];
+            double f = a + c;
+            state[mixerFlow+r*W+j] = f;
+            state[mixerTemperature+r*W+j] = f > 0 ? (a*state[temperature+(PlantModel.VA1+r)*W+j]+c*state[temperature+(PlantModel.VB1+r)*W+j])/f : 0;
+            // visible heaters 'H1' and 'H2'
+            Scenario.HeaterSpec h = m.heaters[r];
+            double localSetting = controls[heaterControl+r*W+j];
+            if(heaterBroken[r])
+               localSetting = localSetting*h.faultPercentage/100;
+            double o = state[heaterOpening+r*W+j] < h.maximumHeatFlow ? state[heaterOpening+r*W+j] : h.maximumHeatFlow;
+            o = 0 > o ? 0 : o;
+            o += (localSetting - o)*heaterMultiplier[r]/heaterDivisor[r];
+            state[heaterOpening+r*W+j] = o;
+            state[heatFlow+r*W+j] = h.maximumHeatFlow*o/h.maximumSetting;
+            }
+         // reservoir outflow valves
+         for(int c=PlantModel.VO1; c<=PlantModel.VO2; c++) {
+            int q = opening + c*W + j;
+            double o = state[q] < maximum[c] ? state[q] : maximum[c];
+            o = 0 > o ? 0 : o;
+            state[q] = o + (settings[c*W+j]-o)*lagMultiplier[c]/lagDivisor[c];
+            }
+         // reservoirs
+         int error = reservoir(base, j, 0, dt, addInFlow[0], addOutFlow[0], addInEnergy[0], leak[0]);
+         if(error == 0)
+            error = reservoir(base, j, 1, dt, addInFlow[1], addOutFlow[1], addInEnergy[1], leak[1]);
+         if(error != 0) {
+            state[status+j] = Engine.TERMINATED_ERROR;
+            state[cause+j] = PlantModel.CAUSE_R1 + error - 1;
+            ended++;
+            continue;
+            }
+         // scores and steady state time
+         boolean within = true;
+         for(int r=0; r<2; r++) {
+            double f = state[flow+(PlantModel.VO1+r)*W+j];
+            double temp = state[temperature+(PlantModel.VO1+r)*W+j];
+            double demand = state[opening+(PlantModel.D1+r)*W+j];
+            double demandTemperature = m.reservoirs[r].demandTemperature;
+            int score = base + PlantModel.SCORE*W + j;
+            // low temperature
+            if(temp < demandTemperature - temperatureMargin)
+               state[score] += f*dt/1000;
+            // high temperature
+            else if(temp > demandTemperature + temperatureMargin)
+               state[score+6*W] += f*dt/1000;
+            // good temperature and low flow
+            else if(f < demand - demandMargin)
+               state[score+3*W] += f*dt/1000;
+            // good temperature and high flow
+            else if(f > demand + demandMargin) {
+               state[score+4*W] += (demand + demandMargin)*dt/1000;
+               state[score+5*W] += (f - demand - demandMargin)*dt/1000;
+               }
+            // good temperature and good flow
+            else
+               state[score+4*W] += f*dt/1000;
+            within = within && f >= demand - demandMargin && f <= demand + demandMargin &&
+                     temp >= demandTemperature - temperatureMargin &&
+                     temp <= demandTemperature + temperatureMargin;
+            }
+         if(within) {
+            if(state[steadyTime+j] == 0)
+               state[steadyStart+j] = t;
+            state[steadyTime+j] += dt;
+            }
+         else
+            state[steadyTime+j] = 0;
+         if(steadyCheck && state[steadyTime+j] >= steadyLimit) {
+            state[status+j] = Engine.TERMINATED_STEADY;
+            state[cause+j] = PlantModel.CAUSE_STEADY;
+            ended++;
+            continue;
+            }
+         state[time+j] = t + dt;
+         }
+      // move the plants that ended behind the running ones
+      for(int j=0; ended > 0 && j<n; )
+         if(state[status+j] != Engine.RUNNING) {
+            swap(b, j, --n);
+            ended--;
+            total--;
+            }
+         else
+            j++;
+      running[b] = n;
+      }
+
+   // PlantModel.reservoir() for reservoir r of the plant in place j;
+   // returns 1 + r if it ended in an error, else 0
+   private int reservoir(int base, int j, int r, int dt,
+                         double addInFlow, double addOutFlow, double addInEnergy, boolean leak) {
+      double[] state = this.state;
+      final int W = BLOCK;
+      Scenario.ReservoirSpec p = model.reservoirs[r];
+      int mixer = base + (PlantModel.MIXER_FLOW+r)*W + j;
+      int mixerTemperature = base + (PlantModel.MIXER_TEMPERATURE+r)*W + j;
+      int valve = base + (PlantModel.OPENING+PlantModel.VO1+r)*W + j;
+      double massFlowIn = state[mixer];
+      double temperatureIn = massFlowIn > 0.00005 ? state[mixerTemperature] : 0;
+      double massFlowOut = state[valve] >= 0 ? state[valve] : 0;
+      double heaterEnergyIn = state[base+(PlantModel.HEAT_FLOW+r)*W+j];
+      double hiddenHeaterEnergyIn = state[base+(PlantModel.HIDDEN+1+r)*W+j];
+      int levels = base + (PlantModel.LEVEL+r)*W + j, energies = base + (PlantModel.ENERGY+r)*W + j;
+      int temperatures = base + (PlantModel.RESERVOIR_TEMPERATURE+r)*W + j;
+      int errors = base + (PlantModel.ERROR+r)*W + j, faultTimes = base + (PlantModel.FAULT_TIME_LEFT+r)*W + j;
+      double level = state[levels];
+      double energy = state[energies];
+      double temperature = state[temperatures];
+      double error = state[errors];
+      double faultTimeLeft = state[faultTimes];
+      double addOutEnergy = leak ? addOutFlow*p.specificHeat*temperature : 0;
+      double energyDerivative, tmp;
+      // adjust massflow and volume
+      if(level == 0 && massFlowIn + addInFlow < massFlowOut + addOutFlow) {
+         massFlowOut = massFlowIn+addInFlow-addOutFlow;
+         if(massFlowOut < 0)
+            massFlowOut = 0;
+         }
+      if(level >= 0 && level <= p.maximumLevel)
+         level += (massFlowIn+addInFlow-massFlowOut-addOutFlow)*dt/1000/p.tankArea/p.density;
+      if(level > p.maximumLevel && error == 0)
+         error = Reservoir.ERROR_OVERFLOW;
+      level = level < p.maximumLevel ? level : p.maximumLevel;
+      level = 0 > level ? 0 : level;
+      // energy calculations
+      double energyIn = massFlowIn*p.specificHeat*temperatureIn;
+      double energyOut = massFlowOut*p.specificHeat*temperature;
+      if(energy >= 0 && energy <= p.maximumEnergy)
+         energyDerivative = (energyIn+heaterEnergyIn+hiddenHeaterEnergyIn-energyOut+addInEnergy-addOutEnergy)*dt/1000;
+      else
+         energyDerivative = 0;
+      energy += energyDerivative;
+      if(energy < 0)
+         energy = 0;
+      if(level == 0)
+         energy = 0;
+      // temperature calculations
+      tmp = level*p.tankArea*p.density*p.specificHeat;
+      if(tmp != 0)
+         temperature = energy/tmp;
+      else
+         temperature = temperatureIn;
+      if(temperature > p.boilingTemperature && level > p.minimumLevel && error == 0)
+         error = Reservoir.ERROR_BOIL;
+      if(temperature < 0)
+         temperature = 0;
+      // check for overheat error
+      if(heaterEnergyIn > p.minimumEnergyInflow && level < p.minimumLevel)
+         if(faultTimeLeft == NEVER)
+            faultTimeLeft = p.blowUpTime;
+         else if(faultTimeLeft <= 0) {
+            if(error == 0)
+               error = Reservoir.ERROR_OVERHEAT;
+            }
+         else
+            faultTimeLeft -= dt;
+      state[base+(PlantModel.FLOW+PlantModel.VO1+r)*W+j] = massFlowOut;
+      state[base+(PlantModel.TEMPERATURE+PlantModel.VO1+r)*W+j] = massFlowOut > 0 ? temperature : 0;
+      state[levels] = level;
+      state[energies] = energy;
+      state[temperatures] = temperature;
+      state[base+(PlantModel.FLOW_IN+r)*W+j] = massFlowIn;
+      state[base+(PlantModel.TEMPERATURE_IN+r)*W+j] = temperatureIn;
+      state[base+(PlantModel.ENERGY_IN+r)*W+j] = energyIn;
+      state[base+(PlantModel.ENERGY_OUT+r)*W+j] = energyOut;
+      state[base+(PlantModel.HEATER_ENERGY_IN+r)*W+j] = heaterEnergyIn;
+      state[base+(PlantModel.HIDDEN_ENERGY_IN+r)*W+j] = hiddenHeaterEnergyIn;
+      state[errors] = error;
+      state[faultTimes] = faultTimeLeft;
+      return error != 0 ? 1 + r : 0;
+      }
+
+   public static void main(String[] args) {
+      int plants = 64;
+      double minutes = 10;
+      int integration = Engine.EULER;
+      File file = null;
+      try {
+         for(int i=0; i<args.length; i++) {
+            if(args[i].equals("-plants"))
+               plants = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-minutes"))
+               minutes = Double.parseDouble(args[++i]);
+            else if(args[i].equals("-exact"))
+               integration = Engine.EXPONENTIAL;
+            else
+               file = new File(args[i]);
+            }
+         if(file == null || plants <= 0) {
+            System.out.println("usage: java PlantBatch [-plants n] [-minutes m] [-exact] scenario.cf");
+            System.exit(1);
+            }
+         PlantModel model = new PlantModel(Scenario.load(file), integration);
+         int steps = (int)(minutes*60*1000/model.getInterval());
+         // every plant gets its own settings, some of which end the run early
+         double[][] controls = new double[plants][PlantModel.CONTROLS];
+         Random random = new Random(1);
+         for(int i=0; i<plants; i++) {
+            model.initializeControls(controls[i]);
+            for(int v=PlantModel.VA; v<=PlantModel.VO2; v++)
+               controls[i][v] = random.nextDouble()*model.maximum[v];
+            controls[i][PlantModel.H1] *= 2*random.nextDouble();
+            controls[i][PlantModel.H2] *= 2*random.nextDouble();
+            }
+         double[][] states = new double[plants][PlantModel.SIZE];
+         PlantBatch batch = new PlantBatch(model, plants);
+         PlantBatch blocked = new PlantBatch(model, plants);
+         long singleTime = Long.MAX_VALUE, batchTime = Long.MAX_VALUE, runTime = Long.MAX_VALUE, done = 0;
+         for(int round=0; round<5; round++) {
+            long start = System.nanoTime();
+            done = 0;
+            for(int i=0; i<plants; i++) {
+               model.initialize(states[i]);
+               for(int j=0; j<steps && states[i][PlantModel.STATUS] == Engine.RUNNING; j++) {
+                  model.step(states[i], controls[i], model.getInterval());
+                  done++;
+                  }
+               }
+            singleTime = Math.min(singleTime, System.nanoTime() - start);
+            start = System.nanoTime();
+            batch.initialize();
+            for(int i=0; i<plants; i++)
+               batch.setControls(i, controls[i]);
+            for(int j=0; j<steps && batch.getRunning() > 0; j++)
+               batch.step();
+            batchTime = Math.min(batchTime, System.nanoTime() - start);
+            start = System.nanoTime();
+            blocked.initialize();
+            for(int i=0; i<plants; i++)
+               blocked.setControls(i, controls[i]);
+            blocked.run(steps);
+            runTime = Math.min(runTime, System.nanoTime() - start);
+            }
+         int different = 0;
+         double[] s = new double[PlantModel.SIZE], r = new double[PlantModel.SIZE];
+         for(int i=0; i<plants; i++) {
+            batch.getState(i, s);
+            blocked.getState(i, r);
+            for(int q=0; q<PlantModel.SIZE; q++)
+               if(Double.doubleToRawLongBits(s[q]) != Double.doubleToRawLongBits(states[i][q]) ||
+                  Double.doubleToRawLongBits(r[q]) != Double.doubleToRawLongBits(states[i][q])) {
+                  different++;
+                  break;
+                  }
+            }
+         System.out.println(plants + " plants, " + done + " plant steps");
+         System.out.printf("one by one  %8.2f million plant steps/s%n", done*1e3/singleTime);
+         System.out.printf("step()      %8.2f million plant steps/s%n", done*1e3/batchTime);
+         System.out.printf("run()       %8.2f million plant steps/s%n", done*1e3/runTime);
+         System.out.println(different == 0 ? "states identical" : different + " plants differ");
+         }
+      catch(Exception e) {
+         System.out.println("Error: " + e);
+         }
+      }
+
+   }
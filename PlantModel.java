@@ -0,0 +1,564 @@
+// PlantModel.class  This class is the plant of a Scenario reduced to
+//                   arithmetic on arrays: its whole state at one time is a
+//                   single double[] with the fixed layout below, the
+//                   operator's controls are another, and step() advances
+//                   the first under the second.  It runs the equations of
+//                   Engine.calculate() (and of the Pump, Valve, Splitter,
+//                   Mixer, Heater, HiddenHeater, Demand and Reservoir
+//                   methods it calls) with the same floating point
+//                   operations, so a state stepped here stays bit for bit
+//                   equal to the Engine's components.  Nothing is
+//                   allocated and nothing is drawn or logged; a state is
+//                   copied with System.arraycopy.
+//
+//    One PlantModel holds the (read-only) parameters of one Scenario and
+//    can step any number of states at the same time; PlantBatch steps many
+//    of them together with the same parameters.
+//
+//    The state is laid out by quantity, not by component: all valve
+//    openings together, then all valve flows, and so on, each indexed by
+//    the component (VA .. VO2 for valves, 0/1 for the 'A'/'B' pumps and
+//    the two reservoirs).  The first-order components (the valves, the
+//    hidden heaters and the demands) share one set of parameter arrays,
+//    indexed as OPENING.
+//
+//       T, STATUS (Engine.RUNNING ...), CAUSE (CAUSE_*), STEADY_TIME, STEADY_START
+//       OPENING + v     valve v opening (VA .. VO2), then HIDDEN + i (hidden
+//                       heater HH0..HH2 output) and DEMAND + r (demand of
+//                       reservoir r)
+//       FLOW + v, TEMPERATURE + v   outflow of valve v (VO1/VO2: of the reservoirs)
+//       PUMP_FLOW + k, PUMP_TEMPERATURE + k, PUMP_MAXIMUM + k, PUMP_TIME_LEFT + k
+//       SPLITTER_FLOW + 2*k + port, SPLITTER_TEMPERATURE + 2*k + port
+//       MIXER_FLOW + r, MIXER_TEMPERATURE + r
+//       HEATER_OPENING + r, HEAT_FLOW + r
+//       LEVEL + r ... FAULT_TIME_LEFT + r   reservoir r
+//       SCORE + 3*row + column
+//
+//    Controls (CONTROLS doubles): the settings of VA .. VO2 (the valve
+//    indices), H1, H2, and PA, PB (0: off).
+//
+//    The first-order components are integrated as the Engine's are under
+//    the same Engine.EULER or Engine.EXPONENTIAL mode; the exponential
+//    response is worked out for each step, since dt may differ from one
+//    step to the next (see AdaptiveSolver).
+//
+
+import java.util.Arrays;
+
+final class PlantModel {
+
+   // controls, and the valve index in the state
+   public final static int VA = 0;
+   public final static int VA1 = 1;
+   public final static int VA2 = 2;
+   public final static int VB = 3;
+   public final static int VB1 = 4;
+   public final static int VB2 = 5;
+   public final static int VO1 = 6;
+   public final static int VO2 = 7;
+   public final static int H1 = 8;
+   public final static int H2 = 9;
+   public final static int PA = 10;
+   public final static int PB = 11;
+   public final static int CONTROLS = 12;
+   private final static String[] CONTROL_NAMES = {"VA", "VA1", "VA2", "VB", "VB1", "VB2",
+                                                  "VO1", "VO2", "H1", "H2", "PA", "PB"};
+   // state
+   public final static int T = 0;
+   public final static int STATUS = 1;
+   public final static int CAUSE = 2;
+   public final static int STEADY_TIME = 3;
+   public final static int STEADY_START = 4;
+   public final static int OPENING = 5;
+   public final static int HIDDEN = OPENING + 8;
+   public final static int DEMAND = HIDDEN + 3;
+   public final static int FLOW = DEMAND + 2;
+   public final static int TEMPERATURE = FLOW + 8;
+   public final static int PUMP_FLOW = TEMPERATURE + 8;
+   public final static int PUMP_TEMPERATURE = PUMP_FLOW + 2;
+   public final static int PUMP_MAXIMUM = PUMP_TEMPERATURE + 2;
+   public final static int PUMP_TIME_LEFT = PUMP_MAXIMUM + 2;
+   public final static int SPLITTER_FLOW = PUMP_TIME_LEFT + 2;
+   public final static int SPLITTER_TEMPERATURE = SPLITTER_FLOW + 4;
+   public final static int MIXER_FLOW = SPLITTER_TEMPERATURE + 4;
+   public final static int MIXER_TEMPERATURE = MIXER_FLOW + 2;
+   public final static int HEATER_OPENING = MIXER_TEMPERATURE + 2;
+   public final static int HEAT_FLOW = HEATER_OPENING + 2;
+   public final static int LEVEL = HEAT_FLOW + 2;
+   public final static int ENERGY = LEVEL + 2;
+   public final static int RESERVOIR_TEMPERATURE = ENERGY + 2;
+   public final static int FLOW_IN = RESERVOIR_TEMPERATURE + 2;
+   public final static int TEMPERATURE_IN = FLOW_IN + 2;
+   public final static int ENERGY_IN = TEMPERATURE_IN + 2;
+   public final static int ENERGY_OUT = ENERGY_IN + 2;
+   public final static int HEATER_ENERGY_IN = ENERGY_OUT + 2;
+   public final static int HIDDEN_ENERGY_IN = HEATER_ENERGY_IN + 2;
+   public final static int ERROR = HIDDEN_ENERGY_IN + 2;          // Reservoir.ERROR_*
+   public final static int FAULT_TIME_LEFT = ERROR + 2;
+   public final static int SCORE = FAULT_TIME_LEFT + 2;
+   public final static int SIZE = SCORE + 9;
+   // what ended the run
+   public final static int CAUSE_NONE = 0;
+   public final static int CAUSE_PA = 1;
+   public final static int CAUSE_PB = 2;
+   public final static int CAUSE_R1 = 3;
+   public final static int CAUSE_R2 = 4;
+   public final static int CAUSE_STEADY = 5;
+   final static int HH0 = 8;
+   final static int HH1 = 9;
+   final static int HH2 = 10;
+   final static int D1 = 11;
+   final static int D2 = 12;
+   final static int LAGS = 13;
+   final static double NEVER = Simulator.NEVER;
+   private final Scenario scenario;
+   // first-order components, indexed as OPENING
+   final double[] maximum = new double[LAGS];
+   final double[] setting = new double[LAGS];
+   final double[] timeConstant = new double[LAGS];
+   final double[] fault1Setting = new double[LAGS];
+   final double[] fault1Time = new double[LAGS];
+   final double[] fault2Setting = new double[LAGS];
+   final double[] fault2Time = new double[LAGS];
+   final double[] initialOutput = new double[LAGS];
+   // pumps and splitters
+   final double[] pumpMaximumFlow = new double[2];
+   final double[] pumpMinimumFlow = new double[2];
+   final double[] pumpTimeConstant = new double[2];
+   final double[] pumpFaultTime = new double[2];
+   final double[] pumpBreakTime = new double[2];
+   final double[] splitterMaximum = new double[2];
+   // heaters and reservoirs
+   final Scenario.HeaterSpec[] heaters;
+   final Scenario.ReservoirSpec[] reservoirs;
+   final double steadyLimit;
+   final double steadyCheckTime;
+   final double temperatureMargin;
+   final double demandMargin;
+   final boolean exponential;
+
+   public PlantModel(Scenario s) {
+      this(s, Engine.EULER);
+      }
+
+   public PlantModel(Scenario s, int integration) {
+      scenario = s;
+      exponential = integration == Engine.EXPONENTIAL;
+      Scenario.ValveSpec[] lags = {s.VA, s.VA1, s.VA2, s.VB, s.VB1, s.VB2, s.VO1, s.VO2,
+                          s.HH0, s.HH1, s.HH2, s.DC1, s.DC2};
+      for(int c=0; c<LAGS; c++) {
+         maximum[c] = lags[c].maximum;
+         setting[c] = lags[c].initialSetting;
+         timeConstant[c] = lags[c].timeConstant;
+         fault1Setting[c] = lags[c].fault1Setting;
+         fault1Time[c] = lags[c].fault1Time;
+         fault2Setting[c] = lags[c].fault2Setting;
+         fault2Time[c] = lags[c].fault2Time;
+         initialOutput[c] = lags[c].initialOutput;
+         }
+      // the outflow valves are limited by their reservoir, not by their own maximum
+      maximum[VO1] = s.R1.maximumOutflow;
+      maximum[VO2] = s.R2.maximumOutflow;
+      Scenario.PumpSpec[] pumps = {s.PA, s.PB};
+      for(int k=0; k<2; k++) {
+         pumpMaximumFlow[k] = pumps[k].maximumFlow;
+         pumpMinimumFlow[k] = pumps[k].minimumFlow;
+         pumpTimeConstant[k] = pumps[k].timeConstant;
+         pumpFaultTime[k] = pumps[k].faultTime;
+         pumpBreakTime[k] = pumps[k].breakTime;
+         }
+      splitterMaximum[0] = s.SA;
+      splitterMaximum[1] = s.SB;
+      heaters = new Scenario.HeaterSpec[] {s.H1, s.H2};
+      reservoirs = new Scenario.ReservoirSpec[] {s.R1, s.R2};
+      steadyLimit = s.steadyLimit;
+      steadyCheckTime = s.steadyCheckTime;
+      temperatureMargin = s.temperatureMargin;
+      demandMargin = s.demandMargin;
+      }
+
+   // the controls index of an operator control name (see Engine.setControl)
+   public static int getControlIndex(String name) {
+      for(int i=0; i<CONTROLS; i++)
+         if(CONTROL_NAMES[i].equals(name))
+            return i;
+      throw new IllegalArgumentException("unknown control " + name);
+      }
+
+   public final Scenario getScenario() {
+      return scenario;
+      }
+
+   public final int getInterval() {
+      return scenario.interval;
+      }
+
+   public final int getIntegration() {
+      return exponential ? Engine.EXPONENTIAL : Engine.EULER;
+      }
+
+   // puts the plant as the Engine starts it into state (SIZE doubles)
+   public final void initialize(double[] state) {
+      Arrays.fill(state, 0, SIZE, 0);
+      state[STEADY_START] = NEVER;
+      for(int c=0; c<LAGS; c++)
+         state[OPENING+c] = initialOutput[c];
+      for(int v=0; v<8; v++)
+         state[FLOW+v] = initialOutput[v];
+      for(int k=0; k<2; k++) {
+         state[PUMP_MAXIMUM+k] = pumpMaximumFlow[k];
+         state[PUMP_TIME_LEFT+k] = NEVER;
+         }
+      for(int r=0; r<2; r++) {
+         state[HEATER_OPENING+r] = heaters[r].initialOutput;
+         state[HEAT_FLOW+r] = heaters[r].initialOutput;
+         state[LEVEL+r] = reservoirs[r].initialLevel;
+         state[ENERGY+r] = reservoirs[r].initialEnergy;
+         }
+      }
+
+   // puts the controls as the scenario sets them into controls (CONTROLS doubles)
+   public final void initializeControls(double[] controls) {
+      for(int v=0; v<8; v++)
+         controls[v] = setting[v];
+      controls[H1] = heaters[0].initialSetting;
+      controls[H2] = heaters[1].initialSetting;
+      controls[PA] = scenario.PA.initialState ? 1 : 0;
+      controls[PB] = scenario.PB.initialState ? 1 : 0;
+      }
+
+   // advances state by dt msec under controls, as Engine.step() does
+   // after applying its commands; returns the new STATUS.  A state that
+   // has ended is left as it is.
+   public final int step(double[] state, double[] controls, int dt) {
+      if(state[STATUS] != Engine.RUNNING)
+         return (int)state[STATUS];
+      double t = state[T];
+      // hidden heaters and demand
+      lag(state, HH0, setting[HH0], t, dt);
+      lag(state, HH1, setting[HH1], t, dt);
+      lag(state, HH2, setting[HH2], t, dt);
+      lag(state, D1, setting[D1], t, dt);
+      lag(state, D2, setting[D2], t, dt);
+      // feedwater strings 'A' and 'B' (one call per component, not a loop:
+      // each fault check then keeps a branch of its own)
+      lag(state, VA1, controls[VA1], t, dt);
+      lag(state, VA2, controls[VA2], t, dt);
+      lag(state, VA, controls[VA], t, dt);
+      stream(state, controls, 0, t, dt);
+      lag(state, VB1, controls[VB1], t, dt);
+      lag(state, VB2, controls[VB2], t, dt);
+      lag(state, VB, controls[VB], t, dt);
+      stream(state, controls, 1, t, dt);
+      // check to see if pumps are broken
+      if(state[PUMP_MAXIMUM] == 0)
+         return terminate(state, Engine.TERMINATED_ERROR, CAUSE_PA);
+      if(state[PUMP_MAXIMUM+1] == 0)
+         return terminate(state, Engine.TERMINATED_ERROR, CAUSE_PB);
+      for(int r=0; r<2; r++) {
+         // mixers '1' and '2'
+         double a = state[FLOW+VA1+r], b = state[FLOW+VB1+r];
+         double flow = a + b;
+         state[MIXER_FLOW+r] = flow;
+         state[MIXER_TEMPERATURE+r] = flow > 0 ? (a*state[TEMPERATURE+VA1+r]+b*state[TEMPERATURE+VB1+r])/flow : 0;
+         // visible heaters 'H1' and 'H2'
+         heater(state, controls[H1+r], r, t, dt);
+         }
+      // reservoir outflow valves
+      lag(state, VO1, controls[VO1], t, dt);
+      lag(state, VO2, controls[VO2], t, dt);
+      // reservoirs
+      reservoir(state, 0, t, dt);
+      if(state[ERROR] != 0)
+         return terminate(state, Engine.TERMINATED_ERROR, CAUSE_R1);
+      reservoir(state, 1, t, dt);
+      if(state[ERROR+1] != 0)
+         return terminate(state, Engine.TERMINATED_ERROR, CAUSE_R2);
+      // scores and steady state time
+      score(state, 0, dt);
+      score(state, 1, dt);
+      if(isWithinMargins(state, 0) && isWithinMargins(state, 1)) {
+         if(state[STEADY_TIME] == 0)
+            state[STEADY_START] = t;
+         state[STEADY_TIME] += dt;
+         }
+      else
+         state[STEADY_TIME] = 0;
+      if(steadyCheckTime != NEVER && state[STEADY_TIME] >= steadyLimit)
+         return terminate(state, Engine.TERMINATED_STEADY, CAUSE_STEADY);
+      state[T] = t + dt;
+      return Engine.RUNNING;
+      }
+
+   // Valve.calculateResistance, HiddenHeater.checkForFault and
+   // Demand.calculateDemand: the output of first-order component c
+   private void lag(double[] state, int c, double localSetting, double t, int dt) {
+      // check to see if it is in one of the fault modes
+      if(fault2Time[c] != NEVER && fault2Time[c] <= t)
+         localSetting = fault2Setting[c];
+      else if(fault1Time[c] != NEVER && fault1Time[c] <= t)
+         localSetting = fault1Setting[c];
+      double opening = Flow.max(0, Flow.min(state[OPENING+c], maximum[c]));
+      if(exponential)
+         state[OPENING+c] = opening + (localSetting-opening)*LagFactor.fraction(dt, timeConstant[c]);
+      else
+         state[OPENING+c] = opening + (localSetting-opening)*dt/timeConstant[c];
+      }
+
+   // one feedwater string: pump, valve, splitter and the two valves after it
+   private void stream(double[] state, double[] controls, int k, double t, int dt) {
+      int v = VA + 3*k;
+      double o1 = state[OPENING+v+1], o2 = state[OPENING+v+2];
+      double pipeFlow = Flow.min(state[OPENING+v], Flow.min(splitterMaximum[k], o1 + o2));
+      double flow = pump(state, controls[PA+k] != 0, k, pipeFlow, t, dt);
+      double temperature = state[PUMP_TEMPERATURE+k];
+      // valve
+      flow = flow >= 0 ? flow : 0;
+      temperature = flowTemperature(flow, temperature);
+      state[FLOW+v] = flow;
+      state[TEMPERATURE+v] = temperature;
+      // splitter
+      double flow1, flow2;
+      if(o1 + o2 > 0) {
+         flow1 = flow*o1/(o1+o2);
+         flow2 = flow - flow1;
+         }
+      else {
+         flow1 = 0;
+         flow2 = 0;
+         }
+      double temperature1 = flowTemperature(flow1, temperature);
+      state[SPLITTER_FLOW+2*k] = flow1;
+      state[SPLITTER_FLOW+2*k+1] = flow2;
+      state[SPLITTER_TEMPERATURE+2*k] = temperature1;
+      state[SPLITTER_TEMPERATURE+2*k+1] = temperature;
+      // the valves after it
+      flow1 = flow1 >= 0 ? flow1 : 0;
+      flow2 = flow2 >= 0 ? flow2 : 0;
+      state[FLOW+v+1] = flow1;
+      state[TEMPERATURE+v+1] = flowTemperature(flow1, temperature1);
+      state[FLOW+v+2] = flow2;
+      state[TEMPERATURE+v+2] = flowTemperature(flow2, temperature);
+      }
+
+   // Pump.setMassFlowOut and setTemperatureOut; returns the new mass flow
+   private double pump(double[] state, boolean on, int k, double pipeFlow, double t, int dt) {
+      double flow = state[PUMP_FLOW+k];
+      double maximumFlow = state[PUMP_MAXIMUM+k];
+      double timeLeft = state[PUMP_TIME_LEFT+k];
+      double maxFlow, currentFlow;
+      // check to see if pump is broken
+      if(pumpFaultTime[k] != NEVER && pumpFaultTime[k] <= t)
+         on = false;
+      if(on)
+         maxFlow = Flow.min(maximumFlow, pipeFlow);
+      else
+         maxFlow = 0;
+      currentFlow = Flow.max(0, Flow.min(flow, maxFlow));
+      if(exponential)
+         currentFlow += (maxFlow-currentFlow)*LagFactor.fraction(dt, pumpTimeConstant[k]);
+      else
+         currentFlow += (maxFlow-currentFlow)*dt/pumpTimeConstant[k];
+      flow = currentFlow;
+      // check to see if pump should blow-up
+      if(on && flow < pumpMinimumFlow[k])
+         if(timeLeft == NEVER)
+            timeLeft = pumpBreakTime[k];
+         else if(timeLeft <= 0)
+            maximumFlow = 0;
+         else
+            timeLeft -= dt;
+      else
+         timeLeft = NEVER;
+      state[PUMP_FLOW+k] = flow;
+      state[PUMP_TEMPERATURE+k] = flowTemperature(flow, state[HIDDEN]);
+      state[PUMP_MAXIMUM+k] = maximumFlow;
+      state[PUMP_TIME_LEFT+k] = timeLeft;
+      return flow;
+      }
+
+   // Flow.setTemperatureOut: no flow, no temperature
+   private static double flowTemperature(double flow, double temperature) {
+      return flow > 0 ? temperature : 0;
+      }
+
+   // Heater.setHeatFlowOut
+   private void heater(double[] state, double localSetting, int r, double t, int dt) {
+      Scenario.HeaterSpec h = heaters[r];
+      // is heater broken?
+      if(h.faultTime != Simulator.NEVER && h.faultTime <= t)
+         localSetting = localSetting*h.faultPercentage/100;
+      double opening = Flow.max(0, Flow.min(state[HEATER_OPENING+r], h.maximumHeatFlow));
+      if(exponential)
+         opening += (localSetting - opening)*LagFactor.fraction(dt, h.timeConstant);
+      else if(opening >= 0 || opening <= h.maximumHeatFlow)
+         opening += (localSetting - opening)*dt/(double)h.timeConstant;
+      state[HEATER_OPENING+r] = opening;
+      state[HEAT_FLOW+r] = h.maximumHeatFlow*opening/h.maximumSetting;
+      }
+
+   // Reservoir.setMassFlowIn ... calculateReservoir
+   private void reservoir(double[] state, int r, double t, int dt) {
+      Scenario.ReservoirSpec p = reservoirs[r];
+      double addInFlow, addOutFlow, addInEnergy, addOutEnergy, tmp, energyDerivative;
+      double massFlowIn = state[MIXER_FLOW+r];
+      double temperatureIn = massFlowIn > 0.00005 ? state[MIXER_TEMPERATURE+r] : 0;
+      double massFlowOut = state[OPENING+VO1+r] >= 0 ? state[OPENING+VO1+r] : 0;
+      double heaterEnergyIn = state[HEAT_FLOW+r];
+      double hiddenHeaterEnergyIn = state[HIDDEN+1+r];
+      double level = state[LEVEL+r];
+      double energy = state[ENERGY+r];
+      double temperature = state[RESERVOIR_TEMPERATURE+r];
+      double error = state[ERROR+r];
+      double faultTimeLeft = state[FAULT_TIME_LEFT+r];
+      // check for leaks or extra inflow (configuration fault)
+      if(p.additionalInflowTime != Simulator.NEVER && p.additionalInflowTime <= t)
+         if(p.additionalInflow > 0) {
+            addInFlow = p.additionalInflow;
+            addOutFlow = 0;
+            addInEnergy = addInFlow*p.specificHeat*p.additionalInflowTemperature;
+            addOutEnergy = 0;
+            }
+         else {
+            addInFlow = 0;
+            addOutFlow = -p.additionalInflow;
+            addInEnergy = 0;
+            addOutEnergy = addOutFlow*p.specificHeat*temperature;
+            }
+      else {
+         addInFlow = addOutFlow = 0;
+         addInEnergy = addOutEnergy = 0;
+         }
+      // adjust massflow and volume
+      if(level == 0 && massFlowIn + addInFlow < massFlowOut + addOutFlow) {
+         massFlowOut = massFlowIn+addInFlow-addOutFlow;
+         if(massFlowOut < 0)
+            massFlowOut = 0;
+         }
+      if(level >= 0 && level <= p.maximumLevel)
+         level += (massFlowIn+addInFlow-massFlowOut-addOutFlow)*dt/1000/p.tankArea/p.density;
+      if(level > p.maximumLevel && error == 0)
+         error = Reservoir.ERROR_OVERFLOW;
+      level = Flow.max(0, Flow.min(level, p.maximumLevel));
+      // energy calculations
+      double energyIn = massFlowIn*p.specificHeat*temperatureIn;
+      double energyOut = massFlowOut*p.specificHeat*temperature;
+      if(energy >= 0 && energy <= p.maximumEnergy)
+         energyDerivative = (energyIn+heaterEnergyIn+hiddenHeaterEnergyIn-energyOut+addInEnergy-addOutEnergy)*dt/1000;
+      else
+         energyDerivative = 0;
+      energy += energyDerivative;
+      if(energy < 0)
+         energy = 0;
+      if(level == 0)
+         energy = 0;
+      // temperature calculations
+      tmp = level*p.tankArea*p.density*p.specificHeat;
+      if(tmp != 0)
+         temperature = energy/tmp;
+      else
+         temperature = temperatureIn;
+      if(temperature > p.boilingTemperature && level > p.minimumLevel && error == 0)
+         error = Reservoir.ERROR_BOIL;
+      if(temperature < 0)
+         temperature = 0;
+      // check for overheat error
+      if(heaterEnergyIn > p.minimumEnergyInflow && level < p.minimumLevel)
+         if(faultTimeLeft == NEVER)
+            faultTimeLeft = p.blowUpTime;
+         else if(faultTimeLeft <= 0) {
+            if(error == 0)
+               error = Reservoir.ERROR_OVERHEAT;
+            }
+         else
+            faultTimeLeft -= dt;
+      state[FLOW+VO1+r] = massFlowOut;
+      state[TEMPERATURE+VO1+r] = flowTemperature(massFlowOut, temperature);
+      state[LEVEL+r] = level;
+      state[ENERGY+r] = energy;
+      state[RESERVOIR_TEMPERATURE+r] = temperature;
+      state[FLOW_IN+r] = massFlowIn;
+      state[TEMPERATURE_IN+r] = temperatureIn;
+      state[ENERGY_IN+r] = energyIn;
+      state[ENERGY_OUT+r] = energyOut;
+      state[HEATER_ENERGY_IN+r] = heaterEnergyIn;
+      state[HIDDEN_ENERGY_IN+r] = hiddenHeaterEnergyIn;
+      state[ERROR+r] = error;
+      state[FAULT_TIME_LEFT+r] = faultTimeLeft;
+      }
+
+   // Engine.updateScore
+   private void score(double[] state, int r, int dt) {
+      double flow = state[FLOW+VO1+r];
+      double temperature = state[TEMPERATURE+VO1+r];
+      double demand = state[DEMAND+r];
+      double demandTemperature = reservoirs[r].demandTemperature;
+      // low temperature
+      if(temperature < demandTemperature - temperatureMargin)
+         state[SCORE] += flow*dt/1000;
+      // high temperature
+      else if(temperature > demandTemperature + temperatureMargin)
+         state[SCORE+6] += flow*dt/1000;
+      // good temperature and low flow
+      else if(flow < demand - demandMargin)
+         state[SCORE+3] += flow*dt/1000;
+      // good temperature and high flow
+      else if(flow > demand + demandMargin) {
+         state[SCORE+4] += (demand + demandMargin)*dt/1000;
+         state[SCORE+5] += (flow - demand - demandMargin)*dt/1000;
+         }
+      // good temperature and good flow
+      else
+         state[SCORE+4] += flow*dt/1000;
+      }
+
+   private boolean isWithinMargins(double[] state, int r) {
+      double flow = state[FLOW+VO1+r];
+      double temperature = state[TEMPERATURE+VO1+r];
+      double demand = state[DEMAND+r];
+      double demandTemperature = reservoirs[r].demandTemperature;
+      return flow >= demand - demandMargin &&
+             flow <= demand + demandMargin &&
+             temperature >= demandTemperature - temperatureMargin &&
+             temperature <= demandTemperature + temperatureMargin;
+      }
+
+   private static int terminate(double[] state, int status, int cause) {
+      state[STATUS] = status;
+      state[CAUSE] = cause;
+      return status;
+      }
+
+   // the message Engine.getTerminationMessage() gives for the same ending
+   // (null while running)
+   public final String getTerminationMessage(double[] state) {
+      switch((int)state[CAUSE]) {
+         case CAUSE_PA:
+            return scenario.PA.name + " blew up because valves were closed.";
+         case CAUSE_PB:
+            return scenario.PB.name + " blew up because valves were closed.";
+         case CAUSE_R1:
+         case CAUSE_R2:
+            int r = (int)state[CAUSE] - CAUSE_R1;
+            String name = r == 0 ? "Reservoir 1" : "Reservoir 2";
+            if(state[ERROR+r] == Reservoir.ERROR_BOIL)
+               return "The water in " + name + " reached boiling point.";
+            else if(state[ERROR+r] == Reservoir.ERROR_OVERHEAT)
+               return name + " was heated empty.";
+            return name + " overflowed.";
+         case CAUSE_STEADY:
+            return Engine.STEADY_MESSAGE;
+         }
+      return null;
+      }
+
+   // time at which the current steady-state period began (NEVER if not steady)
+   public static int getSteadyStartTime(double[] state) {
+      return state[STEADY_TIME] > 0 ? (int)state[STEADY_START] : Simulator.NEVER;
+      }
+
+   public static double getScore(double[] state, int row, int column) {
+      return state[SCORE+3*row+column];
+      }
+
+   }
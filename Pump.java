@@ -27,12 +27,13 @@
 
 import java.awt.*;
 import java.awt.event.*;
+import java.io.*;
 
-public final class Pump extends Flow {
+public final class Pump extends Flow implements FaultTarget {
     
    public final static boolean OFF = false;
    public final static boolean ON = true;
-   boolean pumpState;  
+   volatile boolean pumpState;  
    // either ON=1 or OFF=0  **Signe: modified to boolean
    private double minimumMassFlow;     // minimum mass flow allowed while pump is ON
    private double maximumPipeFlow;    // maximum allowable flow upstream from pump
@@ -40,21 +41,29 @@ public final class Pump extends Flow {
    private int faultTime;            // time at which pump breaks
    private int breakTime;           // time to blow-up if flow is constricted
    private int timeLeft;           // (countdown timer) time counter for blow-up
+   private LagFactor exact;        // null: Euler integration
+   private boolean broken;         // the pump's fault has set in
    private PumpCanvas pumpCanvas;
+   private Session session;
    
   // private KillSwitchPumpCanvas killSwitchPumpCanvas;
 //   public DuressJ_new duressj_new = new DuressJ_new();
 
-   public Pump(String name, boolean initState, double min, double max,
+   public Pump(Session session, String name, boolean initState, double min, double max,
                double tC, int faultT, int breakT) {
       super(name, max);
+      this.session = session;
       pumpState = initState;
       minimumMassFlow = min;
       timeConstant = tC;
       faultTime = faultT;
       breakTime = breakT;
       timeLeft = Simulator.NEVER;
-      pumpCanvas = new PumpCanvas(getName(), pumpState);
+      }
+
+   public final void createDisplay() {
+      super.createDisplay();
+      pumpCanvas = new PumpCanvas(session, getName(), pumpState);
       //killSwitchPumpCanvas = new  KillSwitchPumpCanvas(getName(), pumpState);
       pumpCanvas.addMouseListener(new MouseAdapter() {
                                      public void mouseClicked(MouseEvent event) {
@@ -64,14 +73,8 @@ public final class Pump extends Flow {
 //                                    		 System.out.println("I am inside Main PA button action and pumpstate is = " + pumpState);
                                     	 
                                     		 
-                                         if(pumpState == OFF)
-                                             setPumpState(ON);
-                                         else
-                                             setPumpState(OFF);
-
-                                         //Signe: added logging
-                                         if(Simulator.log_started)
-                                            Simulator.log.updatePump(pumpState, getName());
+                                         // switched (and logged) by the Engine at the next step
+                                         session.submit(getName(), pumpState == OFF ? 1 : 0);
                                     	 }
                                     	
                                     	 
@@ -80,7 +83,7 @@ public final class Pump extends Flow {
 
    public final void setPumpState(boolean newState) {
 //	   System.out.println("I am inside setPumpState and killswitch is :: " + DuressJ_new.killswitchstate);
-	   if (!DuressJ_new.killswitchstate) {
+	   if (!session.isKillSwitchOn()) {
 		   pumpState = newState;
 		   }
 	   else {
@@ -95,9 +98,50 @@ public final class Pump extends Flow {
 			   
 		   }		   
 	   }
-      pumpCanvas.setPumpState(pumpState);
+      if(pumpCanvas != null)
+         pumpCanvas.setPumpState(pumpState);
+      }
 
-      
+   // the scenario's fault
+   public final void scheduleFaults(FaultTimeline timeline) {
+      timeline.schedule(faultTime, this, 1, 0);
+      }
+
+   // the pump breaks down for good
+   public final void fault(int slot, double value) {
+      broken = true;
+      }
+
+   // Engine.EULER or Engine.EXPONENTIAL
+   public final void setIntegration(int mode) {
+      exact = mode == Engine.EXPONENTIAL ? new LagFactor(timeConstant) : null;
+      }
+
+   // true if the flow is within epsilon (a fraction of the maximum) of the
+   // flow the pump is heading for and no blow-up is counting down
+   public final boolean isSettled(double epsilon) {
+      double maxFlow = pumpState == ON && !broken ? min(getMaximumMassFlowOut(), maximumPipeFlow) : 0;
+      return timeLeft == Simulator.NEVER && getMassFlowOut() >= 0 &&
+             getMassFlowOut() <= getMaximumMassFlowOut() &&
+             Math.abs(maxFlow - getMassFlowOut()) <= epsilon*getMaximumMassFlowOut();
+      }
+
+   public final void save(DataOutput out) throws IOException {
+      super.save(out);
+      out.writeBoolean(pumpState);
+      out.writeDouble(maximumPipeFlow);
+      out.writeInt(timeLeft);
+      out.writeBoolean(broken);
+      }
+
+   public final void restore(DataInput in) throws IOException {
+      super.restore(in);
+      pumpState = in.readBoolean();
+      maximumPipeFlow = in.readDouble();
+      timeLeft = in.readInt();
+      broken = in.readBoolean();
+      if(pumpCanvas != null)
+         pumpCanvas.setPumpState(pumpState);
       }
 
    public final void setMaximumPipeFlow(double valveOpen, double splitterFlow) {
@@ -109,7 +153,7 @@ public final class Pump extends Flow {
       double maxFlow, currentFlow;
 
       // check to see if pump is broken
-      if(faultTime != Simulator.NEVER && faultTime <= t) {
+      if(broken) {
         // setMaximumMassFlowOut(0);  Signe: trying to fix...
          localState = OFF;
          }
@@ -122,9 +166,11 @@ public final class Pump extends Flow {
 
       // calculate massFlowOut
          currentFlow = max(0, min(getMassFlowOut(), maxFlow));
-      // add the derivative
-      if(getMassFlowOut() >= 0 || getMassFlowOut() <= getMaximumMassFlowOut())
-         currentFlow += (maxFlow-getMassFlowOut())*dt/timeConstant;
+      // add the derivative, from the clamped flow in either form
+      if(exact != null)
+         currentFlow += (maxFlow-currentFlow)*exact.get(dt);
+      else
+         currentFlow += (maxFlow-currentFlow)*dt/timeConstant;
       super.setMassFlowOut(currentFlow);
 
       // check to see if pump should blow-up
@@ -152,14 +198,16 @@ public final class Pump extends Flow {
 
 final class PumpCanvas extends Canvas {
 
+   private Session session;
    private String name;
    private boolean pumpState;
    private boolean pumpDisplay;
 
-   public PumpCanvas(String name, boolean initState) {
+   public PumpCanvas(Session session, String name, boolean initState) {
+      this.session = session;
       this.name = name;
       pumpState = initState;
-      pumpDisplay = DuressJ_new.pumpDisplay;
+      pumpDisplay = session.getPumpDisplay();
       }
 
    public void paint(Graphics g) {
@@ -170,7 +218,7 @@ final class PumpCanvas extends Canvas {
       g.drawString(name, x/7, y*14/18);
       g.drawLine(0, y*16/18, x, y*16/18);
 //      System.out.println("I am inside Main paint and killswitchstate is = " + DuressJ_new.killswitchstate);
-      if (DuressJ_new.killswitchstate) {
+      if (session.isKillSwitchOn()) {
     	  if(pumpDisplay) {
 		         g.fillOval(0, y*15/18, x*4/7, y*3/18);
 		         g.fillRect(x*2/7, y*15/18, x*3/7, y*3/36);
@@ -208,7 +256,7 @@ final class PumpCanvas extends Canvas {
    public final void setPumpState(boolean newState) {
 //	   System.out.println("I am inside second setPumpState and killswitch is :: " + DuressJ_new.killswitchstate);
       if(newState != pumpState){
-    	  if (!DuressJ_new.killswitchstate) {
+    	  if (!session.isKillSwitchOn()) {
    		   pumpState = newState;
    	   }
          
@@ -29,6 +29,7 @@
 //
 
 import java.awt.*;
+import java.io.*;
 import javax.swing.*;
 import javax.swing.border.*;
 import javax.swing.event.*;
@@ -38,7 +39,9 @@ public final class Reservoir extends Valve {
    public static final int ERROR_BOIL = 1;
    public static final int ERROR_OVERHEAT = 2;
    public static final int ERROR_OVERFLOW = 3;
+   public static final int ADDITIONAL_INFLOW = -1;   // fault slot of the leak or extra inflow
    private int error;
+   private String controlName;         // of the outflow valve: VO1, VO2
    private double maximumMassFlowIn;
    private double waterLevel;
    private double minimumWaterLevel;
@@ -59,6 +62,7 @@ public final class Reservoir extends Valve {
    private double reservoirFaultMassFlow;
    private double reservoirFaultTemperature;
    private int reservoirFaultTime;
+   private boolean additionalInflow;   // the leak or extra inflow has set in
    private int breakTime;
    private double massFlowIn; // not specified in config. file (during simulation)
    private double temperatureIn; //                       "
@@ -68,6 +72,8 @@ public final class Reservoir extends Valve {
    private double temperature;   //                       "
    private double energyOut;           //                 "
    private int reservoirFaultTimeLeft; //                 "
+   private double heldPower;           // see hold()
+   private double heldLoss;
 
    private Demand demand;
    private SimpleReservoirCanvas simpleReservoirCanvas;
@@ -88,7 +94,8 @@ public final class Reservoir extends Valve {
    private TempDemandCanvas tempDemandCanvas;
    private FloatCanvas floatCanvas;
 
-   public Reservoir(String name, double maxFlowIn, double maxFlowOut, double initLevel,
+   public Reservoir(Session session, String name, String controlName,
+                    double maxFlowIn, double maxFlowOut, double initLevel,
                     double minLevel, double maxLevel,
                     double demMarg, double demTemp, double tempMarg, double maxTemp,
                     double minEnergyIn, double maxEnergyIn, double maxEnergyOut, double initEnergy,
@@ -99,7 +106,8 @@ public final class Reservoir extends Valve {
                     String demName, double maxDem, double initDemSet, double initDemOpen,
                     double dtC, double df1sp, int df1t, double df2sp, int df2t) {
       // outflow valve
-      super(name, maxFlowOut, initSet, initFlow, vtC, fsp1, ft1, fsp2, ft2);
+      super(session, name, maxFlowOut, initSet, initFlow, vtC, fsp1, ft1, fsp2, ft2);
+      this.controlName = controlName;
       maximumMassFlowIn = maxFlowIn;
       waterLevel = initLevel;
       minimumWaterLevel = minLevel;
@@ -124,11 +132,15 @@ public final class Reservoir extends Valve {
       // demand (modeled as a valve)
       demand = new Demand(demName, maxDem, initDemSet, initDemOpen,
                           dtC, df1sp, df1t, df2sp, df2t);
+      }
+
+   public final void createDisplay() {
+      super.createDisplay();
       simpleReservoirCanvas = new SimpleReservoirCanvas(waterLevel, maximumWaterLevel);
       flowReservoirCanvas = new FlowReservoirCanvas(waterLevel, maximumWaterLevel);
       heaterMapCanvas = new HeaterMapCanvas();
       complexReservoirCanvas = new
-         ComplexReservoirCanvas(massFlowIn, maximumMassFlowIn, waterLevel*tankArea, maxLevel*tankArea,
+         ComplexReservoirCanvas(massFlowIn, maximumMassFlowIn, waterLevel*tankArea, maximumWaterLevel*tankArea,
                                 getMassFlowOut(), getMaximumMassFlowOut(), demand.getFlow(), demandMargin,
                                 temperature, maximumTemperature, demandTemperature, demandTemperatureMargin,
                                 energyIn, heaterEnergyIn+hiddenHeaterEnergyIn, maximumEnergyIn,
@@ -137,7 +149,7 @@ public final class Reservoir extends Valve {
       reservoirSliderCanvas = new ReservoirSliderCanvas(this, (int)getMaximumMassFlowOut());
       reservoirSliderCanvas.setReservoirSlider((int)getValveSetting());
       principlesCanvas = new
-         PrinciplesCanvas(massFlowIn, maximumMassFlowIn, waterLevel*tankArea, maxLevel*tankArea,
+         PrinciplesCanvas(massFlowIn, maximumMassFlowIn, waterLevel*tankArea, maximumWaterLevel*tankArea,
                                 getMassFlowOut(), getMaximumMassFlowOut(),
                                 energyIn, heaterEnergyIn+hiddenHeaterEnergyIn, maximumEnergyIn,
                                 energy, maximumEnergy, energyOut, maximumEnergyOut, getName());
@@ -158,13 +170,37 @@ public final class Reservoir extends Valve {
          }
 
       horizonLabelCanvas = new HorizonLabelCanvas((int)getMaximumMassFlowOut());
-      demandCanvas = new DemandCanvas(getMassFlowOut(), maxFlowOut, demand.getFlow(), demandMargin);
+      demandCanvas = new DemandCanvas(getMassFlowOut(), getMaximumMassFlowOut(), demand.getFlow(), demandMargin);
       tempDemandCanvas = new TempDemandCanvas(getTemperatureOut(), maximumTemperature, demandTemperature, demandTemperatureMargin);
       floatCanvas = new FloatCanvas(getMassFlowOut(), getMaximumMassFlowOut(), demand.getFlow(), demandMargin);
       //Signe: changed to special label canvas, to move demand lines closer to meter
       valveLabelCanvas = new ValveSpecialLabelCanvas(getMaximumMassFlowOut(), demand.getFlow(), demandMargin);
     }
 
+   // the faults of the outflow valve, the demand and the reservoir itself
+   public final void scheduleFaults(FaultTimeline timeline) {
+      super.scheduleFaults(timeline);
+      demand.scheduleFaults(timeline);
+      timeline.schedule(reservoirFaultTime, this, ADDITIONAL_INFLOW, reservoirFaultMassFlow);
+      }
+
+   // ADDITIONAL_INFLOW: value kg/sec flows in from now on (out if negative);
+   // other slots are faults of the outflow valve
+   public final void fault(int slot, double value) {
+      if(slot == ADDITIONAL_INFLOW) {
+         additionalInflow = true;
+         reservoirFaultMassFlow = value;
+         }
+      else
+         super.fault(slot, value);
+      }
+
+   // the outflow valve and the demand
+   public final void setIntegration(int mode) {
+      super.setIntegration(mode);
+      demand.setIntegration(mode);
+      }
+
    public final void calculateDemand(int t, int dt) {
       demand.calculateDemand(t, dt);
       // update demand on meter
@@ -175,7 +211,7 @@ public final class Reservoir extends Valve {
       double addInFlow, addOutFlow, addInEnergy, addOutEnergy, tmp, energyDerivative;
 
       // check for leaks or extra inflow (configuration fault)
-      if(reservoirFaultTime != Simulator.NEVER && reservoirFaultTime <= t)
+      if(additionalInflow)
          if(reservoirFaultMassFlow > 0) {
             addInFlow = reservoirFaultMassFlow;
             addOutFlow = 0;
@@ -209,13 +245,9 @@ public final class Reservoir extends Valve {
          setError(ERROR_OVERFLOW);
       // calculate water level
       waterLevel = max(0, min(waterLevel, maximumWaterLevel));
-      // update simple reservoir display (physical & settings)
-      simpleReservoirCanvas.setWaterLevel(waterLevel);
       //Signe: update log file
-      if(Simulator.log_started)
-        Simulator.log.updateWaterLevel(waterLevel, super.getName());
-      // update flow reservoir display
-      flowReservoirCanvas.setWaterLevel(waterLevel);
+      if(getSession().isLogging())
+        getSession().getLog().updateWaterLevel(waterLevel, super.getName());
 
       // energy calculations
       energyIn = massFlowIn*waterHeatCapacity*temperatureIn;
@@ -247,7 +279,6 @@ public final class Reservoir extends Valve {
       if(temperature < 0)
          temperature = 0;
       setTemperatureOut(temperature);       //Note:  last minute fix  (be my guest)
-      temperatureMeterCanvas.setTemperatureSetting(temperature);
 
       // check for overheat error
       if(heaterEnergyIn > minimumEnergyIn && waterLevel < minimumWaterLevel)
@@ -257,7 +288,117 @@ public final class Reservoir extends Valve {
             setError(ERROR_OVERHEAT);
          else
             reservoirFaultTimeLeft -= dt;
+      }
+
+   // the outflow valve, the reservoir and the demand
+   public final void save(DataOutput out) throws IOException {
+      super.save(out);
+      out.writeInt(error);
+      out.writeDouble(waterLevel);
+      out.writeDouble(energy);
+      out.writeDouble(massFlowIn);
+      out.writeDouble(temperatureIn);
+      out.writeDouble(energyIn);
+      out.writeDouble(heaterEnergyIn);
+      out.writeDouble(hiddenHeaterEnergyIn);
+      out.writeDouble(temperature);
+      out.writeDouble(energyOut);
+      out.writeInt(reservoirFaultTimeLeft);
+      out.writeBoolean(additionalInflow);
+      out.writeDouble(reservoirFaultMassFlow);
+      demand.save(out);
+      }
+
+   public final void restore(DataInput in) throws IOException {
+      super.restore(in);
+      error = in.readInt();
+      waterLevel = in.readDouble();
+      energy = in.readDouble();
+      massFlowIn = in.readDouble();
+      temperatureIn = in.readDouble();
+      energyIn = in.readDouble();
+      heaterEnergyIn = in.readDouble();
+      hiddenHeaterEnergyIn = in.readDouble();
+      temperature = in.readDouble();
+      energyOut = in.readDouble();
+      reservoirFaultTimeLeft = in.readInt();
+      additionalInflow = in.readBoolean();
+      reservoirFaultMassFlow = in.readDouble();
+      demand.restore(in);
+      }
+
+   // the outflow valve and the demand
+   public final boolean isSettled(double epsilon) {
+      return super.isSettled(epsilon) && demand.isSettled(epsilon);
+      }
+
+   // true if, with every flow held where it is and the heater moving the
+   // fraction factor of the way to heat flow target each step of dt msec,
+   // the level stands still and the temperature stays within low .. high
+   // (and short of boiling) for good, so that skip() can jump ahead.  The
+   // energy after each step lies between the energy before it and the
+   // equilibrium for the heat flow of the step, which lies between the
+   // equilibria for the present heat flow and for target; the temperature
+   // never leaves the range of those three.
+   public final boolean canSkip(int dt, double target, double low, double high) {
+      if(waterLevel < minimumWaterLevel || !hold(dt) || heldLoss*dt/1000 > 1)
+         return false;
+      double capacity = waterLevel*tankArea*waterDensity*waterHeatCapacity;
+      double present = (heldPower + heaterEnergyIn)/heldLoss/capacity;
+      double last = (heldPower + target)/heldLoss/capacity;
+      double lowest = min(temperature, min(present, last));
+      double highest = max(temperature, max(present, last));
+      return lowest >= max(low, 0) && highest <= min(high, waterBoilingTemperature) &&
+             highest*capacity <= maximumEnergy;
+      }
+
+   // moves the reservoir as steps calls of calculateReservoir(t, dt) would,
+   // with the heater as canSkip() was told
+   public final void skip(int steps, int dt, double target, double factor) {
+      hold(dt);
+      double h = dt/1000.0;
+      double a = 1 - heldLoss*h;
+      double r = 1 - factor;
+      double an = Math.pow(a, steps);
+      double rn = Math.pow(r, steps);
+      double equilibrium = (heldPower + target)/heldLoss;
+      double distance = heaterEnergyIn - target;
+      // e(k) = a*e(k-1) + h*distance*r^k, e being energy - equilibrium
+      energy = equilibrium + an*(energy - equilibrium) +
+               (a != r ? h*distance*r*(an - rn)/(a - r) : h*distance*steps*rn);
+      heaterEnergyIn = target + distance*rn;
+      temperature = energy/(waterLevel*tankArea*waterDensity*waterHeatCapacity);
+      setTemperatureOut(temperature);
+      energyOut = getMassFlowOut()*waterHeatCapacity*temperature;
+      }
 
+   // sets heldPower (W in, the heater's aside) and heldLoss (the fraction
+   // of the energy that flows out per second) for the present flows, if
+   // a step of dt msec leaves the level where it is
+   private boolean hold(int dt) {
+      double addInFlow = 0, addOutFlow = 0, addInEnergy = 0;
+      if(additionalInflow)
+         if(reservoirFaultMassFlow > 0) {
+            addInFlow = reservoirFaultMassFlow;
+            addInEnergy = addInFlow*waterHeatCapacity*reservoirFaultTemperature;
+            }
+         else
+            addOutFlow = -reservoirFaultMassFlow;
+      if(waterLevel <= 0 || waterLevel > maximumWaterLevel ||
+         waterLevel + (massFlowIn+addInFlow-getMassFlowOut()-addOutFlow)*dt/1000/tankArea/waterDensity != waterLevel)
+         return false;
+      heldPower = massFlowIn*waterHeatCapacity*temperatureIn + hiddenHeaterEnergyIn + addInEnergy;
+      heldLoss = (getMassFlowOut() + addOutFlow)/(waterLevel*tankArea*waterDensity);
+      return heldLoss > 0;
+      }
+
+   public final void updateDisplay() {
+      super.updateDisplay();
+      // update simple reservoir display (physical & settings)
+      simpleReservoirCanvas.setWaterLevel(waterLevel);
+      // update flow reservoir display
+      flowReservoirCanvas.setWaterLevel(waterLevel);
+      temperatureMeterCanvas.setTemperatureSetting(temperature);
       // update complex reservoir display
       complexReservoirCanvas.setSettings(massFlowIn, waterLevel*tankArea, getMassFlowOut(),
                                          demand.getFlow(), temperature,
@@ -273,9 +414,14 @@ public final class Reservoir extends Valve {
 
       }
 
+   public final String getControlName() {
+      return controlName;
+      }
+
    public final void setSlider(double newValue) {
       super.setSlider(newValue);
-      reservoirSliderCanvas.setReservoirSlider((int)(newValue*10));
+      if(reservoirSliderCanvas != null)
+         reservoirSliderCanvas.setReservoirSlider((int)(newValue*10));
       }
 
    public final void setError(int errorType) {
@@ -310,10 +456,36 @@ public final class Reservoir extends Valve {
       return demand.getFlow();
       }
 
+   // the demand, as the fault timeline knows it
+   final FaultTarget getDemandTarget() {
+      return demand;
+      }
+
    public final double getDemandTemperature() {
       return demandTemperature;
       }
 
+   public final double getWaterLevel() {
+      return waterLevel;
+      }
+
+   public final double getMaximumWaterLevel() {
+      return maximumWaterLevel;
+      }
+
+   // of the water in the tank (getTemperatureOut() is 0 while nothing flows out)
+   public final double getTemperature() {
+      return temperature;
+      }
+
+   public final double getEnergy() {
+      return energy;
+      }
+
+   public final double getMaximumEnergy() {
+      return maximumEnergy;
+      }
+
    public final SimpleReservoirCanvas getSimpleReservoirCanvas() {
       return simpleReservoirCanvas;
       }
@@ -545,7 +717,7 @@ final class TempDemandCanvas extends Canvas {
 
 
 
-final class Demand {
+final class Demand implements FaultTarget {
 
    private String name;
    private double maximum;
@@ -556,6 +728,8 @@ final class Demand {
    private int fault1Time;
    private double fault2Setpoint;
    private int fault2Time;
+   private LagFactor exact;          // null: Euler integration
+   private int faultSlot;            // the fault the demand is in (0: none)
 
    public Demand(String name, double max, double initSet, double initOpen,
                  double tC, double f1sp, int f1t, double f2sp, int f2t) {
@@ -571,15 +745,49 @@ final class Demand {
       }
 
    public final void calculateDemand(int t, int dt) {
-      // check to see if demand is in one of the fault modes
-      if(fault2Time != Simulator.NEVER && fault2Time <= t)
-         setting = fault2Setpoint;
-      else if(fault1Time != Simulator.NEVER && fault1Time <= t)
-         setting = fault1Setpoint;
       // calculate opening
       flow = Flow.max(0, Flow.min(flow, maximum));
       // add the derivative
-      flow += (setting-flow)*dt/timeConstant;
+      if(exact != null)
+         flow += (setting-flow)*exact.get(dt);
+      else
+         flow += (setting-flow)*dt/timeConstant;
+      }
+
+   // the scenario's faults 1 and 2
+   public final void scheduleFaults(FaultTimeline timeline) {
+      timeline.schedule(fault1Time, this, 1, fault1Setpoint);
+      timeline.schedule(fault2Time, this, 2, fault2Setpoint);
+      }
+
+   // fixes the demand at setpoint, unless a fault of a higher slot has
+   public final void fault(int slot, double setpoint) {
+      if(slot >= faultSlot) {
+         faultSlot = slot;
+         setting = setpoint;
+         }
+      }
+
+   // Engine.EULER or Engine.EXPONENTIAL
+   public final void setIntegration(int mode) {
+      exact = mode == Engine.EXPONENTIAL ? new LagFactor(timeConstant) : null;
+      }
+
+   public final void save(DataOutput out) throws IOException {
+      out.writeDouble(setting);
+      out.writeDouble(flow);
+      out.writeInt(faultSlot);
+      }
+
+   public final void restore(DataInput in) throws IOException {
+      setting = in.readDouble();
+      flow = in.readDouble();
+      faultSlot = in.readInt();
+      }
+
+   // true if the flow is within epsilon (a fraction of the maximum) of the setting
+   public final boolean isSettled(double epsilon) {
+      return flow >= 0 && flow <= maximum && Math.abs(setting - flow) <= epsilon*maximum;
       }
 
    public final double getFlow() {
@@ -1062,7 +1270,7 @@ final class ReservoirSliderCanvas extends JPanel {
                                           JSlider source = (JSlider)event.getSource();
                                           if(!source.getValueIsAdjusting()) {
                                              //Signe: scale down values
-                                             parent.setValveSetting((double)(source.getValue()/10.0));
+                                             parent.getSession().submit(parent.getControlName(), (double)(source.getValue()/10.0));
                                              parent.setSlider((double)(source.getValue()/10.0));
                                              }
                                           }
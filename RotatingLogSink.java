@@ -0,0 +1,76 @@
+// RotatingLogSink.class  This class is the LogSink that cuts a trial log
+//                        into parts.
+//
+
+import java.io.*;
+
+// Cuts a log into parts (see LogStream) on the LogWriter's thread: before
+// a row that would go into a part that has grown past partSize bytes on
+// the disk, or that began partTime msec of simulated time before it (0:
+// no limit), what the sink holds is flushed and the stream goes on to the
+// next part.  The row is marked first, so a binary part starts with a
+// SYNC.  A compressed part reaches the disk a deflate block at a time, so
+// it may run past partSize by about one.
+final class RotatingLogSink implements LogSink {
+
+   private final LogSink sink;
+   private final LogStream stream;
+   private volatile long partSize;
+   private volatile int partTime;
+   private boolean started;
+   private int next;                      // time of the next part, if partTime
+
+   public RotatingLogSink(LogSink sink, LogStream stream) {
+      this.sink = sink;
+      this.stream = stream;
+      }
+
+   // bytes on the disk per part, 0: no limit
+   public final void setPartSize(long size) {
+      if(size < 0)
+         throw new IllegalArgumentException("part size must not be negative: " + size);
+      partSize = size;
+      }
+
+   // msec of simulated time per part, 0: no limit
+   public final void setPartTime(int time) {
+      if(time < 0)
+         throw new IllegalArgumentException("part time must not be negative: " + time);
+      partTime = time;
+      }
+
+   public final LogSink getSink() {
+      return sink;
+      }
+
+   public final void text(String line) throws IOException {
+      sink.text(line);
+      }
+
+   public final void row(int time, double[] settings, int offset, int pumps, int steadyTime) throws IOException {
+      long size = partSize;
+      int step = partTime;
+      if(started && ((size > 0 && stream.getPartSize() >= size) || (step > 0 && time >= next))) {
+         sink.mark();
+         sink.flush();
+         stream.rotate();
+         }
+      if(!started || (step > 0 && time >= next))
+         next = step > 0 ? time - time % step + step : 0;
+      started = true;
+      sink.row(time, settings, offset, pumps, steadyTime);
+      }
+
+   public final long mark() throws IOException {
+      return sink.mark();
+      }
+
+   public final void flush() throws IOException {
+      sink.flush();
+      }
+
+   public final void close() throws IOException {
+      sink.close();
+      }
+
+   }
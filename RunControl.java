@@ -0,0 +1,146 @@
+// RunControl.class  This class is the run state (RUNNING, PAUSED, STOPPED)
+//                   shared between the thread that drives an Engine and
+//                   the interface.  The simulation thread checks it at
+//                   every step boundary and while it waits for a step's
+//                   deadline, so a pause or stop takes effect within one
+//                   step instead of relying on Thread.suspend/resume/stop.
+//
+//    Work that must not overlap a step (e.g. a snapshot asked for from
+//    another thread) can be handed to whenIdle(); it runs under the lock
+//    while the simulation thread is paused in awaitRunning() or has
+//    finished, so it never waits for a step that may never come.
+//
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.*;
+
+final class RunControl {
+
+   public final static int RUNNING = 0;
+   public final static int PAUSED = 1;
+   public final static int STOPPED = 2;
+   private final ReentrantLock lock = new ReentrantLock();
+   private final Condition changed = lock.newCondition();
+   private int state = RUNNING;
+   private boolean idle;                  // the simulation thread is paused or finished
+   private final ArrayList<Runnable> idleTasks = new ArrayList<Runnable>();
+
+   public final void pause() {
+      setState(PAUSED);
+      }
+
+   public final void resume() {
+      setState(RUNNING);
+      }
+
+   public final void stop() {
+      setState(STOPPED);
+      }
+
+   private void setState(int newState) {
+      lock.lock();
+      try {
+         // a stopped run stays stopped
+         if(state != STOPPED) {
+            state = newState;
+            changed.signalAll();
+            }
+         }
+      finally {
+         lock.unlock();
+         }
+      }
+
+   public final int getState() {
+      lock.lock();
+      try {
+         return state;
+         }
+      finally {
+         lock.unlock();
+         }
+      }
+
+   public final boolean isStopped() {
+      return getState() == STOPPED;
+      }
+
+   // runs task while the simulation thread is not in a step: at once (on
+   // this thread) if it is paused or has finished, else when it next
+   // pauses or finishes (on that thread).  A task still waiting when the
+   // next step starts is dropped, as the step is expected to do the work.
+   public final void whenIdle(Runnable task) {
+      lock.lock();
+      try {
+         if(idle)
+            task.run();
+         else
+            idleTasks.add(task);
+         }
+      finally {
+         lock.unlock();
+         }
+      }
+
+   private void runIdleTasks() {
+      for(int i=0; i<idleTasks.size(); i++)
+         idleTasks.get(i).run();
+      idleTasks.clear();
+      }
+
+   // blocks while PAUSED; returns the time (nsec) spent paused.  Called
+   // by the simulation thread at every step boundary.
+   public final long awaitRunning() throws InterruptedException {
+      lock.lock();
+      try {
+         if(state != PAUSED) {
+            if(state == RUNNING)
+               idleTasks.clear();
+            return 0;
+            }
+         long pausedAt = System.nanoTime();
+         idle = true;
+         try {
+            runIdleTasks();
+            while(state == PAUSED)
+               changed.await();
+            }
+         finally {
+            idle = false;
+            }
+         return System.nanoTime() - pausedAt;
+         }
+      finally {
+         lock.unlock();
+         }
+      }
+
+   // called by the simulation thread when it will step no more
+   public final void finish() {
+      lock.lock();
+      try {
+         idle = true;
+         runIdleTasks();
+         }
+      finally {
+         lock.unlock();
+         }
+      }
+
+   // waits until System.nanoTime() reaches deadline; returns false early
+   // if the run is paused or stopped in the meantime
+   public final boolean waitUntil(long deadline) throws InterruptedException {
+      lock.lock();
+      try {
+         long left = deadline - System.nanoTime();
+         while(state == RUNNING && left > 0)
+            left = changed.awaitNanos(left);
+         return state == RUNNING;
+         }
+      finally {
+         lock.unlock();
+         }
+      }
+
+   }
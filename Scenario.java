@@ -0,0 +1,508 @@
+// Scenario.class  This class is a parsed and checked configuration (.cf)
+//                 file: every parameter of the plant, by name.  The file
+//                 is read in one pass; comments (from '#' to the end of a
+//                 line) and blank lines are skipped and each remaining
+//                 line is the next value, so an extra blank or comment
+//                 line no longer shifts every parameter after it.  A
+//                 missing, extra or malformed value is reported with its
+//                 line number.
+//
+//    Scenarios are immutable and cached by the SHA-256 of the file, so
+//    a batch run that plays the same file many times parses it once.  A
+//    parsed file is also compiled to a binary copy beside it (see
+//    ScenarioCache), which later runs map instead of parsing the text.
+//
+//    Times are converted to msec as they are read: "sec" values with
+//    (int)(sec*1000), "min" values (the fault times) with
+//    (int)(min*1000)*60, which maps the -1 of "no fault" to
+//    Simulator.NEVER.
+//
+
+import java.io.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+final class Scenario {
+
+   private final static ConcurrentHashMap<String, Scenario> cache = new ConcurrentHashMap<String, Scenario>();
+   private final String hash;
+   // global values
+   public final int interval;                 // simulation interval (msec)
+   public final int steadyLimit;              // steady time that ends the run (msec)
+   public final int steadyCheckTime;          // time after which steady state is checked (msec)
+   public final double temperatureMargin;     // C
+   public final double demandMargin;          // kg/sec
+   // demand changes (upper and lower reservoir)
+   public final ValveSpec DC1, DC2;
+   // hidden heaters (inflow, reservoir 1, reservoir 2)
+   public final ValveSpec HH0, HH1, HH2;
+   // upper string
+   public final PumpSpec PA;
+   public final ValveSpec VA, VA1, VA2;
+   public final double SA;                    // maximum flow through splitter (kg/sec)
+   // lower string
+   public final PumpSpec PB;
+   public final ValveSpec VB, VB1, VB2;
+   public final double SB;
+   // heaters
+   public final HeaterSpec H1, H2;
+   // reservoirs and their outflow valves
+   public final ReservoirSpec R1, R2;
+   public final ValveSpec VO1, VO2;
+
+   Scenario(String hash, Input p) throws IOException {
+      this.hash = hash;
+      interval = p.nextTime("simulation interval");
+      steadyLimit = p.nextMinutes("steady time");
+      steadyCheckTime = p.nextMinutes("time after which steady state is checked");
+      temperatureMargin = p.nextDouble("temperature margin");
+      demandMargin = p.nextDouble("demand margin");
+      DC1 = new ValveSpec(p, "demand change 1");
+      DC2 = new ValveSpec(p, "demand change 2");
+      HH0 = new ValveSpec(p, "hidden heater 0");
+      HH1 = new ValveSpec(p, "hidden heater 1");
+      HH2 = new ValveSpec(p, "hidden heater 2");
+      PA = new PumpSpec(p, "pump PA");
+      VA = new ValveSpec(p, "valve VA");
+      VA1 = new ValveSpec(p, "valve VA1");
+      VA2 = new ValveSpec(p, "valve VA2");
+      SA = p.nextDouble("maximum flow through splitter A");
+      PB = new PumpSpec(p, "pump PB");
+      VB = new ValveSpec(p, "valve VB");
+      VB1 = new ValveSpec(p, "valve VB1");
+      VB2 = new ValveSpec(p, "valve VB2");
+      SB = p.nextDouble("maximum flow through splitter B");
+      H1 = new HeaterSpec(p, "upper heater");
+      H2 = new HeaterSpec(p, "lower heater");
+      R1 = new ReservoirSpec(p, "upper reservoir");
+      R2 = new ReservoirSpec(p, "lower reservoir");
+      VO1 = new ValveSpec(p, "valve VO1");
+      VO2 = new ValveSpec(p, "valve VO2");
+      p.end();
+      validate(p);
+      }
+
+   // the scenario in file: from its compiled copy when that is up to
+   // date, otherwise parsed (and compiled for next time); at most one
+   // instance per distinct content
+   public static Scenario load(File file) throws IOException {
+      Scenario scenario = ScenarioCache.load(file);
+      if(scenario == null) {
+         byte[] bytes = readFully(file);
+         String hash = hash(bytes);
+         scenario = cache.get(hash);
+         if(scenario == null) {
+            TextInput p = new TextInput(file.getName(), new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes))));
+            scenario = new Scenario(hash, p);
+            ScenarioCache.store(file, hash, p.getNames(), p.getValues());
+            }
+         }
+      return intern(scenario);
+      }
+
+   private static Scenario intern(Scenario scenario) {
+      Scenario cached = cache.putIfAbsent(scenario.hash, scenario);
+      return cached == null ? scenario : cached;
+      }
+
+   static Scenario cached(String hash) {
+      return cache.get(hash);
+      }
+
+   public static void clearCache() {
+      cache.clear();
+      }
+
+   // hex SHA-256 of the file this scenario was read from
+   public final String getHash() {
+      return hash;
+      }
+
+   private void validate(Input p) throws IOException {
+      if(interval <= 0)
+         throw p.error("simulation interval must be positive");
+      if(temperatureMargin < 0 || demandMargin < 0)
+         throw p.error("margins must not be negative");
+      ValveSpec[] valves = {DC1, DC2, VA, VA1, VA2, VB, VB1, VB2, VO1, VO2};
+      for(int i=0; i<valves.length; i++)
+         valves[i].validate(p);
+      PA.validate(p);
+      PB.validate(p);
+      H1.validate(p);
+      H2.validate(p);
+      R1.validate(p);
+      R2.validate(p);
+      }
+
+   private static byte[] readFully(File file) throws IOException {
+      InputStream in = new FileInputStream(file);
+      try {
+         ByteArrayOutputStream out = new ByteArrayOutputStream((int)file.length());
+         byte[] buffer = new byte[8192];
+         int n;
+         while((n = in.read(buffer)) > 0)
+            out.write(buffer, 0, n);
+         return out.toByteArray();
+         }
+      finally {
+         in.close();
+         }
+      }
+
+   private static String hash(byte[] bytes) {
+      try {
+         return ScenarioCache.toHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+         }
+      catch(NoSuchAlgorithmException e) {
+         // every Java platform has SHA-256
+         throw new IllegalStateException(e.toString());
+         }
+      }
+
+
+   // Where the values of a scenario come from, in file order, converted
+   // (times in msec, states as booleans).
+   abstract static class Input {
+
+      protected String file;
+      protected String what;
+
+      abstract String nextName(String what) throws IOException;
+
+      abstract double nextDouble(String what) throws IOException;
+
+      // sec -> msec
+      abstract int nextTime(String what) throws IOException;
+
+      // min -> msec
+      abstract int nextMinutes(String what) throws IOException;
+
+      abstract boolean nextBoolean(String what) throws IOException;
+
+      // fails if any value is left over
+      abstract void end() throws IOException;
+
+      abstract IOException error(String message);
+
+      final void check(boolean ok, String what, String message) throws IOException {
+         if(!ok)
+            throw new IOException(file + " (" + what + "): " + message);
+         }
+
+      }
+
+
+   // Reads the values of a configuration file one line at a time, and
+   // keeps them, converted, for a compiled copy.
+   static final class TextInput extends Input {
+
+      private BufferedReader in;
+      private int lineNumber;
+      private ArrayList<String> names = new ArrayList<String>();
+      private double[] values = new double[256];
+      private int count;
+
+      TextInput(String file, BufferedReader in) {
+         this.file = file;
+         this.in = in;
+         }
+
+      // text of the next line that holds a value
+      private String next(String what) throws IOException {
+         this.what = what;
+         String line;
+         while((line = in.readLine()) != null) {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            if(comment >= 0)
+               line = line.substring(0, comment);
+            line = line.trim();
+            if(line.length() > 0)
+               return line;
+            }
+         throw error("missing value");
+         }
+
+      private double parse(String what) throws IOException {
+         String value = next(what);
+         try {
+            return Double.parseDouble(value);
+            }
+         catch(NumberFormatException e) {
+            throw error("expected a number, found \"" + value + "\"");
+            }
+         }
+
+      private double keep(double value) {
+         if(count == values.length)
+            values = Arrays.copyOf(values, 2*count);
+         values[count++] = value;
+         return value;
+         }
+
+      final String nextName(String what) throws IOException {
+         String name = next(what);
+         names.add(name);
+         return name;
+         }
+
+      final double nextDouble(String what) throws IOException {
+         return keep(parse(what));
+         }
+
+      final int nextTime(String what) throws IOException {
+         return (int)keep((int)(parse(what)*1000));
+         }
+
+      final int nextMinutes(String what) throws IOException {
+         return (int)keep((int)(parse(what)*1000)*60);
+         }
+
+      final boolean nextBoolean(String what) throws IOException {
+         String value = next(what);
+         if(value.equals("1") || value.equalsIgnoreCase("true"))
+            return keep(1) != 0;
+         if(value.equals("0") || value.equalsIgnoreCase("false"))
+            return keep(0) != 0;
+         throw error("expected 0 or 1, found \"" + value + "\"");
+         }
+
+      final void end() throws IOException {
+         String line;
+         while((line = in.readLine()) != null) {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            if(comment >= 0)
+               line = line.substring(0, comment);
+            if(line.trim().length() > 0) {
+               what = null;
+               throw error("unexpected value \"" + line.trim() + "\"");
+               }
+            }
+         in.close();
+         }
+
+      final IOException error(String message) {
+         return new IOException(file + " line " + lineNumber + (what == null ? "" : " (" + what + ")") + ": " + message);
+         }
+
+      final String[] getNames() {
+         return names.toArray(new String[names.size()]);
+         }
+
+      final double[] getValues() {
+         return Arrays.copyOf(values, count);
+         }
+
+      }
+
+
+   // Replays the names and values of a compiled scenario (ScenarioCache).
+   static final class CompiledInput extends Input {
+
+      private String[] names;
+      private double[] values;
+      private int name;
+      private int value;
+
+      CompiledInput(String file, String[] names, double[] values) {
+         this.file = file;
+         this.names = names;
+         this.values = values;
+         }
+
+      private double next(String what) throws IOException {
+         this.what = what;
+         if(value == values.length)
+            throw error("missing value");
+         return values[value++];
+         }
+
+      final String nextName(String what) throws IOException {
+         this.what = what;
+         if(name == names.length)
+            throw error("missing name");
+         return names[name++];
+         }
+
+      final double nextDouble(String what) throws IOException {
+         return next(what);
+         }
+
+      final int nextTime(String what) throws IOException {
+         return (int)next(what);
+         }
+
+      final int nextMinutes(String what) throws IOException {
+         return (int)next(what);
+         }
+
+      final boolean nextBoolean(String what) throws IOException {
+         return next(what) != 0;
+         }
+
+      final void end() throws IOException {
+         what = null;
+         if(name != names.length || value != values.length)
+            throw error("values left over");
+         }
+
+      final IOException error(String message) {
+         return new IOException(file + " value " + value + (what == null ? "" : " (" + what + ")") + ": " + message);
+         }
+
+      }
+
+
+   // The nine values of a valve.  The demand changes and hidden heaters are
+   // modelled the same way: name, maximum, initial setting and output, time
+   // constant and two timed faults (setting, time).
+   static final class ValveSpec {
+
+      public final String name;
+      public final double maximum;
+      public final double initialSetting;
+      public final double initialOutput;
+      public final int timeConstant;        // msec
+      public final double fault1Setting;
+      public final int fault1Time;          // msec, Simulator.NEVER if none
+      public final double fault2Setting;
+      public final int fault2Time;
+
+      ValveSpec(Scenario.Input p, String what) throws IOException {
+         name = p.nextName(what + " name");
+         maximum = p.nextDouble(what + " maximum");
+         initialSetting = p.nextDouble(what + " initial setting");
+         initialOutput = p.nextDouble(what + " initial output");
+         timeConstant = p.nextTime(what + " time constant");
+         fault1Setting = p.nextDouble(what + " setting when fault 1");
+         fault1Time = p.nextMinutes(what + " time of fault 1");
+         fault2Setting = p.nextDouble(what + " setting when fault 2");
+         fault2Time = p.nextMinutes(what + " time of fault 2");
+         }
+
+      final void validate(Scenario.Input p) throws IOException {
+         p.check(maximum >= 0, name, "maximum must not be negative");
+         p.check(initialSetting >= 0 && initialSetting <= maximum, name, "initial setting must be 0.." + maximum);
+         p.check(timeConstant >= 0, name, "time constant must not be negative");
+         p.check(fault1Time == Simulator.NEVER || fault1Time >= 0, name, "time of fault 1 must be -1 or >= 0");
+         p.check(fault2Time == Simulator.NEVER || fault2Time >= 0, name, "time of fault 2 must be -1 or >= 0");
+         }
+
+      }
+
+
+   static final class PumpSpec {
+
+      public final String name;
+      public final boolean initialState;
+      public final double minimumFlow;
+      public final double maximumFlow;
+      public final int timeConstant;        // msec
+      public final int faultTime;           // msec, Simulator.NEVER if none
+      public final int breakTime;           // msec to blow up when the valves are closed
+
+      PumpSpec(Scenario.Input p, String what) throws IOException {
+         name = p.nextName(what + " name");
+         initialState = p.nextBoolean(what + " initial state");
+         minimumFlow = p.nextDouble(what + " minimum flow");
+         maximumFlow = p.nextDouble(what + " maximum flow");
+         timeConstant = p.nextTime(what + " time constant");
+         faultTime = p.nextMinutes(what + " time of fault");
+         breakTime = p.nextTime(what + " time to blow up");
+         }
+
+      final void validate(Scenario.Input p) throws IOException {
+         p.check(minimumFlow >= 0 && minimumFlow <= maximumFlow, name, "flows must be 0 <= minimum <= maximum");
+         p.check(timeConstant >= 0, name, "time constant must not be negative");
+         }
+
+      }
+
+
+   static final class HeaterSpec {
+
+      public final double maximumSetting;
+      public final double initialSetting;
+      public final double initialOutput;
+      public final double maximumHeatFlow;  // W
+      public final int timeConstant;        // msec
+      public final int faultTime;           // msec, Simulator.NEVER if none
+      public final double faultPercentage;
+
+      HeaterSpec(Scenario.Input p, String what) throws IOException {
+         maximumSetting = p.nextDouble(what + " maximum setting");
+         initialSetting = p.nextDouble(what + " initial setting");
+         initialOutput = p.nextDouble(what + " initial output");
+         maximumHeatFlow = p.nextDouble(what + " maximum heat flow");
+         timeConstant = p.nextTime(what + " time constant");
+         faultTime = p.nextMinutes(what + " time of fault");
+         faultPercentage = p.nextDouble(what + " output percentage when fault occurs");
+         }
+
+      final void validate(Scenario.Input p) throws IOException {
+         p.check(initialSetting >= 0 && initialSetting <= maximumSetting, "heater", "initial setting must be 0.." + maximumSetting);
+         p.check(timeConstant >= 0, "heater", "time constant must not be negative");
+         }
+
+      }
+
+
+   static final class ReservoirSpec {
+
+      public final String name;
+      public final double maximumInflow;
+      public final double maximumOutflow;
+      public final double initialLevel;            // m
+      public final double minimumLevel;
+      public final double maximumLevel;
+      public final double demandTemperature;       // C
+      public final double maximumTemperature;
+      public final double minimumEnergyInflow;
+      public final double maximumEnergyInflow;
+      public final double maximumEnergyOutflow;
+      public final double initialEnergy;           // J
+      public final double maximumEnergy;
+      public final double tankArea;                // m2
+      public final double density;                 // kg/m3
+      public final double specificHeat;            // J/kg.C
+      public final double boilingTemperature;      // C
+      public final double additionalInflow;        // kg/s, <0: leak
+      public final double additionalInflowTemperature;
+      public final int additionalInflowTime;       // msec, Simulator.NEVER if none
+      public final int blowUpTime;                 // msec
+
+      ReservoirSpec(Scenario.Input p, String what) throws IOException {
+         name = p.nextName(what + " name");
+         maximumInflow = p.nextDouble(what + " maximum water inflow");
+         maximumOutflow = p.nextDouble(what + " maximum water outflow");
+         initialLevel = p.nextDouble(what + " initial water level");
+         minimumLevel = p.nextDouble(what + " minimum water level");
+         maximumLevel = p.nextDouble(what + " maximum water level");
+         demandTemperature = p.nextDouble(what + " water demand temperature");
+         maximumTemperature = p.nextDouble(what + " maximum water temperature");
+         minimumEnergyInflow = p.nextDouble(what + " minimum energy inflow");
+         maximumEnergyInflow = p.nextDouble(what + " maximum energy inflow");
+         maximumEnergyOutflow = p.nextDouble(what + " maximum energy outflow");
+         initialEnergy = p.nextDouble(what + " initial energy stored");
+         maximumEnergy = p.nextDouble(what + " maximum energy stored");
+         tankArea = p.nextDouble(what + " tank area");
+         density = p.nextDouble(what + " water density");
+         specificHeat = p.nextDouble(what + " specific heat capacity");
+         boilingTemperature = p.nextDouble(what + " boiling temperature");
+         additionalInflow = p.nextDouble(what + " additional water inflow");
+         additionalInflowTemperature = p.nextDouble(what + " additional inflow temperature");
+         additionalInflowTime = p.nextMinutes(what + " time of additional inflow fault");
+         blowUpTime = p.nextTime(what + " time to blow up");
+         }
+
+      final void validate(Scenario.Input p) throws IOException {
+         p.check(minimumLevel <= maximumLevel, name, "minimum level above maximum level");
+         p.check(initialLevel >= 0 && initialLevel <= maximumLevel, name, "initial level must be 0.." + maximumLevel);
+         p.check(tankArea > 0 && density > 0 && specificHeat > 0, name, "area, density and heat capacity must be positive");
+         }
+
+      }
+
+   }
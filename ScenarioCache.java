@@ -0,0 +1,129 @@
+// ScenarioCache.class  This class keeps a compiled copy of each parsed
+//                      configuration file beside it (T01.cf -> T01.cfc):
+//                      the names and the converted values, in file order,
+//                      as they came out of the parser.  Loading one is a
+//                      memory map and a bulk copy of a double[], with no
+//                      text to scan.
+//
+//    The copy records the length and modification time of the .cf it was
+//    made from; if either differs, it is ignored and rewritten on the
+//    next parse.  Files are replaced atomically, so runs that compile the
+//    same scenario at the same time do not see each other's half-written
+//    copies.  A directory that cannot be written just goes without.
+//
+//    File layout (big-endian):
+//
+//       "DURS" version(1) source length(long) source modified(long)
+//       SHA-256 of the source (32 bytes)
+//       name count(int) names (short length, UTF-8)
+//       value count(int) values (double)
+//
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+final class ScenarioCache {
+
+   public final static String EXTENSION = "c";
+   private final static byte[] MAGIC = {'D', 'U', 'R', 'S'};
+   private final static int VERSION = 1;
+
+   public static File getCacheFile(File source) {
+      return new File(source.getPath() + EXTENSION);
+      }
+
+   // the compiled scenario for source, or null if there is no up to date one
+   public static Scenario load(File source) {
+      File compiled = getCacheFile(source);
+      if(!compiled.isFile())
+         return null;
+      try {
+         ByteBuffer buffer = map(compiled);
+         for(int i=0; i<MAGIC.length; i++)
+            if(buffer.get() != MAGIC[i])
+               return null;
+         if(buffer.get() != VERSION ||
+            buffer.getLong() != source.length() ||
+            buffer.getLong() != source.lastModified())
+            return null;
+         byte[] digest = new byte[32];
+         buffer.get(digest);
+         String hash = toHex(digest);
+         Scenario scenario = Scenario.cached(hash);
+         if(scenario != null)
+            return scenario;
+         String[] names = new String[buffer.getInt()];
+         for(int i=0; i<names.length; i++) {
+            byte[] bytes = new byte[buffer.getShort() & 0xffff];
+            buffer.get(bytes);
+            names[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+         double[] values = new double[buffer.getInt()];
+         buffer.asDoubleBuffer().get(values);
+         return new Scenario(hash, new Scenario.CompiledInput(compiled.getName(), names, values));
+         }
+      catch(Exception e) {
+         // unreadable or corrupt: parse the source instead
+         return null;
+         }
+      }
+
+   public static void store(File source, String hash, String[] names, double[] values) {
+      File compiled = getCacheFile(source);
+      File temporary = null;
+      try {
+         File directory = compiled.getAbsoluteFile().getParentFile();
+         temporary = File.createTempFile(compiled.getName(), ".tmp", directory);
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+         try {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(source.length());
+            out.writeLong(source.lastModified());
+            for(int i=0; i<hash.length(); i+=2)
+               out.writeByte(Integer.parseInt(hash.substring(i, i+2), 16));
+            out.writeInt(names.length);
+            for(int i=0; i<names.length; i++) {
+               byte[] bytes = names[i].getBytes(StandardCharsets.UTF_8);
+               out.writeShort(bytes.length);
+               out.write(bytes);
+               }
+            out.writeInt(values.length);
+            for(int i=0; i<values.length; i++)
+               out.writeDouble(values[i]);
+            }
+         finally {
+            out.close();
+            }
+         Files.move(temporary.toPath(), compiled.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+         }
+      catch(Exception e) {
+         // no compiled copy this time
+         if(temporary != null)
+            temporary.delete();
+         }
+      }
+
+   private static ByteBuffer map(File file) throws IOException {
+      FileInputStream in = new FileInputStream(file);
+      try {
+         FileChannel channel = in.getChannel();
+         return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         }
+      finally {
+         in.close();
+         }
+      }
+
+   static String toHex(byte[] digest) {
+      StringBuffer hex = new StringBuffer();
+      for(int i=0; i<digest.length; i++)
+         hex.append(Character.forDigit((digest[i] >> 4) & 0xf, 16)).append(Character.forDigit(digest[i] & 0xf, 16));
+      return hex.toString();
+      }
+
+   }
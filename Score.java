@@ -0,0 +1,30 @@
+// Score.class  This class holds the 3x3 score matrix of a run, added up
+//              by the Engine step by step.
+//
+
+final class Score {
+
+   private double[][] matrix;
+
+   public Score() {
+      matrix = new double[3][3];
+      for(int i=0; i<3; i++)
+         for(int j=0; j<3; j++)
+            matrix[i][j] = 0;
+      }
+
+   public final void setScore(int row, int column, double value) {
+      matrix[row][column] += value;
+      }
+
+   public final double getScore(int row, int column) {
+      return matrix[row][column];
+      }
+
+   public final void clear() {
+      for(int i=0; i<3; i++)
+         for(int j=0; j<3; j++)
+            matrix[i][j] = 0;
+      }
+
+ }
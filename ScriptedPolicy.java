@@ -0,0 +1,120 @@
+// ScriptedPolicy.class  This class defines an OperatorPolicy that is read
+//                       from a script file or string.
+//
+//    Script format, one action per line:
+//
+//          <time (sec)>  <control>  <value>     # comment
+//
+//    where control is VA, VA1, VA2, VB, VB1, VB2, VO1, VO2, H1, H2
+//    (settings) or PA, PB (0: off, 1: on).  Lines need not be sorted.
+//
+
+import java.io.*;
+import java.util.*;
+
+// A timed list of control changes.  It keeps no state between calls, so
+// one instance can drive any number of engines at the same time.
+final class ScriptedPolicy implements OperatorPolicy {
+
+   public final static ScriptedPolicy NONE = new ScriptedPolicy("none", new int[0], new String[0], new double[0]);
+   private String name;
+   private int[] times;          // msec, sorted
+   private String[] controls;
+   private double[] values;
+
+   private ScriptedPolicy(String name, int[] times, String[] controls, double[] values) {
+      this.name = name;
+      this.times = times;
+      this.controls = controls;
+      this.values = values;
+      }
+
+   public static ScriptedPolicy load(File file) throws IOException {
+      return read(file.getName(), new FileReader(file));
+      }
+
+   // a script given as text, e.g. "0 VA1 6" (see WhatIf)
+   public static ScriptedPolicy parse(String name, String script) throws IOException {
+      return read(name, new StringReader(script));
+      }
+
+   private static ScriptedPolicy read(String name, Reader reader) throws IOException {
+      ArrayList<String[]> actions = new ArrayList<String[]>();
+      LineNumberReader lnr = new LineNumberReader(reader);
+      String s;
+      try {
+         while((s=lnr.readLine()) != null) {
+            int comment = s.indexOf('#');
+            if(comment >= 0)
+               s = s.substring(0, comment);
+            StringTokenizer t = new StringTokenizer(s);
+            if(!t.hasMoreTokens())
+               continue;
+            if(t.countTokens() != 3)
+               throw new IOException(name + ":" + lnr.getLineNumber() + ": expected <time> <control> <value>");
+            actions.add(new String[] {t.nextToken(), t.nextToken(), t.nextToken()});
+            }
+         }
+      finally {
+         lnr.close();
+         }
+      Collections.sort(actions, new Comparator<String[]>() {
+                          public int compare(String[] a, String[] b) {
+                             return Double.compare(Double.parseDouble(a[0]), Double.parseDouble(b[0]));
+                             }
+                          });
+      int n = actions.size();
+      int[] times = new int[n];
+      String[] controls = new String[n];
+      double[] values = new double[n];
+      for(int i=0; i<n; i++) {
+         String[] a = actions.get(i);
+         times[i] = (int)(Double.parseDouble(a[0])*1000);
+         controls[i] = a[1];
+         values[i] = Double.parseDouble(a[2]);
+         }
+      return new ScriptedPolicy(name, times, controls, values);
+      }
+
+   public final String getName() {
+      return name;
+      }
+
+   // queues every action due in [t, t+dt); the step that follows applies them
+   public final void apply(Engine engine, int t) {
+      int end = t + engine.getInterval();
+      int i = firstAtOrAfter(t);
+      while(i < times.length && times[i] < end) {
+         engine.submit(controls[i], values[i]);
+         i++;
+         }
+      }
+
+   // sets every action due in [from, to) in PlantModel controls; returns
+   // how many there were
+   public final int apply(double[] settings, int from, int to) {
+      int i = firstAtOrAfter(from), n = 0;
+      for(; i < times.length && times[i] < to; i++, n++)
+         settings[PlantModel.getControlIndex(controls[i])] = values[i];
+      return n;
+      }
+
+   // the time of the first action after t (Integer.MAX_VALUE if none)
+   public final int getNextTime(int t) {
+      int i = firstAtOrAfter(t + 1);
+      return i < times.length ? times[i] : Integer.MAX_VALUE;
+      }
+
+   private int firstAtOrAfter(int t) {
+      int lo = 0, hi = times.length;
+      while(lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if(times[mid] < t)
+            lo = mid + 1;
+         else
+            hi = mid;
+         }
+      return lo;
+      }
+
+   }
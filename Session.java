@@ -0,0 +1,66 @@
+// Session.class  This class holds the state that belongs to one running
+//                plant rather than to the program: the trial log, the
+//                kill switch, the pump display flag and the queue of
+//                operator commands waiting for the next step.  Every
+//                component of an Engine is given the same Session, so
+//                several plants can run side by side in one JVM.
+//
+//    Note: replaces the statics Simulator.log, Simulator.log_started,
+//          DuressJ_new.killswitchstate and DuressJ_new.pumpDisplay.
+//
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+final class Session {
+
+   private volatile Log log;
+   private volatile boolean killSwitch;
+   private volatile boolean pumpDisplay;
+   // many producers (interface, scripts, remote clients), one consumer
+   // (the Engine); lock-free, so a slider never waits on a running step
+   private final ConcurrentLinkedQueue<OperatorCommand> commands =
+      new ConcurrentLinkedQueue<OperatorCommand>();
+
+   public final void setLog(Log newLog) {
+      log = newLog;
+      }
+
+   public final Log getLog() {
+      return log;
+      }
+
+   public final boolean isLogging() {
+      return log != null;
+      }
+
+   public final void setKillSwitch(boolean state) {
+      killSwitch = state;
+      }
+
+   public final boolean isKillSwitchOn() {
+      return killSwitch;
+      }
+
+   public final void setPumpDisplay(boolean state) {
+      pumpDisplay = state;
+      }
+
+   public final boolean getPumpDisplay() {
+      return pumpDisplay;
+      }
+
+   // may be called from any thread; applied at the start of the next step
+   public final void submit(String control, double value) {
+      commands.offer(new OperatorCommand(control, value));
+      }
+
+   // next queued command, or null
+   final OperatorCommand pollCommand() {
+      return commands.poll();
+      }
+
+   final boolean hasCommands() {
+      return !commands.isEmpty();
+      }
+
+   }
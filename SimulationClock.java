@@ -0,0 +1,45 @@
+// SimulationClock.class  This class decides how simulated time is paced
+//                        against the wall clock.  The Engine only ever
+//                        sees simulated time (fault times, steady-state
+//                        windows and log timestamps all count in it), so
+//                        the plant behaves identically at any speed.
+//
+//    Speeds:  1          real time (the original behaviour)
+//             10, 100..  a fixed multiple of real time
+//             0          as fast as possible (AS_FAST_AS_POSSIBLE)
+//
+//    Paced clocks release steps on a TickScheduler; overrunPolicy says what
+//    happens when a step is late (TickScheduler.CATCH_UP or SKIP).  Time
+//    spent paused is reported with pausedFor() and does not count.
+//
+
+abstract class SimulationClock {
+
+   public final static double REAL_TIME = 1;
+   public final static double AS_FAST_AS_POSSIBLE = 0;
+
+   public static SimulationClock create(double speed) {
+      return create(speed, TickScheduler.CATCH_UP, null);
+      }
+
+   public static SimulationClock create(double speed, int overrunPolicy, RunControl control) {
+      if(speed <= AS_FAST_AS_POSSIBLE)
+         return new UnpacedClock();
+      return new WarpClock(speed, overrunPolicy, control);
+      }
+
+   // called once, before the first step is taken
+   public abstract void start();
+
+   // called after each step, with the simulated time (msec) it covered
+   public abstract void advance(int dt) throws InterruptedException;
+
+   // the run was paused between steps for this long (nsec)
+   public abstract void pausedFor(long nanos);
+
+   public abstract double getSpeed();
+
+   // measured pacing jitter, or null if the clock does not pace
+   public abstract String getTimingReport();
+
+   }
@@ -1,6 +1,6 @@
-// Simulator.class  This class defines the graphical layout,
-//                  relationships between thermodynamic components,
-//                  and simulator loop.
+// Simulator.class  This class defines the graphical layout of the
+//                  thermodynamic components, and drives the Engine
+//                  (which holds the plant itself) in real time.
 //
 // Developed for:  University Of Toronto
 //                 Faculty of Applied Science and Engineering
@@ -33,9 +33,8 @@ import javax.swing.*;
 import java.io.*;
 import java.util.*;
 
-final class Simulator extends Panel implements Runnable {
+final class Simulator extends Panel implements Runnable, EngineListener {
 
-   private static final int CONFIGURATION_FILE_LINES = 250;
    public final static int NEVER = -60000;
    public final static Color COLOR_BACKGROUND = new Color(204, 204, 204);  // gray color
    public final static Color COLOR_MASSFLOW = Color.yellow;
@@ -50,14 +49,13 @@ final class Simulator extends Panel implements Runnable {
    public final static int FLOWS = 3;
    public final static int PRINCIPLES = 4;
    public final static int GOALS = 5;
-   private String[] inputFile;          // array used to hold each line of config file
+   // per-step flows and steady time on the console (java -Dduress.debug=true);
+   // off by default, printing every step costs most of a warped tick
+   private final static boolean DEBUG = Boolean.getBoolean("duress.debug");
+   private Engine engine;
    private int userInterfaceType;
    private int dt;
    private int steadyLimit;
-   private int steadyMinTime;
-   private double temperatureMargin;
-   private double demandMargin;
-   private Score score;
    private TimerCanvas timerCanvas;
    private HiddenHeater HH0;
    private TemperatureMeterCanvas T0;
@@ -66,9 +64,7 @@ final class Simulator extends Panel implements Runnable {
     Valve VA, VB;
    private Splitter SA, SB;
    private Valve VA1, VA2, VB1, VB2;
-   private Mixer M1, M2;
    private Heater H1, H2;
-   private HiddenHeater HH1, HH2;
    private Reservoir R1, R2;
    private FirstSplitterCanvas firstSplitterCanvas;
    private MixerCanvas mixerCanvas;
@@ -81,10 +77,18 @@ final class Simulator extends Panel implements Runnable {
    private Panel principlesPanel = new Panel();
    private Panel goalsPanel = new Panel();
    private Thread runner = null;
-
-   //Signe: added static log member, can be updated by other classes.
-   public static Log log;
-   public static boolean log_started = false;
+   private volatile RunControl control = null;
+   private volatile SimulationClock clock = SimulationClock.create(SimulationClock.REAL_TIME);
+   private int overrunPolicy = TickScheduler.CATCH_UP;
+   private int logFormat = Log.TEXT;
+   private int logCompression = LogStream.PLAIN;
+   private long logPartSize;
+   private int logPartTime;
+   private int telemetry;                          // intervals per row, 0: none
+   private volatile TelemetryRecorder telemetryRecorder;
+
+   // log, kill switch etc. of this simulator's plant
+   private Session session = new Session();
    String conName;
 
    public Simulator() {
@@ -98,91 +102,49 @@ final class Simulator extends Panel implements Runnable {
       configurationFilename += conName;
       
       dummyFrame.dispose();
-      // read in config file and assign each line to an array entry
       try {
-         LineNumberReader lnr = new LineNumberReader(new FileReader(configurationFilename));
-         inputFile = new String[CONFIGURATION_FILE_LINES+1];
-         String s;
-         while((s=lnr.readLine()) != null)
-            inputFile[lnr.getLineNumber()] = s;
-         lnr.close();
+         engine = new Engine(configurationFilename, session);
          }
       catch(IOException e) {
          System.out.print("Error: " + e);
          System.exit(1);
          }
-      dt = getTime(12);
-      steadyLimit = getTime(13)*60;
-      steadyMinTime = getTime(14)*60;
-      temperatureMargin = getDouble(15);
-      demandMargin = getDouble(16);
-      score = new Score();
+      engine.addEngineListener(this);
+      dt = engine.getInterval();
+      steadyLimit = engine.getSteadyLimit();
       timerCanvas = new TimerCanvas();
-      HH0 = new HiddenHeater(getString(42), getDouble(43), getDouble(44),
-                             getDouble(45), getTime(46), getDouble(47),
-                             getTime(48)*60, getDouble(49), getTime(50)*60);
+      HH0 = engine.HH0;
       T0 = new TemperatureMeterCanvas(HH0.getHeatFlowOut(), HH0.getMaximumHeatFlowOut());
       T0Name = new TemperatureNameCanvas("T0");
-      PA = new Pump(getString(76), getBoolean(77), getDouble(78), getDouble(79),
-                    getTime(80), getTime(81)*60, getTime(82));
-      PB = new Pump(getString(118), getBoolean(119), getDouble(120), getDouble(121),
-                    getTime(122), getTime(123)*60, getTime(124));
-      VA = new Valve(getString(84), getDouble(85), getDouble(86),
-                     getDouble(87), getTime(88), getDouble(89),
-                     getTime(90)*60, getDouble(91), getTime(92)*60);
-      VB = new Valve(getString(126), getDouble(127), getDouble(128),
-                     getDouble(129), getTime(130), getDouble(131),
-                     getTime(132)*60, getDouble(133), getTime(134)*60);
-      SA = new Splitter("SA", getDouble(114));
-      SB = new Splitter("SA", getDouble(156));
-      VA1 = new Valve(getString(94), getDouble(95), getDouble(96),
-                     getDouble(97), getTime(98), getDouble(99),
-                     getTime(100)*60, getDouble(101), getTime(102)*60);
-      VA2 = new Valve(getString(104), getDouble(105), getDouble(106),
-                     getDouble(107), getTime(108), getDouble(109),
-                     getTime(110)*60, getDouble(111), getTime(112)*60);
-      VB1 = new Valve(getString(136), getDouble(137), getDouble(138),
-                     getDouble(139), getTime(140), getDouble(141),
-                     getTime(142)*60, getDouble(143), getTime(144)*60);
-      VB2 = new Valve(getString(146), getDouble(147), getDouble(148),
-                     getDouble(149), getTime(150), getDouble(151),
-                     getTime(152)*60, getDouble(153), getTime(154)*60);
-      M1 = new Mixer("M1");
-      M2 = new Mixer("M2");
-      H1 = new Heater("H1", getDouble(160), getDouble(161), getDouble(162),
-                      getDouble(163), getTime(164), getTime(165)*60, getDouble(166));
-      H2 = new Heater("H2", getDouble(169), getDouble(170), getDouble(171),
-                      getDouble(172), getTime(173), getTime(174)*60, getDouble(175));
-      HH1 = new HiddenHeater(getString(53), getDouble(54), getDouble(55),
-                     getDouble(56), getTime(57), getDouble(58),
-                     getTime(59)*60, getDouble(60), getTime(61)*60);
-      HH2 = new HiddenHeater(getString(64), getDouble(65), getDouble(66),
-                     getDouble(67), getTime(68), getDouble(69),
-                     getTime(70)*60, getDouble(71), getTime(72)*60);
-      R1 = new Reservoir("Reservoir 1", getDouble(180), getDouble(181), getDouble(182),
-                         getDouble(183), getDouble(184), demandMargin, getDouble(185),
-                         temperatureMargin, getDouble(186), getDouble(187), getDouble(188),
-                         getDouble(189), getDouble(190), getDouble(191), getDouble(192),
-                         getDouble(193), getDouble(194), getDouble(195), getDouble(197),
-                         getDouble(199), getTime(201)*60, getTime(202),
-                         // outflow valve (NOTE: DuressJ does not consider name or maxflow)
-                         getDouble(234), getDouble(235), getTime(236),
-                         getDouble(237), getTime(238)*60, getDouble(239), getTime(240)*60,
-                         // demand inialization (modellled as valve)
-                         getString(20), getDouble(21), getDouble(22), getDouble(23), getTime(24),
-                         getDouble(25), getTime(26)*60, getDouble(27), getTime(28)*60);
-      R2 = new Reservoir("Reservoir 2", getDouble(206), getDouble(207), getDouble(208),
-                         getDouble(209), getDouble(210), demandMargin, getDouble(211),
-                         temperatureMargin, getDouble(212), getDouble(213), getDouble(214),
-                         getDouble(215), getDouble(216), getDouble(217), getDouble(218),
-                         getDouble(219), getDouble(220), getDouble(221), getDouble(223),
-                         getDouble(225), getTime(227)*60, getTime(228),
-                         // outflow valve (NOTE: DuressJ does not consider name or maxflow)
-                         getDouble(244), getDouble(245), getTime(246),
-                         getDouble(247), getTime(248)*60, getDouble(249), getTime(250)*60,
-                         // demand inialization (modellled as valve)
-                         getString(30), getDouble(31), getDouble(32), getDouble(33), getTime(34),
-                         getDouble(35), getTime(36)*60, getDouble(37), getTime(38)*60);
+      PA = engine.PA;
+      PB = engine.PB;
+      VA = engine.VA;
+      VB = engine.VB;
+      SA = engine.SA;
+      SB = engine.SB;
+      VA1 = engine.VA1;
+      VA2 = engine.VA2;
+      VB1 = engine.VB1;
+      VB2 = engine.VB2;
+      H1 = engine.H1;
+      H2 = engine.H2;
+      R1 = engine.R1;
+      R2 = engine.R2;
+      // the engine's components are headless until we ask for their canvases
+      PA.createDisplay();
+      PB.createDisplay();
+      VA.createDisplay();
+      VB.createDisplay();
+      SA.createDisplay();
+      SB.createDisplay();
+      VA1.createDisplay();
+      VA2.createDisplay();
+      VB1.createDisplay();
+      VB2.createDisplay();
+      H1.createDisplay();
+      H2.createDisplay();
+      R1.createDisplay();
+      R2.createDisplay();
       firstSplitterCanvas = new FirstSplitterCanvas();
       mixerCanvas = new MixerCanvas();
       PFmixerCanvas = new PFMixerCanvas();
@@ -207,38 +169,63 @@ final class Simulator extends Panel implements Runnable {
    //Signe: create log file, with initial settings...
    public final void startLog(String name, String trial) {
 
-      log = new Log(name, trial, conName, userInterfaceType, getDouble(86), getDouble(96), getDouble(106), getDouble(128), getDouble(138), getDouble(148), getDouble(234), getDouble(244), getBoolean(77), getBoolean(119), getDouble(161), getDouble(170), getDouble(182), getDouble(208)); 
-      log_started = true;
+      Scenario s = engine.getScenario();
+      Log log = new Log(logFormat, logCompression, name, trial, conName, userInterfaceType, s.VA.initialSetting, s.VA1.initialSetting, s.VA2.initialSetting, s.VB.initialSetting, s.VB1.initialSetting, s.VB2.initialSetting, s.VO1.initialSetting, s.VO2.initialSetting, s.PA.initialState, s.PB.initialState, s.H1.initialSetting, s.H2.initialSetting, s.R1.initialLevel, s.R2.initialLevel);
+      log.setRotation(logPartSize, logPartTime);
+      session.setLog(log);
+      if(telemetry > 0) {
+         try {
+            telemetryRecorder = new TelemetryRecorder(engine, new File(Log.getTelemetryFilename(name, trial)), telemetry);
+            }
+         catch(IOException e) {
+            System.out.println("ERROR CREATING TELEMETRY FILE: " + e + "\n");
+            }
+         }
    }
 
-   public final double getDouble(int lineNumber) {
-      StringTokenizer t = new StringTokenizer(inputFile[lineNumber]);
-      double d = new Double(t.nextToken()).doubleValue();
-      return d;
+   // the plant being run (see WhatIf)
+   public final Engine getEngine() {
+      return engine;
       }
 
-   public final int getTime(int lineNumber) {
-      StringTokenizer t = new StringTokenizer(inputFile[lineNumber]);
-      double d = new Double(t.nextToken()).doubleValue()*1000;
-      return (int)d;
+   public final Session getSession() {
+      return session;
       }
 
-   public final String getString(int lineNumber) {
-      StringTokenizer t = new StringTokenizer(inputFile[lineNumber]);
-      return t.nextToken();
+   // Log.TEXT, Log.BINARY or Log.EVENTS, for the next log started
+   public final void setLogFormat(int format) {
+      logFormat = format;
       }
 
-   public final int getInteger(int lineNumber) {
-      StringTokenizer t = new StringTokenizer(inputFile[lineNumber]);
-      int i = new Integer(t.nextToken()).intValue();
-      return i;
+   public final int getLogFormat() {
+      return logFormat;
       }
 
-   public final boolean getBoolean(int lineNumber) {
-       StringTokenizer t = new StringTokenizer(inputFile[lineNumber]);
-       boolean b = new Boolean(t.nextToken()).booleanValue();
-       return b;
-   }
+   // LogStream.PLAIN or the Deflater level to gzip the next log started at
+   public final void setLogCompression(int level) {
+      logCompression = level;
+      }
+
+   public final int getLogCompression() {
+      return logCompression;
+      }
+
+   // intervals per row of the telemetry recorded beside the next log
+   // started (0: none; see TelemetryRecorder)
+   public final void setTelemetry(int decimation) {
+      telemetry = decimation;
+      }
+
+   public final int getTelemetry() {
+      return telemetry;
+      }
+
+   // bytes and msec of simulated time per part of the next log started
+   // (0: no limit; see RotatingLogSink)
+   public final void setLogRotation(long partSize, int partTime) {
+      logPartSize = partSize;
+      logPartTime = partTime;
+      }
 
    public final Insets getInsets() {
       return new Insets(5, 5, 0, 0);
@@ -250,6 +237,7 @@ final class Simulator extends Panel implements Runnable {
       openParameterDialog();
       
       if (runner == null) {
+         control = new RunControl();
          runner = new Thread(this);
          runner.start();
          }
@@ -257,232 +245,124 @@ final class Simulator extends Panel implements Runnable {
        
       }
 
+   // pause, resume and stop only change the run state; the simulation
+   // thread notices at the next step boundary (or while waiting for one)
    public final void pause() {
-      runner.suspend();
+      if(control != null)
+         control.pause();
       }
 
    public final void resume() {
-      runner.resume();
+      if(control != null)
+         control.resume();
       }
 
    public void stop() {
-      if (runner != null && runner.isAlive())
-         runner.stop();
+      if(control != null)
+         control.stop();
       runner = null;
-      //runner = new Thread(this);
+      }
+
+   // speed is a multiple of real time, or SimulationClock.AS_FAST_AS_POSSIBLE;
+   // may be changed while the simulation is running
+   public final void setSpeed(double speed) {
+      SimulationClock newClock = SimulationClock.create(speed, overrunPolicy, control);
+      newClock.start();
+      clock = newClock;
+      }
+
+   // TickScheduler.CATCH_UP or TickScheduler.SKIP; takes effect on the next
+   // change of speed (or the next start)
+   public final void setOverrunPolicy(int policy) {
+      overrunPolicy = policy;
       }
 
    public void run() {
-      
-      int t = 0;
-      int steadyTime = 0;
-      while(runner != null) {
-            
-          
-//          System.out.println("Timer = " + t);
-    	  
-    	  System.out.println("Pump A status:"+PA.pumpState+";  VA Mass Flow out: "+ VA.getMassFlowOut()+ ";  VA1 Mass Flow out:"+VA1.getMassFlowOut()+";  VA2 Mass Flow out:"+VA2.getMassFlowOut());
-
-          if(log_started)
-            log.writeLog(t);
-          log.printLog("Hi this is where you enter your steps");
-
-          
-         // increment screen timer
-         if(t%1000 == 0)
-            timerCanvas.setTime(t/1000);
-         //////////////////////////////////////////////////////////////////
-         //// calculate hidden heater outputs ////////////////////////////
-         HH0.checkForFault(t, dt);
-         HH1.checkForFault(t, dt);
-         HH2.checkForFault(t, dt);
-         /////////////////////////////////////////////////////////////////
-         //// update incoming water temperature meter ///////////////////
-         T0.setTemperatureSetting(HH0.getHeatFlowOut());
-         /////////////////////////////////////////////////////////////////
-         ////////////////////////////////////////////////////////////////
-         ////// calculate demand ///////////////////////////////////////
-         R1.calculateDemand(t, dt);
-         R2.calculateDemand(t, dt);
-         /////////////////////////////////////////////////////////////////
-         ////////////////////////////////////////////////////////////////
-         ////// calculate allowable mass flow through stream 'A' ///////
-         VA1.calculateResistance(t, dt);
-         VA2.calculateResistance(t, dt);
-         SA.calculateResistance(VA1.getValveOpening(), VA2.getValveOpening());
-         VA.calculateResistance(t, dt);
-         PA.setMaximumPipeFlow(VA.getValveOpening(), SA.getMaximumAllowableMassFlow());
-         ///////////////////////////////////////////////////////////////////
-         ////// set mass flow and temperature through stream 'A' //////////
-         PA.setMassFlowOut(t, dt);
-         PA.setTemperatureOut(HH0.getHeatFlowOut());
-         VA.setMassFlowOut(PA.getMassFlowOut());
-         VA.setTemperatureOut(PA.getTemperatureOut());
-         SA.setMassFlowOut(VA.getMassFlowOut(), VA1.getValveOpening(), VA2.getValveOpening());
-         SA.setTemperatureOut(VA.getTemperatureOut());
-         VA1.setMassFlowOut(SA.getMassFlowOut());
-         VA1.setTemperatureOut(SA.getTemperatureOut());
-         VA2.setMassFlowOut(SA.getMassFlowOut2());
-         VA2.setTemperatureOut(SA.getTemperatureOut2());
-         //////////////////////////////////////////////////////////////////////////
-         /////////////////////////////////////////////////////////////////////////
-         ////// calculate allowable mass flow through stream 'B' ////////////////
-         VB1.calculateResistance(t, dt);
-         VB2.calculateResistance(t, dt);
-         SB.calculateResistance(VB1.getValveOpening(), VB2.getValveOpening());
-         VB.calculateResistance(t, dt);
-         PB.setMaximumPipeFlow(VB.getValveOpening(), SB.getMaximumAllowableMassFlow());
-         ///////////////////////////////////////////////////////////////////
-         ////// set mass flow and temperatute through stream 'B' //////////
-         PB.setMassFlowOut(t, dt);
-         PB.setTemperatureOut(HH0.getHeatFlowOut());
-         VB.setMassFlowOut(PB.getMassFlowOut());
-         VB.setTemperatureOut(PB.getTemperatureOut());
-         SB.setMassFlowOut(VB.getMassFlowOut(), VB1.getValveOpening(), VB2.getValveOpening());
-         SB.setTemperatureOut(VB.getTemperatureOut());
-         VB1.setMassFlowOut(SB.getMassFlowOut());
-         VB1.setTemperatureOut(SB.getTemperatureOut());
-         VB2.setMassFlowOut(SB.getMassFlowOut2());
-         VB2.setTemperatureOut(SB.getTemperatureOut2());
-         //////////////////////////////////////////////////////////////////////////
-         /////////////////////////////////////////////////////////////////////////
-         //// check to see if pumps are broken //////////////////////////////////
-         if(PA.getMaximumMassFlowOut() == 0)
-            displayError(PA.getName() + " blew up because valves were closed.");
-         if(PB.getMaximumMassFlowOut() == 0)
-            displayError(PB.getName() + " blew up because valves were closed.");
-         ///////////////////////////////////////////////////////////////////////
-         //////////////////////////////////////////////////////////////////////
-         ////// set mass flow and temperature through mixers '1' and '2' /////
-         M1.setMassFlowOut(VA1.getMassFlowOut(), VB1.getMassFlowOut());
-         M1.setTemperatureOut(VA1.getTemperatureOut(), VB1.getTemperatureOut());
-         M2.setMassFlowOut(VA2.getMassFlowOut(), VB2.getMassFlowOut());
-         M2.setTemperatureOut(VA2.getTemperatureOut(), VB2.getTemperatureOut());
-         /////////////////////////////////////////////////////////////////////////////
-         ////////////////////////////////////////////////////////////////////////////
-         ////// calculate visible heaters 'H1' and 'H2' ////////////////////////////
-         H1.setHeatFlowOut(t, dt);
-         H2.setHeatFlowOut(t, dt);
-         ///////////////////////////////////////////////////////////////////////////
-         //////////////////////////////////////////////////////////////////////////
-         ////// calculate allowable mass flow through reservoir output valves ////
-         R1.calculateResistance(t, dt);
-         R2.calculateResistance(t, dt);
-         //////////////////////////////////////////////////////////////////////
-         /////////////////////////////////////////////////////////////////////
-         ////// calculate Reservoir settings ////////////////////////////////
-         R1.setMassFlowIn(M1.getMassFlowOut());
-         R1.setTemperatureIn(M1.getTemperatureOut());
-         R1.setMassFlowOut(R1.getValveOpening());
-         R1.setHeaterEnergyIn(H1.getHeatFlowOut());
-         R1.setHiddenHeaterEnergyIn(HH1.getHeatFlowOut());
-         R1.calculateReservoir(t, dt);
-         if(R1.getError() != 0) {
-            if(R1.getError() == Reservoir.ERROR_BOIL)
-               displayError("The water in " + R1.getName() + " reached boiling point.");
-            else if(R1.getError() == Reservoir.ERROR_OVERHEAT)
-               displayError(R1.getName() + " was heated empty.");
-            else if(R1.getError() == Reservoir.ERROR_OVERFLOW)
-               displayError(R1.getName() + " overflowed.");
-            }
-         //////////////////////////////////////////////////////////////
-         R2.setMassFlowIn(M2.getMassFlowOut());
-         R2.setTemperatureIn(M2.getTemperatureOut());
-         R2.setMassFlowOut(R2.getValveOpening());
-         R2.setHeaterEnergyIn(H2.getHeatFlowOut());
-         R2.setHiddenHeaterEnergyIn(HH2.getHeatFlowOut());
-         R2.calculateReservoir(t, dt);
-         if(R2.getError() != 0) {
-            if(R2.getError() == Reservoir.ERROR_BOIL)
-               displayError("The water in " + R2.getName() + " reached boiling point.");
-            else if(R2.getError() == Reservoir.ERROR_OVERHEAT)
-               displayError(R2.getName() + " was heated empty.");
-            else if(R2.getError() == Reservoir.ERROR_OVERFLOW)
-               displayError(R2.getName() + " overflowed.");
-            }
-         ///////////////////////////////////////////////////////////////
-         //////////////////////////////////////////////////////////////
-         //////  update scores ///////////////////////////////////////
-         // low temperature
-         if(R1.getTemperatureOut() < R1.getDemandTemperature() - temperatureMargin)
-            score.setScore(0, 0, R1.getMassFlowOut()*dt/1000);
-         // high temperature
-         else if(R1.getTemperatureOut() > R1.getDemandTemperature() + temperatureMargin)
-            score.setScore(2, 0, R1.getMassFlowOut()*dt/1000);
-         // good temperature and low flow
-         else if(R1.getMassFlowOut() < R1.getDemand() - demandMargin)
-            score.setScore(1, 0, R1.getMassFlowOut()*dt/1000);
-         // good temperature and high flow
-         else if(R1.getMassFlowOut() > R1.getDemand() + demandMargin) {
-            // desired level
-            score.setScore(1, 1, (R1.getDemand() + demandMargin)*dt/1000);
-            // excess flow
-            score.setScore(1, 2, (R1.getMassFlowOut() - R1.getDemand() - demandMargin)*dt/1000);
-            }
-         // good temperature and good flow
-         else
-            score.setScore(1, 1, R1.getMassFlowOut()*dt/1000);
-         /////////////////////////////////////////////////////////////
-         // low temperature
-         if(R2.getTemperatureOut() < R2.getDemandTemperature() - temperatureMargin)
-            score.setScore(0, 0, R2.getMassFlowOut()*dt/1000);
-         // high temperature
-         else if(R2.getTemperatureOut() > R2.getDemandTemperature() + temperatureMargin)
-            score.setScore(2, 0, R2.getMassFlowOut()*dt/1000);
-         // good temperature and low flow
-         else if(R2.getMassFlowOut() < R2.getDemand() - demandMargin)
-            score.setScore(1, 0, R2.getMassFlowOut()*dt/1000);
-         // good temperature and high flow
-         else if(R2.getMassFlowOut() > R2.getDemand() + demandMargin) {
-            // desired level
-            score.setScore(1, 1, (R2.getDemand() + demandMargin)*dt/1000);
-            // excess flow
-            score.setScore(1, 2, (R2.getMassFlowOut() - R2.getDemand() - demandMargin)*dt/1000);
+      RunControl control = this.control;
+      engine.setRunControl(control);
+      clock = SimulationClock.create(clock.getSpeed(), overrunPolicy, control);
+      clock.start();
+      try {
+         while(!control.isStopped() && !engine.isTerminated()) {
+            long paused = control.awaitRunning();
+            if(paused > 0)
+               clock.pausedFor(paused);
+            if(control.isStopped())
+               break;
+            engine.step();
+            clock.advance(dt);
             }
-         // good temperature and good flow
-         else
-            score.setScore(1, 1, R2.getMassFlowOut()*dt/1000);
-         ////////////////////////////////////////////////////////////
-         ///////////////////////////////////////////////////////////
-         ////// calculate steady state time////////////////////////
-         if(R1.getMassFlowOut() >= R1.getDemand() - demandMargin &&
-            R1.getMassFlowOut() <= R1.getDemand() + demandMargin &&
-            R1.getTemperatureOut() >= R1.getDemandTemperature() - temperatureMargin &&
-            R1.getTemperatureOut() <= R1.getDemandTemperature() + temperatureMargin &&
-            R2.getMassFlowOut() >= R2.getDemand() - demandMargin &&
-            R2.getMassFlowOut() <= R2.getDemand() + demandMargin &&
-            R2.getTemperatureOut() >= R2.getDemandTemperature() - temperatureMargin &&
-            R2.getTemperatureOut() <= R2.getDemandTemperature() + temperatureMargin)
-         {
-             steadyTime += dt;
-             System.out.println("STEADY STATE time-> " +steadyTime + " limit-> " + steadyLimit);
-             if(log_started)
-                log.updateState(steadyTime);
          }
-         else
-         {
-
-             steadyTime = 0;   
-             if(log_started)
-                log.updateState(0);
+      catch(InterruptedException e) {
+         }
+      finally {
+         closeTelemetry();
+         control.finish();
+         }
+      }
 
+   // on the simulation thread, when the run ends or is stopped
+   private void closeTelemetry() {
+      TelemetryRecorder recorder = telemetryRecorder;
+      if(recorder == null)
+         return;
+      telemetryRecorder = null;
+      try {
+         recorder.close();
          }
-        if(steadyMinTime != NEVER && steadyTime >= steadyLimit)
-            displayEnd();
-         ////////////////////////////////////////////////////////////
+      catch(IOException e) {
+         System.out.println("ERROR WRITING TELEMETRY FILE: " + e + "\n");
+         }
+      }
+
+   // EngineListener: bring the display up to date after each step
+   public void engineStepped(Engine engine, int t) {
+      TelemetryRecorder recorder = telemetryRecorder;
+      if(recorder != null)
+         recorder.engineStepped(engine, t);
+      if(DEBUG)
+         System.out.println("Pump A status:"+PA.pumpState+";  VA Mass Flow out: "+ VA.getMassFlowOut()+ ";  VA1 Mass Flow out:"+VA1.getMassFlowOut()+";  VA2 Mass Flow out:"+VA2.getMassFlowOut());
+
+      // increment screen timer
+      if(t%1000 == 0)
+         timerCanvas.setTime(t/1000);
+      // update incoming water temperature meter
+      T0.setTemperatureSetting(HH0.getHeatFlowOut());
+      VA.updateDisplay();
+      VB.updateDisplay();
+      VA1.updateDisplay();
+      VA2.updateDisplay();
+      VB1.updateDisplay();
+      VB2.updateDisplay();
+      H1.updateDisplay();
+      H2.updateDisplay();
+      R1.updateDisplay();
+      R2.updateDisplay();
+      if(DEBUG) {
+         if(engine.getSteadyTime() > 0)
+            System.out.println("STEADY STATE time-> " + engine.getSteadyTime() + " limit-> " + steadyLimit);
          System.out.println();
          System.out.println("----------------------------");
-
-         
-         try {
-            Thread.currentThread().sleep(dt);
-            }
-         catch(InterruptedException e) {
-            }
-         t += dt;
          }
       }
 
+   // EngineListener: the engine has already written the reason to the log
+   public void engineTerminated(Engine engine, String message) {
+      // the last state is recorded and the file closed before the dialogs
+      TelemetryRecorder recorder = telemetryRecorder;
+      if(recorder != null)
+         recorder.engineTerminated(engine, message);
+      closeTelemetry();
+      if(clock.getTimingReport() != null)
+         System.out.println(clock.getTimingReport());
+      if(engine.getCommandReport() != null)
+         System.out.println(engine.getCommandReport());
+      if(engine.getState() == Engine.TERMINATED_STEADY)
+         displayEnd();
+      else
+         displayError(message);
+      }
+
    public final void displayError(String errorMessage) {
       Toolkit toolkit = Toolkit.getDefaultToolkit();
       Dimension screenSize = toolkit.getScreenSize();
@@ -493,9 +373,6 @@ final class Simulator extends Panel implements Runnable {
       errorDialog.show();
       errorDialog.dispose();
       dummyErrorFrame.dispose();
-      //Signe: write reason for termination to log file
-      if(log_started)
-        log.endSimulation(errorMessage);
       stop();
       }
 
@@ -503,18 +380,14 @@ final class Simulator extends Panel implements Runnable {
       Toolkit toolkit = Toolkit.getDefaultToolkit();
       Dimension screenSize = toolkit.getScreenSize();
       Frame dummyErrorFrame = new Frame();
-      String congratsMessage = "Congratulations, Steady state was reached.";
+      String congratsMessage = Engine.STEADY_MESSAGE;
       TerminationDialog endDialog = new TerminationDialog(dummyErrorFrame, congratsMessage);
       endDialog.setLocation(screenSize.width/2 - endDialog.getSize().width/2,
                                screenSize.height/2 - endDialog.getSize().height/2);
       endDialog.show();
       endDialog.dispose();
       dummyErrorFrame.dispose();
-      //Signe: write reason for termination to log file
-      if(log_started)
-        log.endSimulation(congratsMessage);
       stop();
-      
       }
 
    public void changeUserInterface(int UIType) {
@@ -546,8 +419,8 @@ final class Simulator extends Panel implements Runnable {
          setupGoalsLayout(x, y);
          layout.show(this, "goals");
          }
-      if(log_started)
-        log.setIfType(userInterfaceType);
+      if(session.isLogging())
+        session.getLog().setIfType(userInterfaceType);
       }
 
    public void setupPhysicalLayout(int x, int y)  {
@@ -837,23 +710,6 @@ final class Simulator extends Panel implements Runnable {
    }
 
 
-final class Score {
-
-   private double[][] matrix;
-
-   public Score() {
-      matrix = new double[3][3];
-      for(int i=0; i<3; i++)
-         for(int j=0; j<3; j++)
-            matrix[i][j] = 0;
-      }
-
-   public final void setScore(int row, int column, double value) {
-      matrix[row][column] += value;
-      }
-
- }
-
 //Signe: added class to collect parameters for log file
 final class ParamDialog extends Dialog {
 
@@ -915,7 +771,7 @@ final class ParamDialog extends Dialog {
         ok.addActionListener(new ActionListener(){
             public void actionPerformed(ActionEvent event) {
 
-                String filename = ".\\log_files\\log_"+getName()+"_"+getTrial()+".txt";
+                String filename = Log.getFilename(simulator.getLogFormat(), simulator.getLogCompression(), getName(), getTrial());
                 File file = new File(filename);
                 //if file already exists for those parameters, force entry of new parameters
                 if(!file.exists())
@@ -957,7 +813,7 @@ final class ParamDialog extends Dialog {
 
     public void writeNameTrial(String name, String trial) {
 
-        simulator.log.writeNameTrial(name, trial);
+        simulator.getSession().getLog().writeNameTrial(name, trial);
     }
 }
 
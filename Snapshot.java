@@ -0,0 +1,128 @@
+// Snapshot.class  This class is the complete state of a running Engine
+//                 between two steps, as a compact binary blob: every
+//                 component, the score, the steady time, the faults still
+//                 to come and the row in progress of the trial log.  What
+//                 does not change while the plant runs (the scenario) is
+//                 not in it, only the SHA-256 of the scenario file, so a
+//                 snapshot is restored into an Engine made from the same
+//                 file, on this machine or another one.
+//
+//    Use it to recover a long experiment after a crash, to resume a
+//    paused session elsewhere, or to start batch runs from a warmed-up
+//    plant instead of simulating the fill phase again.  Operator commands
+//    still waiting in the Session's queue are not part of it.
+//
+//    Layout (big-endian):
+//
+//       "DSNP" version(int) scenario SHA-256 (32 bytes) time(int)
+//       the rest of the Engine, then its components (see Engine.snapshot)
+//
+
+import java.io.*;
+import java.nio.file.*;
+
+final class Snapshot {
+
+   public final static String EXTENSION = ".snap";
+   final static int MAGIC = 0x44534e50;        // "DSNP"
+   final static int VERSION = 1;
+   private Buffer buffer = new Buffer();
+
+   public Snapshot() {
+      }
+
+   public Snapshot(byte[] data) {
+      buffer.write(data, 0, data.length);
+      }
+
+   public static Snapshot read(File file) throws IOException {
+      return new Snapshot(Files.readAllBytes(file.toPath()));
+      }
+
+   // replaces file atomically, so a crash while writing leaves the last one
+   public final void write(File file) throws IOException {
+      File temporary = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+      try {
+         FileOutputStream out = new FileOutputStream(temporary);
+         try {
+            buffer.writeTo(out);
+            }
+         finally {
+            out.close();
+            }
+         Files.move(temporary.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+         }
+      finally {
+         temporary.delete();
+         }
+      }
+
+   // empties the snapshot and returns a stream that fills it (Engine only)
+   final DataOutputStream rewrite() {
+      buffer.reset();
+      return new DataOutputStream(buffer);
+      }
+
+   final DataInputStream open() {
+      return new DataInputStream(new ByteArrayInputStream(buffer.array(), 0, buffer.size()));
+      }
+
+   // reads the header up to the time; returns the scenario's SHA-256
+   final static String readHeader(DataInput in) throws IOException {
+      if(in.readInt() != MAGIC)
+         throw new IOException("not a snapshot");
+      int version = in.readInt();
+      if(version != VERSION)
+         throw new IOException("snapshot version " + version + " (expected " + VERSION + ")");
+      byte[] hash = new byte[32];
+      in.readFully(hash);
+      return ScenarioCache.toHex(hash);
+      }
+
+   final static void writeHeader(DataOutput out, String hash) throws IOException {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      for(int i=0; i<hash.length(); i+=2)
+         out.writeByte(Integer.parseInt(hash.substring(i, i+2), 16));
+      }
+
+   public final String getScenarioHash() throws IOException {
+      return readHeader(open());
+      }
+
+   // the simulated time (msec) of the step the restored Engine takes next
+   public final int getTime() throws IOException {
+      DataInputStream in = open();
+      readHeader(in);
+      return in.readInt();
+      }
+
+   public final int getLength() {
+      return buffer.size();
+      }
+
+   public final byte[] toByteArray() {
+      return buffer.toByteArray();
+      }
+
+   // makes into a copy of this one (reusing its space)
+   public final void copyTo(Snapshot into) {
+      into.buffer.reset();
+      into.buffer.write(buffer.array(), 0, buffer.size());
+      }
+
+   // a ByteArrayOutputStream that lets its array be read in place
+   private final static class Buffer extends ByteArrayOutputStream {
+
+      Buffer() {
+         super(2048);
+         }
+
+      byte[] array() {
+         return buf;
+         }
+
+      }
+
+   }
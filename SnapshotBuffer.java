@@ -0,0 +1,63 @@
+// SnapshotBuffer.class  This class keeps the latest Snapshot of a running
+//                       Engine.
+//
+
+// Takes a Snapshot of an Engine every period msec of simulated time, on
+// the thread that steps it, at the start of a step (see
+// Engine.setSnapshotBuffer).  Each one is written into the back buffer,
+// which is then swapped with the front one; the lock is held only for
+// the swap and for copying the front one out, never while a snapshot is
+// written or saved, so taking one every second does not disturb the
+// tick schedule.  Any thread may ask for the latest one, e.g. to save it
+// to disk for crash recovery.
+final class SnapshotBuffer {
+
+   private final int period;
+   private Snapshot back = new Snapshot();
+   private Snapshot front = new Snapshot();
+   private int next;
+   private long taken;                   // guarded by lock
+   private final Object lock = new Object();
+
+   public SnapshotBuffer(int period) {
+      if(period <= 0)
+         throw new IllegalArgumentException("period must be positive: " + period);
+      this.period = period;
+      }
+
+   // called by the Engine before each step at t
+   final void offer(Engine engine, int t) {
+      if(t < next)
+         return;
+      engine.snapshot(back);
+      synchronized(lock) {
+         Snapshot swap = front;
+         front = back;
+         back = swap;
+         taken++;
+         }
+      next = t + period;
+      }
+
+   // a copy of the latest snapshot, or null if none has been taken
+   public final Snapshot getLatest() {
+      Snapshot copy = new Snapshot();
+      synchronized(lock) {
+         if(taken == 0)
+            return null;
+         front.copyTo(copy);
+         }
+      return copy;
+      }
+
+   public final long getTaken() {
+      synchronized(lock) {
+         return taken;
+         }
+      }
+
+   public final int getPeriod() {
+      return period;
+      }
+
+   }
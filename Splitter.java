@@ -16,6 +16,7 @@
 //
 
 import java.awt.*;
+import java.io.*;
 
 public final class Splitter extends Flow {
 
@@ -26,6 +27,10 @@ public final class Splitter extends Flow {
 
    public Splitter(String name, double max) {
       super(name, max);
+      }
+
+   public final void createDisplay() {
+      super.createDisplay();
       splitterCanvas = new SplitterCanvas();
       }
 
@@ -64,6 +69,20 @@ public final class Splitter extends Flow {
       return temperatureOut2;
       }
 
+   public final void save(DataOutput out) throws IOException {
+      super.save(out);
+      out.writeDouble(massFlowOut2);
+      out.writeDouble(temperatureOut2);
+      out.writeDouble(maximumAllowableMassFlow);
+      }
+
+   public final void restore(DataInput in) throws IOException {
+      super.restore(in);
+      massFlowOut2 = in.readDouble();
+      temperatureOut2 = in.readDouble();
+      maximumAllowableMassFlow = in.readDouble();
+      }
+
    public final SplitterCanvas getSplitterCanvas() {
       return splitterCanvas;
       }
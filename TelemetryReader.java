@@ -0,0 +1,151 @@
+// TelemetryReader.class  This class reads a telemetry file (see
+//                        TelemetryRecorder) back into one array per
+//                        channel, for analysis without simulating the run
+//                        again.
+//
+//    Usage:  java TelemetryReader run.tlm [channel...]
+//
+//    prints the recorded rows as a tab-separated table (time in seconds),
+//    of the channels named or all of them.
+//
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+final class TelemetryReader {
+
+   private int interval;
+   private int decimation;
+   private String[] names;
+   private int size;
+   private int[] times = new int[TelemetryRecorder.BLOCK_ROWS];
+   private double[][] columns;
+
+   public static TelemetryReader read(File file) throws IOException {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+      try {
+         return new TelemetryReader(in);
+         }
+      finally {
+         in.close();
+         }
+      }
+
+   public TelemetryReader(DataInputStream in) throws IOException {
+      if(in.readInt() != TelemetryRecorder.MAGIC)
+         throw new IOException("not a telemetry file");
+      int version = in.readInt();
+      if(version != TelemetryRecorder.VERSION)
+         throw new IOException("telemetry version " + version + " (expected " + TelemetryRecorder.VERSION + ")");
+      interval = in.readInt();
+      decimation = in.readInt();
+      names = new String[in.readInt()];
+      for(int i=0; i<names.length; i++)
+         names[i] = in.readUTF();
+      columns = new double[names.length][times.length];
+      byte[] bytes = new byte[TelemetryRecorder.BLOCK_ROWS*8];
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      int rows;
+      while((rows = readRows(in)) > 0) {
+         if(rows > TelemetryRecorder.BLOCK_ROWS)
+            throw new IOException("corrupt telemetry block of " + rows + " rows");
+         if(size + rows > times.length) {
+            int capacity = Math.max(2*times.length, size + rows);
+            times = Arrays.copyOf(times, capacity);
+            for(int c=0; c<columns.length; c++)
+               columns[c] = Arrays.copyOf(columns[c], capacity);
+            }
+         in.readFully(bytes, 0, rows*4);
+         buffer.clear();
+         buffer.asIntBuffer().get(times, size, rows);
+         for(int c=0; c<columns.length; c++) {
+            in.readFully(bytes, 0, rows*8);
+            buffer.clear();
+            buffer.asDoubleBuffer().get(columns[c], size, rows);
+            }
+         size += rows;
+         }
+      }
+
+   // rows in the next block, 0 at the end of the file
+   private static int readRows(DataInputStream in) throws IOException {
+      try {
+         return in.readInt();
+         }
+      catch(EOFException e) {
+         return 0;
+         }
+      }
+
+   public static void main(String[] args) {
+      if(args.length == 0) {
+         System.out.println("usage: java TelemetryReader run.tlm [channel...]");
+         System.exit(1);
+         }
+      try {
+         TelemetryReader telemetry = read(new File(args[0]));
+         int[] channels = new int[args.length > 1 ? args.length - 1 : telemetry.getChannels()];
+         for(int i=0; i<channels.length; i++)
+            channels[i] = args.length > 1 ? telemetry.getChannel(args[i+1]) : i;
+         StringBuffer line = new StringBuffer("Time");
+         for(int i=0; i<channels.length; i++)
+            line.append('\t').append(telemetry.getChannelName(channels[i]));
+         System.out.println(line);
+         for(int row=0; row<telemetry.size(); row++) {
+            line.setLength(0);
+            line.append(telemetry.getTime(row)/1000.0);
+            for(int i=0; i<channels.length; i++)
+               line.append('\t').append(telemetry.getValue(channels[i], row));
+            System.out.println(line);
+            }
+         }
+      catch(Exception e) {
+         System.out.println("Error: " + e);
+         }
+      }
+
+   // the simulation interval (msec) and how many of them per row
+   public final int getInterval() {
+      return interval;
+      }
+
+   public final int getDecimation() {
+      return decimation;
+      }
+
+   public final int getChannels() {
+      return names.length;
+      }
+
+   public final String getChannelName(int channel) {
+      return names[channel];
+      }
+
+   // the index of the channel called name
+   public final int getChannel(String name) {
+      for(int i=0; i<names.length; i++)
+         if(names[i].equals(name))
+            return i;
+      throw new IllegalArgumentException("no telemetry channel " + name);
+      }
+
+   // number of rows
+   public final int size() {
+      return size;
+      }
+
+   public final int getTime(int row) {
+      return times[row];
+      }
+
+   public final double getValue(int channel, int row) {
+      return columns[channel][row];
+      }
+
+   // a copy of one channel's values
+   public final double[] getColumn(int channel) {
+      return Arrays.copyOf(columns[channel], size);
+      }
+
+   }
@@ -0,0 +1,300 @@
+// TelemetryRecorder.class  This class records the complete physical state
+//                          of an Engine as it runs, which the trial log
+//                          leaves out: the mass flow and temperature out of
+//                          every pump, valve, splitter, mixer and reservoir,
+//                          the heat flow of the heaters and hidden heaters,
+//                          and the level, energy, temperature and demand of
+//                          both reservoirs (see getChannelNames).
+//
+//    Every decimation-th interval the state goes into one row of a
+//    columnar block (a primitive array per channel).  A full block is
+//    handed to a writer thread and an empty one taken from a small pool,
+//    so the thread stepping the Engine copies a few dozen doubles per
+//    recorded row and never touches the disk; it waits only if the disk
+//    falls a whole pool of blocks behind.  A fastForward jump is
+//    recorded as its last interval.
+//
+//    Usage:
+//
+//       TelemetryRecorder telemetry = new TelemetryRecorder(engine, new File("run.tlm"), 10);
+//       engine.addEngineListener(telemetry);
+//       ... run ...
+//       telemetry.close();
+//
+//    Interactive trials record it beside the trial log when telemetry is
+//    turned on in the Log Format menu (see Simulator.setTelemetry).
+//
+//    File layout (big-endian), read by TelemetryReader:
+//
+//       "DTEL" version(int) interval(int, msec) decimation(int)
+//       channels(int), then each channel's name (writeUTF)
+//       blocks, up to the end of the file:
+//          rows(int)  rows times (int, msec)  then for each channel
+//          rows values (double)
+//
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+final class TelemetryRecorder implements EngineListener {
+
+   public final static String EXTENSION = ".tlm";
+   final static int MAGIC = 0x4454454c;        // "DTEL"
+   final static int VERSION = 1;
+   public final static int BLOCK_ROWS = 1024;
+   public final static int DEFAULT_DECIMATION = 10;   // intervals per row
+   private final static int BLOCKS = 4;
+   private final Flow[] flows;
+   private final Splitter[] splitters;
+   private final Heater[] heaters;
+   private final HiddenHeater[] hidden;
+   private final Reservoir[] reservoirs;
+   private final String[] names;
+   private final int period;                   // msec between rows
+   private int next;                           // time of the next row
+   private int last = Integer.MIN_VALUE;       // time of the last one
+   private Block block;
+   private final BlockingQueue<Block> free = new ArrayBlockingQueue<Block>(BLOCKS);
+   private final BlockingQueue<Block> full = new ArrayBlockingQueue<Block>(BLOCKS + 1);
+   private final Block end = new Block(0, 0);  // tells the writer to stop
+   private final DataOutputStream out;
+   private final Thread writer;
+   private volatile IOException failure;
+   private long recorded;
+   private boolean closed;
+
+   public TelemetryRecorder(Engine engine, File file, int decimation) throws IOException {
+      this(engine, new FileOutputStream(file), decimation);
+      }
+
+   public TelemetryRecorder(Engine engine, OutputStream stream, int decimation) throws IOException {
+      if(decimation <= 0)
+         throw new IllegalArgumentException("decimation must be positive: " + decimation);
+      flows = new Flow[] {engine.PA, engine.PB, engine.VA, engine.VB, engine.VA1, engine.VA2,
+                          engine.VB1, engine.VB2, engine.M1, engine.M2, engine.R1, engine.R2};
+      splitters = new Splitter[] {engine.SA, engine.SB};
+      heaters = new Heater[] {engine.H1, engine.H2};
+      hidden = new HiddenHeater[] {engine.HH0, engine.HH1, engine.HH2};
+      reservoirs = new Reservoir[] {engine.R1, engine.R2};
+      names = getChannelNames();
+      period = decimation*engine.getInterval();
+      next = engine.getTime();
+      for(int i=0; i<BLOCKS; i++)
+         free.add(new Block(BLOCK_ROWS, names.length));
+      block = free.poll();
+      out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(engine.getInterval());
+      out.writeInt(decimation);
+      out.writeInt(names.length);
+      for(int i=0; i<names.length; i++)
+         out.writeUTF(names[i]);
+      writer = new Thread(new Runnable() {
+                             public void run() {
+                                write();
+                                }
+                             }, "Telemetry writer");
+      writer.setDaemon(true);
+      writer.start();
+      }
+
+   // the channels, in the order of the columns
+   public static String[] getChannelNames() {
+      String[] flows = {"PA", "PB", "VA", "VB", "VA1", "VA2", "VB1", "VB2", "M1", "M2", "VO1", "VO2"};
+      String[] names = new String[flows.length*2 + 4*2 + 2 + 3 + 4*2];
+      int c = 0;
+      for(int i=0; i<flows.length; i++) {
+         names[c++] = flows[i] + ".flow";
+         names[c++] = flows[i] + ".temperature";
+         }
+      String[] splitters = {"SA", "SB"};
+      for(int i=0; i<splitters.length; i++) {
+         names[c++] = splitters[i] + ".flow1";
+         names[c++] = splitters[i] + ".temperature1";
+         names[c++] = splitters[i] + ".flow2";
+         names[c++] = splitters[i] + ".temperature2";
+         }
+      names[c++] = "H1.heatFlow";
+      names[c++] = "H2.heatFlow";
+      names[c++] = "HH0.heatFlow";
+      names[c++] = "HH1.heatFlow";
+      names[c++] = "HH2.heatFlow";
+      for(int r=1; r<=2; r++) {
+         names[c++] = "R" + r + ".level";
+         names[c++] = "R" + r + ".energy";
+         names[c++] = "R" + r + ".temperature";
+         names[c++] = "R" + r + ".demand";
+         }
+      return names;
+      }
+
+   public final void engineStepped(Engine engine, int t) {
+      if(t < next || closed || engine.isTerminated())
+         return;
+      record(t);
+      next = t + period;
+      }
+
+   // the last state, and everything so far to the writer
+   public final void engineTerminated(Engine engine, String message) {
+      if(closed)
+         return;
+      if(last != engine.getTime())
+         record(engine.getTime());
+      flush();
+      }
+
+   private void record(int t) {
+      int row = block.size;
+      double[][] columns = block.columns;
+      int c = 0;
+      for(int i=0; i<flows.length; i++) {
+         columns[c++][row] = flows[i].getMassFlowOut();
+         columns[c++][row] = flows[i].getTemperatureOut();
+         }
+      for(int i=0; i<splitters.length; i++) {
+         columns[c++][row] = splitters[i].getMassFlowOut();
+         columns[c++][row] = splitters[i].getTemperatureOut();
+         columns[c++][row] = splitters[i].getMassFlowOut2();
+         columns[c++][row] = splitters[i].getTemperatureOut2();
+         }
+      for(int i=0; i<heaters.length; i++)
+         columns[c++][row] = heaters[i].getHeatFlowOut();
+      for(int i=0; i<hidden.length; i++)
+         columns[c++][row] = hidden[i].getHeatFlowOut();
+      for(int i=0; i<reservoirs.length; i++) {
+         columns[c++][row] = reservoirs[i].getWaterLevel();
+         columns[c++][row] = reservoirs[i].getEnergy();
+         columns[c++][row] = reservoirs[i].getTemperature();
+         columns[c++][row] = reservoirs[i].getDemand();
+         }
+      block.times[row] = t;
+      last = t;
+      block.size++;
+      recorded++;
+      if(block.size == BLOCK_ROWS)
+         flush();
+      }
+
+   // hands the rows recorded so far to the writer (the thread that steps
+   // the Engine only)
+   public final void flush() {
+      if(block.size == 0)
+         return;
+      put(full, block);
+      block = take(free);
+      }
+
+   // writes what is left and waits for the file to be closed
+   public final void close() throws IOException {
+      if(closed)
+         return;
+      flush();
+      closed = true;
+      put(full, end);
+      try {
+         writer.join();
+         }
+      catch(InterruptedException e) {
+         Thread.currentThread().interrupt();
+         }
+      if(failure != null)
+         throw failure;
+      }
+
+   public final long getRecorded() {
+      return recorded;
+      }
+
+   public final int getPeriod() {
+      return period;
+      }
+
+   // the writer thread: blocks in the order they were filled
+   private void write() {
+      byte[] bytes = new byte[BLOCK_ROWS*8];
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      while(true) {
+         Block b = take(full);
+         if(b == end)
+            break;
+         try {
+            if(failure == null) {
+               out.writeInt(b.size);
+               buffer.clear();
+               buffer.asIntBuffer().put(b.times, 0, b.size);
+               out.write(bytes, 0, b.size*4);
+               for(int c=0; c<b.columns.length; c++) {
+                  buffer.clear();
+                  buffer.asDoubleBuffer().put(b.columns[c], 0, b.size);
+                  out.write(bytes, 0, b.size*8);
+                  }
+               }
+            }
+         catch(IOException e) {
+            // a broken file stops the recording, not the simulation
+            failure = e;
+            System.out.println("Error: telemetry: " + e);
+            }
+         b.size = 0;
+         put(free, b);
+         }
+      try {
+         out.close();
+         }
+      catch(IOException e) {
+         if(failure == null)
+            failure = e;
+         }
+      }
+
+   private static void put(BlockingQueue<Block> queue, Block b) {
+      boolean interrupted = false;
+      while(true) {
+         try {
+            queue.put(b);
+            break;
+            }
+         catch(InterruptedException e) {
+            interrupted = true;
+            }
+         }
+      if(interrupted)
+         Thread.currentThread().interrupt();
+      }
+
+   private static Block take(BlockingQueue<Block> queue) {
+      boolean interrupted = false;
+      Block b;
+      while(true) {
+         try {
+            b = queue.take();
+            break;
+            }
+         catch(InterruptedException e) {
+            interrupted = true;
+            }
+         }
+      if(interrupted)
+         Thread.currentThread().interrupt();
+      return b;
+      }
+
+   // BLOCK_ROWS rows, one array per channel
+   private final static class Block {
+
+      final int[] times;
+      final double[][] columns;
+      int size;
+
+      Block(int rows, int channels) {
+         times = new int[rows];
+         columns = new double[channels][rows];
+         }
+
+      }
+
+   }
@@ -0,0 +1,250 @@
+// TextLogReader.class  This class reads a text trial log (the tab-separated
+//                      log_<subject>_<trial>.txt DURESS has always written)
+//                      back as records, like the binary readers do.  The
+//                      header up to the column line is read on opening, so
+//                      the subject, trial, scenario, interface and date are
+//                      known before the first row.
+//
+//    seek() goes through the log's LogIndex, when it has one, to the
+//    last indexed row before the time and reads on from there.  A
+//    compressed or rotated log (see LogStream) is read through as one.
+//
+//    Every line that is not a row (header, markers, the line written
+//    after each row, termination) comes back as TEXT.  The two levels were
+//    written with the default locale's NumberFormat (at most 5 decimals,
+//    maybe grouped); they are read back either way.
+//
+
+import java.io.*;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Locale;
+
+final class TextLogReader implements LogReader {
+
+   public final static String COLUMNS = "Time\tVA\tVA1\tVA2\tVB\tVB1\tVB2\tVO1\tVO2\tPA\tPB\tH1\tH2\tR1\tR2\tSteadyTime";
+   // as Log writes them (index = interface type)
+   final static String[] INTERFACE_TYPES = {"Physical", "Physical + Functional", "Settings",
+                                                    "Flows", "Principles", "Goals"};
+   private final static int FIELDS = 16;
+   private BufferedReader in;
+   private File file;
+   private LogIndex index;
+   private boolean held;                  // next() returns the current row again
+   private int lineNumber;
+   private String subject;
+   private String trial;
+   private String scenario;
+   private int interfaceType = -1;
+   private long date;
+   // header lines read ahead, and the next one to return
+   private ArrayList<String> header = new ArrayList<String>();
+   private int headerLine;
+   // current record
+   private String text;
+   private int time;
+   private double[] settings = new double[LogWriter.SETTINGS];
+   private int pumps;
+   private int steadyTime;
+   private int[] tabs = new int[FIELDS];
+
+   public static TextLogReader open(File file) throws IOException {
+      TextLogReader reader = new TextLogReader(new BufferedReader(new InputStreamReader(LogStream.open(file, 0)), 1 << 16));
+      reader.file = file;
+      return reader;
+      }
+
+   public TextLogReader(BufferedReader in) throws IOException {
+      this.in = in;
+      String line;
+      while((line = in.readLine()) != null) {
+         lineNumber++;
+         header.add(line);
+         if(line.startsWith("Date: "))
+            date = parseDate(line.substring(6));
+         else if(line.startsWith("Subject: "))
+            subject = line.substring(9);
+         else if(line.startsWith("Trial #: "))
+            trial = line.substring(9);
+         else if(line.startsWith("Scenario: "))
+            scenario = line.substring(10);
+         else if(line.startsWith("Interface Type: "))
+            interfaceType = parseInterfaceType(line.substring(16));
+         else if(line.equals(COLUMNS))
+            break;
+         }
+      if(line == null)
+         throw new IOException("not a DURESS text log: no " + COLUMNS.substring(0, 7) + "... line");
+      }
+
+   private static long parseDate(String s) {
+      try {
+         return new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US).parse(s).getTime();
+         }
+      catch(ParseException e) {
+         return 0;
+         }
+      }
+
+   // the index of an interface type as Log writes it, -1 if unknown
+   static int parseInterfaceType(String s) {
+      for(int i=0; i<INTERFACE_TYPES.length; i++)
+         if(INTERFACE_TYPES[i].equals(s.trim()))
+            return i;
+      return -1;
+      }
+
+   // moves to the next record; returns TEXT, ROW or END
+   public final int next() throws IOException {
+      if(held) {
+         held = false;
+         return ROW;
+         }
+      if(headerLine < header.size()) {
+         text = header.get(headerLine++);
+         return TEXT;
+         }
+      if(in == null)
+         return END;
+      String line = in.readLine();
+      if(line == null) {
+         close();
+         return END;
+         }
+      lineNumber++;
+      if(!isRow(line)) {
+         text = line;
+         return TEXT;
+         }
+      try {
+         time = Integer.parseInt(line.substring(0, tabs[0]));
+         for(int j=0; j<8; j++)
+            settings[j] = Double.parseDouble(field(line, j+1));
+         pumps = (field(line, 9).equals("0") ? 0 : 1) | (field(line, 10).equals("0") ? 0 : 2);
+         settings[8] = Double.parseDouble(field(line, 11));
+         settings[9] = Double.parseDouble(field(line, 12));
+         settings[10] = parseLevel(field(line, 13));
+         settings[11] = parseLevel(field(line, 14));
+         steadyTime = Integer.parseInt(field(line, 15));
+         }
+      catch(NumberFormatException e) {
+         throw new IOException("bad row at line " + lineNumber + ": " + e.getMessage());
+         }
+      return ROW;
+      }
+
+   // the first row at or after time is next; only a log opened from a
+   // file can be entered at its index, any other is read on from where it is
+   public final void seek(int time) throws IOException {
+      if(held && this.time == time)
+         return;
+      held = false;
+      headerLine = header.size();
+      if(file != null) {
+         if(index == null)
+            index = LogIndex.open(file);
+         long offset = index == null ? -1 : index.getOffset(time);
+         if(offset < 0)
+            offset = 0;
+         // an offset beyond the end (see LogIndex) leaves nothing to read
+         InputStream stream = LogStream.open(file, offset);
+         close();
+         in = new BufferedReader(new InputStreamReader(stream), 1 << 16);
+         lineNumber = 0;
+         if(offset == 0)
+            // past the header
+            for(int i=0; i<header.size(); i++)
+               in.readLine();
+         }
+      int kind;
+      while((kind = next()) != END)
+         if(kind == ROW && this.time >= time) {
+            held = true;
+            return;
+            }
+      }
+
+   // a row starts with a digit and has FIELDS tab-separated fields (their
+   // ends are left in tabs)
+   private boolean isRow(String line) {
+      if(line.isEmpty() || !Character.isDigit(line.charAt(0)))
+         return false;
+      int n = 0;
+      for(int i=0; i<line.length(); i++)
+         if(line.charAt(i) == '\t') {
+            if(n == FIELDS - 1)
+               return false;
+            tabs[n++] = i;
+            }
+      tabs[n] = line.length();
+      return n == FIELDS - 1;
+      }
+
+   private String field(String line, int i) {
+      return line.substring(tabs[i-1] + 1, tabs[i]);
+      }
+
+   // a NumberFormat level: "1,234.5" or, in a locale with a decimal comma,
+   // "0,06326"
+   private static double parseLevel(String s) {
+      if(s.indexOf(',') >= 0)
+         s = s.indexOf('.') >= 0 ? s.replace(",", "") : s.replace(',', '.');
+      return Double.parseDouble(s);
+      }
+
+   public final void close() throws IOException {
+      if(in != null)
+         in.close();
+      in = null;
+      }
+
+   public final String getSubject() {
+      return subject;
+      }
+
+   public final String getTrial() {
+      return trial;
+      }
+
+   public final String getScenario() {
+      return scenario;
+      }
+
+   // -1 if the log does not say
+   public final int getInterfaceType() {
+      return interfaceType;
+      }
+
+   // 0 if the log does not say
+   public final long getDate() {
+      return date;
+      }
+
+   // number of lines read since opening (or the last seek)
+   public final int getLineNumber() {
+      return lineNumber;
+      }
+
+   public final String getText() {
+      return text;
+      }
+
+   public final int getTime() {
+      return time;
+      }
+
+   // index as in LogSink.row: VA, VA1, VA2, VB, VB1, VB2, VO1, VO2, H1, H2, R1, R2
+   public final double getSetting(int index) {
+      return settings[index];
+      }
+
+   public final boolean isPumpOn(int pump) {
+      return (pumps & (1 << pump)) != 0;
+      }
+
+   public final int getSteadyTime() {
+      return steadyTime;
+      }
+
+   }
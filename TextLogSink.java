@@ -0,0 +1,90 @@
+// TextLogSink.class  This class is the LogSink that writes the
+//                    tab-separated text the DURESS logs always had.
+//
+
+import java.io.*;
+import java.text.NumberFormat;
+
+final class TextLogSink implements LogSink {
+
+   private PrintWriter out;
+   private CountingOutputStream counter;     // null: written to a Writer
+   private NumberFormat nf;
+   private StringBuilder line = new StringBuilder(256);
+
+   public TextLogSink(OutputStream stream) {
+      this(new CountingOutputStream(new BufferedOutputStream(stream, 1 << 16)));
+      }
+
+   private TextLogSink(CountingOutputStream counter) {
+      this(new OutputStreamWriter(counter));
+      this.counter = counter;
+      }
+
+   public TextLogSink(Writer writer) {
+      out = new PrintWriter(new BufferedWriter(writer, 1 << 16));
+      nf = NumberFormat.getInstance();
+      nf.setMaximumFractionDigits(5);
+      }
+
+   public final void text(String text) {
+      out.println(text);
+      }
+
+   public final void row(int time, double[] settings, int offset, int pumps, int steadyTime) {
+      line.setLength(0);
+      line.append(time);
+      for(int j=0; j<8; j++)
+         line.append('\t').append(settings[offset+j]);
+      line.append('\t').append(pumps & 1);
+      line.append('\t').append((pumps >> 1) & 1);
+      line.append('\t').append(settings[offset+8]);
+      line.append('\t').append(settings[offset+9]);
+      line.append('\t').append(nf.format(settings[offset+10]));
+      line.append('\t').append(nf.format(settings[offset+11]));
+      line.append('\t').append(steadyTime);
+      out.append(line);
+      out.println();
+      }
+
+   // every row is one; the characters buffered so far are encoded to
+   // learn where the next one starts
+   public final long mark() {
+      if(counter == null)
+         return -1;
+      out.flush();
+      return counter.count;
+      }
+
+   public final void flush() throws IOException {
+      out.flush();
+      if(out.checkError())
+         throw new IOException("error writing log");
+      }
+
+   public final void close() throws IOException {
+      flush();
+      out.close();
+      }
+
+   private final static class CountingOutputStream extends FilterOutputStream {
+
+      long count;
+
+      CountingOutputStream(OutputStream out) {
+         super(out);
+         }
+
+      public void write(int b) throws IOException {
+         out.write(b);
+         count++;
+         }
+
+      public void write(byte[] b, int offset, int length) throws IOException {
+         out.write(b, offset, length);
+         count += length;
+         }
+
+      }
+
+   }
@@ -0,0 +1,124 @@
+// TickScheduler.class  This class paces simulation steps against absolute
+//                      deadlines (start + n*period) instead of sleeping a
+//                      fixed time after each step, so the time spent
+//                      computing, logging and printing a step does not
+//                      add up into drift.  It also measures how late each
+//                      step was released (jitter).
+//
+//    When a step overruns its slot the scheduler either
+//       CATCH_UP: releases the late steps back to back until it is on
+//                 schedule again (simulated time stays locked to wall time)
+//       SKIP:     gives up the missed slots and carries on from the next
+//                 one (no burst of steps, simulated time falls behind)
+//
+//    If given a RunControl, a pause while waiting holds the deadline back
+//    by the time spent paused.
+//
+
+import java.util.concurrent.locks.LockSupport;
+
+final class TickScheduler {
+
+   public final static int CATCH_UP = 0;
+   public final static int SKIP = 1;
+   private int policy;
+   private RunControl control;    // may be null
+   private long start;            // System.nanoTime() of the first deadline
+   private long next;             // next deadline, nsec after start
+   // jitter statistics (nsec)
+   private long ticks;
+   private long overruns;
+   private long skipped;
+   private long maxLateness;
+   private double sumLateness;
+   private double sumSquaredLateness;
+
+   public TickScheduler(int policy, RunControl control) {
+      this.policy = policy;
+      this.control = control;
+      }
+
+   public final void start() {
+      start = System.nanoTime();
+      next = 0;
+      ticks = overruns = skipped = maxLateness = 0;
+      sumLateness = sumSquaredLateness = 0;
+      }
+
+   // wait for the deadline one period after the previous one
+   public final void await(long period) throws InterruptedException {
+      next += period;
+      long deadline = start + next;
+      long now = System.nanoTime();
+      if(now - deadline >= 0)
+         overruns++;
+      while(now - deadline < 0) {
+         if(control == null) {
+            LockSupport.parkNanos(deadline - now);
+            if(Thread.interrupted())
+               throw new InterruptedException();
+            }
+         else if(!control.waitUntil(deadline)) {
+            if(control.isStopped())
+               return;
+            long paused = control.awaitRunning();
+            shift(paused);
+            deadline += paused;
+            }
+         now = System.nanoTime();
+         }
+      long lateness = now - deadline;
+      ticks++;
+      sumLateness += lateness;
+      sumSquaredLateness += (double)lateness*lateness;
+      if(lateness > maxLateness)
+         maxLateness = lateness;
+      if(policy == SKIP && lateness >= period) {
+         long missed = lateness/period;
+         next += missed*period;
+         skipped += missed;
+         }
+      }
+
+   // moves the whole schedule later, e.g. by the time spent paused
+   public final void shift(long nanos) {
+      start += nanos;
+      }
+
+   public final long getTicks() {
+      return ticks;
+      }
+
+   public final long getOverruns() {
+      return overruns;
+      }
+
+   public final long getSkipped() {
+      return skipped;
+      }
+
+   public final double getMeanLateness() {
+      return ticks == 0 ? 0 : sumLateness/ticks;
+      }
+
+   public final double getLatenessDeviation() {
+      if(ticks == 0)
+         return 0;
+      double mean = getMeanLateness();
+      return Math.sqrt(Math.max(0, sumSquaredLateness/ticks - mean*mean));
+      }
+
+   public final long getMaxLateness() {
+      return maxLateness;
+      }
+
+   public final String getReport() {
+      java.text.NumberFormat nf = java.text.NumberFormat.getInstance();
+      nf.setMaximumFractionDigits(1);
+      return "Timing: " + ticks + " steps, lateness mean " + nf.format(getMeanLateness()/1000) +
+             " us, std " + nf.format(getLatenessDeviation()/1000) +
+             " us, max " + nf.format(maxLateness/1000.0) + " us, " +
+             overruns + " overruns, " + skipped + " slots skipped";
+      }
+
+   }
@@ -0,0 +1,90 @@
+// Trajectory.class  This class is what WhatIf predicts for one branch.
+//
+
+import java.util.Arrays;
+
+// The predicted course of the two reservoirs in one what-if branch: level
+// and temperature at the fork, every sample msec after it and where the
+// branch ended.
+final class Trajectory {
+
+   private final String name;
+   private int[] times;
+   private double[][] levels = new double[2][];
+   private double[][] temperatures = new double[2][];
+   private int size;
+   private String terminationMessage;    // null: ran for the whole horizon
+
+   Trajectory(String name, int capacity) {
+      this.name = name;
+      times = new int[capacity];
+      for(int r=0; r<2; r++) {
+         levels[r] = new double[capacity];
+         temperatures[r] = new double[capacity];
+         }
+      }
+
+   final void add(Engine engine) {
+      if(size == times.length) {
+         times = Arrays.copyOf(times, 2*size);
+         for(int r=0; r<2; r++) {
+            levels[r] = Arrays.copyOf(levels[r], 2*size);
+            temperatures[r] = Arrays.copyOf(temperatures[r], 2*size);
+            }
+         }
+      Reservoir[] reservoirs = {engine.R1, engine.R2};
+      times[size] = engine.getTime();
+      for(int r=0; r<2; r++) {
+         levels[r][size] = reservoirs[r].getWaterLevel();
+         temperatures[r][size] = reservoirs[r].getTemperature();
+         }
+      size++;
+      }
+
+   final void end(Engine engine) {
+      if(engine.isTerminated())
+         terminationMessage = engine.getTerminationMessage();
+      if(times[size-1] != engine.getTime())
+         add(engine);
+      }
+
+   public final String getName() {
+      return name;
+      }
+
+   // number of points
+   public final int size() {
+      return size;
+      }
+
+   // simulated time (msec) of point i
+   public final int getTime(int i) {
+      return times[i];
+      }
+
+   // level and temperature of reservoir r (0 or 1) at point i
+   public final double getLevel(int r, int i) {
+      return levels[r][i];
+      }
+
+   public final double getTemperature(int r, int i) {
+      return temperatures[r][i];
+      }
+
+   public final boolean isTerminated() {
+      return terminationMessage != null;
+      }
+
+   public final String getTerminationMessage() {
+      return terminationMessage;
+      }
+
+   // where the branch ended, as a tab-separated row
+   public final String toString() {
+      int i = size - 1;
+      return name + "\t" + (terminationMessage == null ? BatchRunner.TIME_LIMIT_MESSAGE : terminationMessage) +
+             "\t" + times[i]/1000.0 + "\t" + levels[0][i] + "\t" + levels[1][i] +
+             "\t" + temperatures[0][i] + "\t" + temperatures[1][i];
+      }
+
+   }
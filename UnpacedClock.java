@@ -0,0 +1,25 @@
+// UnpacedClock.class  This class is the SimulationClock that runs as fast
+//                     as possible.
+//
+
+// Never waits; used for batch runs where nobody is watching.
+final class UnpacedClock extends SimulationClock {
+
+   public final void start() {
+      }
+
+   public final void advance(int dt) {
+      }
+
+   public final void pausedFor(long nanos) {
+      }
+
+   public final double getSpeed() {
+      return AS_FAST_AS_POSSIBLE;
+      }
+
+   public final String getTimingReport() {
+      return null;
+      }
+
+   }
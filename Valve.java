@@ -27,11 +27,12 @@
 //
 
 import java.awt.*;
+import java.io.*;
 import javax.swing.*;
 import javax.swing.border.*;
 import javax.swing.event.*;
 
-public class Valve extends Flow {
+public class Valve extends Flow implements FaultTarget {
 
    private double valveSetting;
    private double valveOpening;
@@ -40,15 +41,20 @@ public class Valve extends Flow {
    private int valveFault1Time;
    private double valveFault2Setpoint;
    private int valveFault2Time;
+   private LagFactor exact;          // null: Euler integration
+   private int faultSlot;            // the fault the valve is in (0: none)
+   private double faultSetpoint;
    private ValveSliderCanvas valveSliderCanvas;
    private JSlider valveSlider;
    private ValveCanvas valveCanvas;
    private MassFlowMeterCanvas massFlowMeterCanvas;
    protected /*private*/ ValveLabelCanvas valveLabelCanvas;
+   private Session session;
 
-   public Valve(String name, double maxFlow, double initSet, double initFlow, double tC,
+   public Valve(Session session, String name, double maxFlow, double initSet, double initFlow, double tC,
                 double fsp1, int ft1, double fsp2, int ft2) {
       super(name, maxFlow);
+      this.session = session;
       valveSetting = initSet;
       super.setMassFlowOut(initFlow);
       valveOpening = initFlow;
@@ -57,6 +63,10 @@ public class Valve extends Flow {
       valveFault1Time = ft1;
       valveFault2Setpoint = fsp2;
       valveFault2Time = ft2;
+      }
+
+   public void createDisplay() {
+      super.createDisplay();
       valveSliderCanvas = new ValveSliderCanvas(this, (int)getMaximumMassFlowOut());
       valveSliderCanvas.setValveSlider((int)valveSetting);
       valveCanvas = new ValveCanvas();
@@ -64,33 +74,72 @@ public class Valve extends Flow {
       valveLabelCanvas = new ValveLabelCanvas(getMaximumMassFlowOut());
       }
 
-   public final void calculateResistance(int t, int dt) {
-      double localSetting = valveSetting;
+   public void updateDisplay() {
+      massFlowMeterCanvas.setMeterSetting(getMassFlowOut());
+      }
 
-      // check to see if valve is in one of the fault modes
-      if(valveFault2Time != Simulator.NEVER && valveFault2Time <= t)
-         localSetting = valveFault2Setpoint;
-      else if(valveFault1Time != Simulator.NEVER && valveFault1Time <= t)
-         localSetting = valveFault1Setpoint;
+   public final void calculateResistance(int t, int dt) {
+      // a faulty valve is stuck at its fault setpoint
+      double localSetting = faultSlot > 0 ? faultSetpoint : valveSetting;
 
       // calculate opening
       valveOpening = max(0, min(valveOpening, getMaximumMassFlowOut()));
 
       // add the derivative
-      valveOpening += (localSetting-valveOpening)*dt/valveTimeConstant;
+      if(exact != null)
+         valveOpening += (localSetting-valveOpening)*exact.get(dt);
+      else
+         valveOpening += (localSetting-valveOpening)*dt/valveTimeConstant;
+      }
+
+   // the scenario's faults 1 and 2
+   public void scheduleFaults(FaultTimeline timeline) {
+      timeline.schedule(valveFault1Time, this, 1, valveFault1Setpoint);
+      timeline.schedule(valveFault2Time, this, 2, valveFault2Setpoint);
+      }
+
+   // sticks the valve at setpoint, unless it is in a fault of a higher slot
+   public void fault(int slot, double setpoint) {
+      if(slot >= faultSlot) {
+         faultSlot = slot;
+         faultSetpoint = setpoint;
+         }
+      }
+
+   // Engine.EULER or Engine.EXPONENTIAL
+   public void setIntegration(int mode) {
+      exact = mode == Engine.EXPONENTIAL ? new LagFactor(valveTimeConstant) : null;
+      }
+
+   // true if the opening is within epsilon (a fraction of the maximum) of
+   // the setting it is heading for
+   public boolean isSettled(double epsilon) {
+      double localSetting = faultSlot > 0 ? faultSetpoint : valveSetting;
+      return valveOpening >= 0 && valveOpening <= getMaximumMassFlowOut() &&
+             Math.abs(localSetting - valveOpening) <= epsilon*getMaximumMassFlowOut();
+      }
+
+   public void save(DataOutput out) throws IOException {
+      super.save(out);
+      out.writeDouble(valveSetting);
+      out.writeDouble(valveOpening);
+      out.writeInt(faultSlot);
+      out.writeDouble(faultSetpoint);
+      }
+
+   public void restore(DataInput in) throws IOException {
+      super.restore(in);
+      valveSetting = in.readDouble();
+      valveOpening = in.readDouble();
+      faultSlot = in.readInt();
+      faultSetpoint = in.readDouble();
       }
 
    public final void setMassFlowOut(double newMassOut) {
-      if(newMassOut >= 0) {
+      if(newMassOut >= 0)
          super.setMassFlowOut(newMassOut);
-         // update meter
-         massFlowMeterCanvas.setMeterSetting(newMassOut);
-         }
-      else {
+      else
          super.setMassFlowOut(0);
-         // update meter
-         massFlowMeterCanvas.setMeterSetting(0);
-         }
       }
 
    public final void setValveSetting(double newSetting) {
@@ -101,18 +150,27 @@ public class Valve extends Flow {
       return valveSetting;
       }
 
-   public void setSlider(double newValue) {
+   // operator's control name for this valve (the settings it is given
+   // through the Session's command queue are addressed by it)
+   public String getControlName() {
+      return getName();
+      }
 
-       //Signe: added logging
-      if(Simulator.log_started)
-        Simulator.log.updateValve(newValue, super.getName());
-      valveSliderCanvas.setValveSlider((int)(newValue*10));
+   // moves the slider(s) only; the setting itself is applied (and logged)
+   // by the Engine when the queued command reaches it
+   public void setSlider(double newValue) {
+      if(valveSliderCanvas != null)
+         valveSliderCanvas.setValveSlider((int)(newValue*10));
       }
 
    public final double getValveOpening() {
       return valveOpening;
       }
 
+   public final Session getSession() {
+      return session;
+      }
+
    public final ValveSliderCanvas getValveSliderCanvas() {
       return valveSliderCanvas;
       }
@@ -143,11 +201,11 @@ final class ValveSliderCanvas extends JPanel {
       valveSlider = new JSlider(JSlider.VERTICAL, 0, maxSet*10, 0); //Signe: modified for precision
       valveSlider.addChangeListener(new ChangeListener() {
                                        public void stateChanged(ChangeEvent event) {
-                                    	   if (!DuressJ_new.killswitchstate) {
+                                    	   if (!parent.getSession().isKillSwitchOn()) {
 //                                    		   DuressJ_new.valveSliderA.addchangeListener
                                     		   JSlider source = (JSlider)event.getSource();
                                                if(!source.getValueIsAdjusting()) {
-                                                  parent.setValveSetting((double)(source.getValue() / 10.0));
+                                                  parent.getSession().submit(parent.getControlName(), (double)(source.getValue() / 10.0));
                                                   parent.setSlider((double)(source.getValue() / 10.0));
                                                }
                                     	   }
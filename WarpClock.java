@@ -0,0 +1,37 @@
+// WarpClock.class  This class is the SimulationClock for interactive runs
+//                  at a fixed multiple of real time.
+//
+
+// Releases each step dt/speed after the previous step's deadline (not
+// after the step finished), so slow steps do not make the run drift.
+final class WarpClock extends SimulationClock {
+
+   private double speed;
+   private TickScheduler scheduler;
+
+   public WarpClock(double speed, int overrunPolicy, RunControl control) {
+      this.speed = speed;
+      scheduler = new TickScheduler(overrunPolicy, control);
+      }
+
+   public final void start() {
+      scheduler.start();
+      }
+
+   public final void advance(int dt) throws InterruptedException {
+      scheduler.await((long)(dt*1000000L/speed));
+      }
+
+   public final void pausedFor(long nanos) {
+      scheduler.shift(nanos);
+      }
+
+   public final double getSpeed() {
+      return speed;
+      }
+
+   public final String getTimingReport() {
+      return scheduler.getReport();
+      }
+
+   }
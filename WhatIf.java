@@ -0,0 +1,158 @@
+// WhatIf.class  This class answers "what happens if ..." questions about a
+//               running plant without disturbing it: the live Engine is
+//               forked at its next step into one branch per operator
+//               script, and each branch is run headless, as fast as
+//               possible, on a pool of worker threads.  Each returns the
+//               Trajectory of the two reservoirs' levels and temperatures.
+//
+//    A branch is a new Engine on the live one's Scenario (which is
+//    immutable and shared by all of them) restored from one Snapshot of
+//    the live state (about 1 KB, also shared, read only), so dozens of
+//    branches stay cheap.  Script times count from the fork: "0 VA1 6"
+//    opens VA1 to 6 at once.  A branch without any action shows where
+//    the plant goes if nobody touches it.
+//
+//    Usage:  java WhatIf [-at sec] [-horizon sec] [-policy script]
+//                        scenario.cf branch-script...
+//
+//    plays the scenario under the policy (if given) for -at seconds as the
+//    live run, forks it into one branch per script and prints where each
+//    branch ends.
+//
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+final class WhatIf {
+
+   public final static int DEFAULT_SAMPLE = 1000;        // msec between trajectory points
+   private final ExecutorService pool;
+
+   public WhatIf() {
+      this(Runtime.getRuntime().availableProcessors());
+      }
+
+   public WhatIf(int threads) {
+      pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                                             public Thread newThread(Runnable r) {
+                                                Thread thread = new Thread(r, "What-if branch");
+                                                thread.setDaemon(true);
+                                                return thread;
+                                                }
+                                             });
+      }
+
+   // forks live (at the start of its next step, or at once if it is over,
+   // paused or stopped; safe from any thread) into one branch per script,
+   // each run for horizon msec or until it ends, with a trajectory point
+   // every sample msec
+   public final List<Future<Trajectory>> fork(Engine live, OperatorPolicy[] scripts,
+                                             int horizon, int sample) {
+      return fork(live.getScenario(), live.requestSnapshot(), scripts, horizon, sample);
+      }
+
+   // the same from a snapshot taken before (of a plant of scenario)
+   public final List<Future<Trajectory>> fork(Scenario scenario, Snapshot snapshot, OperatorPolicy[] scripts,
+                                             int horizon, int sample) {
+      return fork(scenario, CompletableFuture.completedFuture(snapshot), scripts, horizon, sample);
+      }
+
+   private List<Future<Trajectory>> fork(final Scenario scenario, CompletableFuture<Snapshot> snapshot,
+                                         OperatorPolicy[] scripts, final int horizon, final int sample) {
+      if(horizon <= 0 || sample <= 0)
+         throw new IllegalArgumentException("bad horizon " + horizon + " or sample " + sample);
+      ArrayList<Future<Trajectory>> branches = new ArrayList<Future<Trajectory>>();
+      for(int i=0; i<scripts.length; i++) {
+         final OperatorPolicy script = scripts[i];
+         branches.add(snapshot.thenApplyAsync(new Function<Snapshot, Trajectory>() {
+                                                 public Trajectory apply(Snapshot s) {
+                                                    return run(scenario, s, script, horizon, sample);
+                                                    }
+                                                 }, pool));
+         }
+      return branches;
+      }
+
+   // one branch: the plant of snapshot under script for horizon msec
+   public static Trajectory run(Scenario scenario, Snapshot snapshot, OperatorPolicy script,
+                                int horizon, int sample) {
+      Engine engine = new Engine(scenario, new Session());
+      try {
+         engine.restore(snapshot);
+         }
+      catch(IOException e) {
+         throw new IllegalArgumentException(e.toString());
+         }
+      int start = engine.getTime();
+      int end = start + horizon;
+      Trajectory trajectory = new Trajectory(script.getName(), horizon/sample + 2);
+      trajectory.add(engine);
+      int next = start + sample;
+      while(!engine.isTerminated() && engine.getTime() < end) {
+         script.apply(engine, engine.getTime() - start);
+         engine.step();
+         if(engine.getTime() >= next && !engine.isTerminated()) {
+            trajectory.add(engine);
+            next += sample;
+            }
+         }
+      trajectory.end(engine);
+      return trajectory;
+      }
+
+   public final void shutdown() {
+      pool.shutdown();
+      }
+
+   public static void main(String[] args) {
+      int at = 0;
+      int horizon = 10*60*1000;
+      OperatorPolicy policy = ScriptedPolicy.NONE;
+      String scenario = null;
+      ArrayList<OperatorPolicy> scripts = new ArrayList<OperatorPolicy>();
+      try {
+         for(int i=0; i<args.length; i++) {
+            if(args[i].equals("-at"))
+               at = (int)Math.round(Double.parseDouble(args[++i])*1000);
+            else if(args[i].equals("-horizon"))
+               horizon = (int)Math.round(Double.parseDouble(args[++i])*1000);
+            else if(args[i].equals("-policy"))
+               policy = ScriptedPolicy.load(new File(args[++i]));
+            else if(scenario == null)
+               scenario = args[i];
+            else
+               scripts.add(ScriptedPolicy.load(new File(args[i])));
+            }
+         }
+      catch(Exception e) {
+         System.out.println("Error: " + e);
+         System.exit(1);
+         }
+      if(scenario == null || scripts.isEmpty()) {
+         System.out.println("usage: java WhatIf [-at sec] [-horizon sec] [-policy script] scenario.cf branch-script...");
+         System.exit(1);
+         }
+      WhatIf whatIf = new WhatIf();
+      try {
+         Engine live = new Engine(scenario);
+         while(!live.isTerminated() && live.getTime() < at) {
+            policy.apply(live, live.getTime());
+            live.step();
+            }
+         // the live run is not stepping any more, so it is snapshot here
+         List<Future<Trajectory>> branches = whatIf.fork(live.getScenario(), live.snapshot(),
+                                                         scripts.toArray(new OperatorPolicy[0]),
+                                                         horizon, DEFAULT_SAMPLE);
+         System.out.println("Branch\tTermination\tTime\tLevel1\tLevel2\tTemp1\tTemp2");
+         for(Future<Trajectory> branch : branches)
+            System.out.println(branch.get());
+         }
+      catch(Exception e) {
+         System.out.println("Error: " + e);
+         }
+      whatIf.shutdown();
+      }
+
+   }